@@ -2,6 +2,7 @@ package org.dreamexposure.discal.cam
 
 import org.dreamexposure.discal.Application
 import org.dreamexposure.discal.cam.google.GoogleInternalAuthHandler
+import org.dreamexposure.discal.core.cache.SharedCache
 import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
@@ -30,6 +31,9 @@ class Cam {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Connect the shared cache now, not lazily from inside a reactive pipeline
+            SharedCache.connect()
+
             //Handle generating new google auth credentials for discal accounts
             if (args.size > 1 && args[0].equals("-forceNewGoogleAuth", true)) {
                 //This will automatically kill this instance once finished
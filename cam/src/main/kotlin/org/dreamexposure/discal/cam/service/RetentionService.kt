@@ -0,0 +1,73 @@
+package org.dreamexposure.discal.cam.service
+
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.database.PurgeResult
+import org.dreamexposure.discal.core.database.RetentionOptions
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal
+import org.springframework.boot.ApplicationArguments
+import org.springframework.boot.ApplicationRunner
+import org.springframework.stereotype.Component
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * Purges expired sessions and data for events that ended long ago, in small batches so live traffic is never stalled.
+ * With `RETENTION_DRY_RUN` set, it only reports what it would delete.
+ *
+ * Also resumes calendar/guild teardowns that were interrupted part way.
+ */
+@Component
+class RetentionService : ApplicationRunner {
+    private val eventRetention = Duration.ofDays(BotSettings.RETENTION_EVENT_DAYS.getOrDefault("30").toLong())
+
+    private val options = RetentionOptions(
+        batchSize = BotSettings.RETENTION_BATCH_SIZE.getOrDefault("500").toInt(),
+        pause = Duration.ofMillis(BotSettings.RETENTION_BATCH_PAUSE.getOrDefault("250").toLong()),
+        dryRun = BotSettings.RETENTION_DRY_RUN.getOrDefault("false").toBoolean(),
+    )
+
+    override fun run(args: ApplicationArguments?) {
+        Flux.interval(Duration.ofHours(24))
+            .concatMap {
+                purge()
+            }.doOnError {
+                LOGGER.error(GlobalVal.DEFAULT, "Retention Service runner error", it)
+            }.onErrorResume {
+                Mono.empty()
+            }.subscribe()
+
+        Flux.interval(Duration.ofMinutes(5), Duration.ofHours(1))
+            .concatMap {
+                // Anything this old is not still running
+                DatabaseManager.resumeTeardowns(Instant.now().minus(Duration.ofHours(1)))
+            }.filter { it > 0 }
+            .doOnNext {
+                LOGGER.info(GlobalVal.DEFAULT, "Resumed and finished $it interrupted teardowns")
+            }.doOnError {
+                LOGGER.error(GlobalVal.DEFAULT, "Teardown resume runner error", it)
+            }.onErrorResume {
+                Mono.empty()
+            }.subscribe()
+    }
+
+    private fun purge(): Flux<PurgeResult> {
+        val endedBefore = Instant.now().minus(eventRetention)
+
+        // One table at a time, no point in having purges compete with each other
+        return Flux.concat(
+            DatabaseManager.purgeExpiredSessions(options),
+            DatabaseManager.purgeEndedRsvps(endedBefore, options),
+            DatabaseManager.purgeEndedEvents(endedBefore, options),
+        ).doOnNext {
+            val action = if (it.dryRun) "Would purge" else "Purged"
+            LOGGER.info(
+                GlobalVal.DEFAULT,
+                "$action ${it.rows} rows from ${it.table} in ${it.batches} batches, took ${it.duration.toMillis()}ms"
+            )
+        }
+    }
+}
@@ -6,6 +6,7 @@ import discord4j.core.DiscordClientBuilder
 import discord4j.core.GatewayDiscordClient
 import discord4j.core.`object`.presence.ClientActivity
 import discord4j.core.`object`.presence.ClientPresence
+import discord4j.core.event.domain.guild.GuildDeleteEvent
 import discord4j.core.event.domain.interaction.ChatInputInteractionEvent
 import discord4j.core.event.domain.lifecycle.ReadyEvent
 import discord4j.core.event.domain.message.MessageCreateEvent
@@ -27,6 +28,7 @@ import org.dreamexposure.discal.client.listeners.discord.*
 import org.dreamexposure.discal.client.message.Messages
 import org.dreamexposure.discal.client.module.command.AddCalendarCommand
 import org.dreamexposure.discal.client.module.command.CommandExecutor
+import org.dreamexposure.discal.core.cache.SharedCache
 import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
@@ -55,6 +57,9 @@ class DisCalClient {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Connect the shared cache now, not lazily from inside a reactive pipeline
+            SharedCache.connect()
+
             //Load lang files
             Messages.reloadLangs().subscribe()
 
@@ -72,6 +77,14 @@ class DisCalClient {
                 exitProcess(4)
             }
 
+            //Shard reads only find every guild if the bucket count matches the database's
+            try {
+                DatabaseManager.verifySchema().block()
+            } catch (e: Exception) {
+                LOGGER.error(DEFAULT, "Database schema does not match settings", e)
+                exitProcess(3)
+            }
+
             //Login
             DiscordClientBuilder.create(BotSettings.TOKEN.get())
                     .build().gateway()
@@ -92,6 +105,10 @@ class DisCalClient {
                                 .on(RoleDeleteEvent::class.java, RoleDeleteListener::handle)
                                 .then()
 
+                        val onGuildDelete = client
+                                .on(GuildDeleteEvent::class.java, GuildDeleteListener::handle)
+                                .then()
+
                         val onCommand = client
                                 .on(MessageCreateEvent::class.java, MessageCreateListener::handle)
                                 .then()
@@ -105,7 +122,7 @@ class DisCalClient {
                                 .on(ChatInputInteractionEvent::class.java, slashCommandListener::handle)
                                 .then()
 
-                        Mono.`when`(onReady, onRoleDelete, onCommand, onSlashCommand)
+                        Mono.`when`(onReady, onRoleDelete, onGuildDelete, onCommand, onSlashCommand)
                     }.block()
         }
     }
@@ -115,6 +132,7 @@ class DisCalClient {
     fun onShutdown() {
         LOGGER.info(STATUS, "Shutting down shard")
 
+        DatabaseManager.flushPendingWrites().block()
         DatabaseManager.disconnectFromMySQL()
 
         client?.logout()?.subscribe()
@@ -374,6 +374,7 @@ class AnnouncementCommand(val wizard: Wizard<Announcement>) : SlashCommand {
                 event.followupEphemeral(getMessage("error.wizard.notStarted", settings))
             }
         }.switchIfEmpty(event.followupEphemeral(getCommonMsg("error.perms.privileged", settings)))
+            .transform { DatabaseManager.readYourWrites(it) }
     }
 
     private fun cancel(event: ChatInputInteractionEvent, settings: GuildSettings): Mono<Message> {
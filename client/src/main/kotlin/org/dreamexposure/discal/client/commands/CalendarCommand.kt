@@ -8,6 +8,7 @@ import discord4j.core.`object`.entity.Member
 import discord4j.core.`object`.entity.Message
 import org.dreamexposure.discal.client.message.embed.CalendarEmbed
 import org.dreamexposure.discal.client.service.StaticMessageService
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.response.UpdateCalendarResponse
 import org.dreamexposure.discal.core.enums.calendar.CalendarHost
 import org.dreamexposure.discal.core.extensions.discord4j.*
@@ -214,6 +215,7 @@ class CalendarCommand(val wizard: Wizard<PreCalendar>, val staticMessageSrv: Sta
                 event.followupEphemeral(getMessage("error.wizard.notStarted", settings))
             }
         }.switchIfEmpty(event.followupEphemeral(getCommonMsg("error.perms.elevated", settings)))
+            .transform { DatabaseManager.readYourWrites(it) }
     }
 
     private fun cancel(event: ChatInputInteractionEvent, settings: GuildSettings): Mono<Message> {
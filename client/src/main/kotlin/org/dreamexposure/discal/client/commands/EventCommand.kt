@@ -8,6 +8,7 @@ import discord4j.core.`object`.entity.Message
 import discord4j.core.spec.MessageCreateSpec
 import org.dreamexposure.discal.client.message.embed.EventEmbed
 import org.dreamexposure.discal.client.service.StaticMessageService
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Event
 import org.dreamexposure.discal.core.entities.response.UpdateEventResponse
 import org.dreamexposure.discal.core.enums.event.EventColor
@@ -486,6 +487,7 @@ class EventCommand(val wizard: Wizard<PreEvent>, val staticMessageSrv: StaticMes
                 event.followupEphemeral(getMessage("error.wizard.notStarted", settings))
             }
         }.switchIfEmpty(event.followupEphemeral(getCommonMsg("error.perms.privileged", settings)))
+            .transform { DatabaseManager.readYourWrites(it) }
     }
 
     private fun cancel(event: ChatInputInteractionEvent, settings: GuildSettings): Mono<Message> {
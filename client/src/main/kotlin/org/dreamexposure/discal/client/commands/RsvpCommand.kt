@@ -56,10 +56,15 @@ class RsvpCommand : SlashCommand {
                             if (rsvp.hasRoom(member.id.asString())) {
                                 rsvp.removeCompletely(member)
                                     .flatMap { it.addGoingOnTime(member).thenReturn(it) }
-                                    .flatMap { calEvent.updateRsvp(it).thenReturn(it) }
-                                    .flatMap { RsvpEmbed.list(guild, settings, calEvent, it) }
-                                    .flatMap {
-                                        event.followupEphemeral(getMessage("onTime.success", settings), it)
+                                    .flatMap { calEvent.updateRsvpNow(it) }
+                                    .flatMap { result ->
+                                        // Others may have taken the last spots since the check above
+                                        val key = if (member.id.asString() in result.waitlisted) "onTime.failure.limit"
+                                        else "onTime.success"
+
+                                        rsvp.revokeRole(result.waitlisted, member.client.rest())
+                                            .then(RsvpEmbed.list(guild, settings, calEvent, rsvp))
+                                            .flatMap { event.followupEphemeral(getMessage(key, settings), it) }
                                     }
                             } else {
                                 // No room, add to waitlist instead
@@ -101,9 +106,16 @@ class RsvpCommand : SlashCommand {
                             if (rsvp.hasRoom(member.id.asString())) {
                                 rsvp.removeCompletely(member)
                                     .flatMap { it.addGoingLate(member).thenReturn(it) }
-                                    .flatMap { calEvent.updateRsvp(it).thenReturn(it) }
-                                    .flatMap { RsvpEmbed.list(guild, settings, calEvent, it) }
-                                    .flatMap { event.followupEphemeral(getMessage("late.success", settings), it) }
+                                    .flatMap { calEvent.updateRsvpNow(it) }
+                                    .flatMap { result ->
+                                        // Others may have taken the last spots since the check above
+                                        val key = if (member.id.asString() in result.waitlisted) "late.failure.limit"
+                                        else "late.success"
+
+                                        rsvp.revokeRole(result.waitlisted, member.client.rest())
+                                            .then(RsvpEmbed.list(guild, settings, calEvent, rsvp))
+                                            .flatMap { event.followupEphemeral(getMessage(key, settings), it) }
+                                    }
                             } else {
                                 // No room, add to waitlist instead
                                 rsvp.removeCompletely(member)
@@ -233,10 +245,16 @@ class RsvpCommand : SlashCommand {
             .map(ApplicationCommandInteractionOptionValue::asString)
             .get()
 
+        val page = event.options[0].getOption("page")
+            .flatMap(ApplicationCommandInteractionOption::getValue)
+            .map(ApplicationCommandInteractionOptionValue::asLong)
+            .map { it.toInt() - 1 }
+            .orElse(0)
+
         return event.interaction.guild.flatMap { guild ->
             guild.getCalendar(calendarNumber).flatMap { cal ->
                 cal.getEvent(eventId).flatMap { calEvent ->
-                    RsvpEmbed.list(guild, settings, calEvent).flatMap { event.followupEphemeral(it) }
+                    RsvpEmbed.list(guild, settings, calEvent, page).flatMap { event.followupEphemeral(it) }
                 }.switchIfEmpty(event.followupEphemeral(getCommonMsg("error.notFound.event", settings)))
             }.switchIfEmpty(event.followupEphemeral(getCommonMsg("error.notFound.calendar", settings)))
         }
@@ -0,0 +1,30 @@
+package org.dreamexposure.discal.client.listeners.discord
+
+import discord4j.core.event.domain.guild.GuildDeleteEvent
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import reactor.core.publisher.Mono
+
+object GuildDeleteListener {
+    // Off by default, a bad gateway session can make it look like the bot was removed from guilds it is still in
+    private val enabled = BotSettings.TEARDOWN_ON_KICK.getOrDefault("false").toBoolean()
+
+    fun handle(event: GuildDeleteEvent): Mono<Void> {
+        // Unavailable means an outage, not a kick
+        if (!enabled || event.isUnavailable) return Mono.empty()
+
+        return Mono.fromRunnable<Void> {
+            DiscalCache.guildSettings.remove(event.guildId)
+            DiscalCache.handleCalendarDelete(event.guildId)
+
+            // Can take a while for big guilds, don't hold up the event dispatcher for it
+            DatabaseManager.deleteAllDataForGuild(event.guildId)
+                .filter { it }
+                .doOnNext { LOGGER.info(DEFAULT, "Removed all data for guild ${event.guildId.asString()} after kick") }
+                .subscribe()
+        }
+    }
+}
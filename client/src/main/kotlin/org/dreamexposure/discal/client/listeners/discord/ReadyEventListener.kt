@@ -3,6 +3,7 @@ package org.dreamexposure.discal.client.listeners.discord
 import discord4j.core.event.domain.lifecycle.ReadyEvent
 import discord4j.rest.util.Image
 import org.dreamexposure.discal.client.message.Messages
+import org.dreamexposure.discal.core.cache.CacheWarmer
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
 import org.dreamexposure.discal.core.utils.GlobalVal.STATUS
@@ -18,6 +19,9 @@ object ReadyEventListener {
               .onErrorResume {
                   LOGGER.error(DEFAULT, "Failed to handle ready event")
                   Mono.empty()
-              }.then()
+              }.then(Mono.fromRunnable<Void> {
+                  // Runs in the background, the shard can serve everything while the cache fills
+                  CacheWarmer.warm(event.guilds.map { it.id }).subscribe()
+              })
     }
 }
@@ -6,63 +6,83 @@ import discord4j.core.`object`.entity.Role
 import discord4j.core.spec.EmbedCreateSpec
 import org.dreamexposure.discal.core.`object`.GuildSettings
 import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Event
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
 import org.dreamexposure.discal.core.extensions.asStringList
 import org.dreamexposure.discal.core.extensions.discord4j.getMembersFromId
+import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import reactor.function.TupleUtils
 
 object RsvpEmbed : EmbedMaker {
-    fun list(guild: Guild, settings: GuildSettings, event: Event): Mono<EmbedCreateSpec> {
-        return event.getRsvp().flatMap { list(guild, settings, event, it) }
+    // Roughly the most usernames that fit in a single embed field
+    private const val PAGE_SIZE = 25
+
+    // Wait list users (show up to 3, with (+X) if there are more)
+    private const val WAITLIST_DISPLAY = 3
+
+    /**
+     * Pages through the stored RSVPs without loading every member of the event.
+     */
+    fun list(guild: Guild, settings: GuildSettings, event: Event, page: Int = 0): Mono<EmbedCreateSpec> {
+        val rsvpMono = DatabaseManager.getRsvpData(guild.id, event.eventId, withMembers = false)
+        val countsMono = DatabaseManager.getRsvpMemberCounts(guild.id, event.eventId)
+
+        return Mono.zip(rsvpMono, countsMono).flatMap(TupleUtils.function { rsvp, counts ->
+            list(guild, settings, event, rsvp, counts, page) { status, statusPage, size ->
+                DatabaseManager.getRsvpMembers(guild.id, event.eventId, status, statusPage, size)
+            }
+        })
     }
 
     fun list(guild: Guild, settings: GuildSettings, event: Event, rsvp: RsvpData): Mono<EmbedCreateSpec> {
+        return list(guild, settings, event, rsvp, rsvp.getCounts(), 0) { status, statusPage, size ->
+            Flux.fromIterable(rsvp.membersOf(status).drop(statusPage * size).take(size))
+        }
+    }
+
+    private fun list(
+        guild: Guild,
+        settings: GuildSettings,
+        event: Event,
+        rsvp: RsvpData,
+        counts: Map<RsvpStatus, Int>,
+        page: Int,
+        members: (RsvpStatus, Int, Int) -> Flux<String>,
+    ): Mono<EmbedCreateSpec> {
         val roleMono = Mono.justOrEmpty(rsvp.roleId)
             .flatMap { guild.getRoleById(it) }
             .map(Role::getName)
             .defaultIfEmpty("None")
 
-        val onTimeMono = guild.getMembersFromId(rsvp.goingOnTime)
-            .map(Member::getUsername)
-            .collectList()
-            .map(MutableList<String>::asStringList)
-            .map { it.ifEmpty { "N/a" } }
-
-        val lateMono = guild.getMembersFromId(rsvp.goingLate)
-            .map(Member::getUsername)
-            .collectList()
-            .map(MutableList<String>::asStringList)
-            .map { it.ifEmpty { "N/a" } }
+        fun field(status: RsvpStatus, statusPage: Int, size: Int): Mono<String> {
+            val total = counts[status] ?: 0
+            val remaining = total - (statusPage + 1) * size
 
-        val undecidedMono = guild.getMembersFromId(rsvp.undecided)
-            .map(Member::getUsername)
-            .collectList()
-            .map(MutableList<String>::asStringList)
-            .map { it.ifEmpty { "N/a" } }
+            return members(status, statusPage, size).collectList()
+                .flatMapMany(guild::getMembersFromId)
+                .map(Member::getUsername)
+                .collectList()
+                .map { list ->
+                    if (remaining > 0) "${list.asStringList()} +$remaining more"
+                    else if (list.isNotEmpty()) list.asStringList()
+                    else "N/a"
+                }
+        }
 
-        val notMono = guild.getMembersFromId(rsvp.notGoing)
-            .map(Member::getUsername)
-            .collectList()
-            .map(MutableList<String>::asStringList)
-            .map { it.ifEmpty { "N/a" } }
-
-        // Wait list users (show up to 3, with (+X) if there are more)
-        val display = 3
-        val waitListMono = guild.getMembersFromId(rsvp.waitlist.take(display))
-            .map(Member::getUsername)
-            .collectList()
-            .map { list ->
-                if (rsvp.waitlist.size > display) "${list.asStringList()} +${rsvp.waitlist.size - display} more"
-                else if (list.isNotEmpty()) list.asStringList()
-                else "N/a"
-            }
+        val onTimeMono = field(RsvpStatus.GOING_ON_TIME, page, PAGE_SIZE)
+        val lateMono = field(RsvpStatus.GOING_LATE, page, PAGE_SIZE)
+        val undecidedMono = field(RsvpStatus.UNDECIDED, page, PAGE_SIZE)
+        val notMono = field(RsvpStatus.NOT_GOING, page, PAGE_SIZE)
+        val waitListMono = field(RsvpStatus.WAITLIST, 0, WAITLIST_DISPLAY)
 
         return Mono.zip(roleMono, onTimeMono, lateMono, undecidedMono, notMono, waitListMono)
             .map(TupleUtils.function { role, onTime, late, undecided, notGoing, waitList ->
+                val currentCount = (counts[RsvpStatus.GOING_ON_TIME] ?: 0) + (counts[RsvpStatus.GOING_LATE] ?: 0)
                 val limitValue = if (rsvp.limit < 0) {
-                    getMessage("rsvp", "list.field.limit.value", settings, "${rsvp.getCurrentCount()}")
-                } else "${rsvp.getCurrentCount()}/${rsvp.limit}"
+                    getMessage("rsvp", "list.field.limit.value", settings, "$currentCount")
+                } else "$currentCount/${rsvp.limit}"
 
                 defaultBuilder(guild, settings)
                     .color(event.color.asColor())
@@ -49,15 +49,17 @@ class AnnouncementService : ApplicationRunner {
         if (DisCalClient.client == null) return Mono.empty()
 
         return DisCalClient.client!!.guilds.flatMap { guild ->
-            DatabaseManager.getEnabledAnnouncements(guild.id).flatMapMany { Flux.fromIterable(it) }.flatMap { announcement ->
-                when (announcement.modifier) {
-                    AnnouncementModifier.BEFORE -> handleBeforeModifier(guild, announcement)
-                    AnnouncementModifier.DURING -> handleDuringModifier(guild, announcement)
-                    AnnouncementModifier.END -> handleEndModifier(guild, announcement)
-                }
-            }.doOnError {
-                LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
-            }.onErrorResume { Mono.empty() }
+            // Read the guild's rows up front, the connection is not held while Google and Discord are called
+            DatabaseManager.streamEnabledAnnouncements(guild.id).collectList().flatMapMany { Flux.fromIterable(it) }
+                .flatMap { announcement ->
+                    when (announcement.modifier) {
+                        AnnouncementModifier.BEFORE -> handleBeforeModifier(guild, announcement)
+                        AnnouncementModifier.DURING -> handleDuringModifier(guild, announcement)
+                        AnnouncementModifier.END -> handleEndModifier(guild, announcement)
+                    }
+                }.doOnError {
+                    LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
+                }.onErrorResume { Mono.empty() }
         }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
         }.onErrorResume {
@@ -41,8 +41,9 @@ class StaticMessageService : ApplicationRunner {
     private fun doMessageUpdateLogic(): Mono<Void> {
         if (DisCalClient.client == null) return Mono.empty()
 
-        return DatabaseManager.getStaticMessagesForShard(Application.getShardCount(), getShardIndex().toInt())
-                .flatMapMany { Flux.fromIterable(it) }
+        return DatabaseManager.streamStaticMessagesForShard(Application.getShardCount(), getShardIndex().toInt())
+                // Read all rows up front, the connection is not held while Discord is called
+                .collectList().flatMapMany { Flux.fromIterable(it) }
                 //We have no interest in updating the message so close to its last update
                 .filter { Duration.between(Instant.now(), it.lastUpdate).abs().toMinutes() >= 30 }
                 // Only update messages in range
@@ -86,8 +87,8 @@ class StaticMessageService : ApplicationRunner {
     }
 
     fun updateStaticMessages(guild: Guild, calendar: Calendar, settings: GuildSettings): Mono<Void> {
-        return DatabaseManager.getStaticMessagesForCalendar(guild.id, calendar.calendarNumber)
-                .flatMapMany { Flux.fromIterable(it) }
+        return DatabaseManager.streamStaticMessagesForCalendar(guild.id, calendar.calendarNumber)
+                .collectList().flatMapMany { Flux.fromIterable(it) }
                 .flatMap { msg ->
                     when (msg.type) {
                         StaticMessage.Type.CALENDAR_OVERVIEW -> {
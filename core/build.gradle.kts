@@ -2,6 +2,7 @@ import com.squareup.kotlinpoet.FileSpec
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.PropertySpec
 import com.squareup.kotlinpoet.TypeSpec
+import org.jetbrains.kotlin.gradle.dsl.KotlinJvmProjectExtension
 import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
 
 plugins {
@@ -10,10 +11,15 @@ plugins {
 
     id("com.gorylenko.gradle-git-properties")
     id("org.jetbrains.kotlin.plugin.allopen")
+    id("me.champeau.jmh")
 }
 
 val discord4jVersion: String by properties
 val discord4jStoresVersion: String by properties
+val flywayVersion: String by properties
+val mysqlConnectorVersion: String by properties
+val junitVersion: String by properties
+val testcontainersVersion: String by properties
 val kotlinSrcDir: File = buildDir.resolve("core/src/main/kotlin")
 
 dependencies {
@@ -24,6 +30,14 @@ dependencies {
         exclude(group = "io.netty", module = "*")
         exclude(group = "io.projectreactor.netty", module = "*")
     }
+
+    //Tests, the database ones run against a MySQL container and are skipped without Docker
+    testImplementation("org.junit.jupiter:junit-jupiter:$junitVersion")
+    testImplementation("io.projectreactor:reactor-test")
+    testImplementation("org.testcontainers:junit-jupiter:$testcontainersVersion")
+    testImplementation("org.testcontainers:mysql:$testcontainersVersion")
+    testImplementation("org.flywaydb:flyway-core:$flywayVersion")
+    testImplementation("mysql:mysql-connector-java:$mysqlConnectorVersion")
 }
 
 kotlin {
@@ -34,6 +48,25 @@ kotlin {
     }
 }
 
+//Benchmarks, run with `gradlew :core:jmh`. The database ones start a MySQL container the same way the tests do
+jmh {
+    jmhVersion.set(property("jmhVersion") as String)
+    includeTests.set(true)
+    // Allocation per operation, next to the timings
+    profilers.add("gc")
+}
+
+the<KotlinJvmProjectExtension>().target.compilations.run {
+    // So benchmarks can reach internals, like the tests can
+    getByName("jmh").associateWith(getByName("main"))
+    getByName("jmh").associateWith(getByName("test"))
+}
+
+allOpen {
+    // JMH generates subclasses of the benchmark state
+    annotation("org.openjdk.jmh.annotations.State")
+}
+
 gitProperties {
     extProperty = "gitPropertiesExt"
 
@@ -88,4 +121,10 @@ tasks {
     withType<KotlinCompile> {
         dependsOn(generateGitProperties)
     }
+
+    test {
+        useJUnitPlatform()
+        // Settings and repositories are process wide singletons, every test class gets a fresh JVM to set up its own
+        forkEvery = 1
+    }
 }
@@ -0,0 +1,130 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import io.r2dbc.spi.Row
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.event.EventColor
+import org.dreamexposure.discal.core.extensions.setFromString
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * Maps announcement rows with [AnnouncementMapper] and with the mapping it replaced, on rows held in memory so only
+ * the mapping is measured. Every invocation maps [ROWS] rows and counts as that many operations, so throughput is
+ * rows per second and the gc profiler's `gc.alloc.rate.norm` is bytes allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+class AnnouncementMappingBenchmark {
+    @Param("0", "5", "50")
+    var subscribers = 0
+
+    private lateinit var projected: List<Row>
+    private lateinit var full: List<Row>
+
+    @Setup
+    fun setUp() {
+        val types = AnnouncementType.values()
+        val modifiers = AnnouncementModifier.values()
+        val colors = EventColor.values()
+
+        val values = List(ROWS) { i ->
+            val ids = List(subscribers) { (i.toLong() shl 22) + it }.joinToString(",")
+
+            linkedMapOf<String, Any>(
+                "ANNOUNCEMENT_ID" to "announcement$i",
+                "GUILD_ID" to (i.toLong() shl 22),
+                "CALENDAR_NUMBER" to 1,
+                "SUBSCRIBERS_ROLE" to ids,
+                "SUBSCRIBERS_USER" to ids,
+                "CHANNEL_ID" to "${i.toLong() shl 22}",
+                "ANNOUNCEMENT_TYPE" to types[i % types.size].name,
+                "MODIFIER" to modifiers[i % modifiers.size].name,
+                "EVENT_ID" to "",
+                "EVENT_COLOR" to colors[i % colors.size].name,
+                "HOURS_BEFORE" to 1,
+                "MINUTES_BEFORE" to 30,
+                "INFO" to "None",
+                "ENABLED" to true,
+                "PUBLISH" to false,
+            )
+        }
+
+        val order = AnnouncementMapper.COLUMNS.split(",").map(String::trim)
+        projected = values.map { columns -> MemoryRow(order, order.map(columns::getValue)) }
+        full = values.map { columns -> MemoryRow(columns.keys.toList(), columns.values.toList()) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    fun projected(blackhole: Blackhole) = projected.forEach { blackhole.consume(AnnouncementMapper.map(it)) }
+
+    // The announcement cycle only reads subscribers of announcements that fire, this is the worst case
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    fun projectedReadingSubscribers(blackhole: Blackhole) = projected.forEach {
+        val announcement = AnnouncementMapper.map(it)
+        blackhole.consume(announcement.subscriberRoleIds.size + announcement.subscriberUserIds.size)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    fun baseline(blackhole: Blackhole) = full.forEach { blackhole.consume(baselineMap(it)) }
+
+    /**
+     * The mapping every announcement read used to copy: columns by name, lists split up front, colors through the
+     * name/hex/id search.
+     */
+    private fun baselineMap(row: Row): Announcement {
+        val a = Announcement(Snowflake.of(row["GUILD_ID", Long::class.java]!!), row["ANNOUNCEMENT_ID", String::class.java]!!)
+        a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
+        a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
+        a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
+        a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
+        a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
+        a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
+        a.eventId = row["EVENT_ID", String::class.java]!!
+        a.eventColor = EventColor.fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
+        a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
+        a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
+        a.info = row["INFO", String::class.java]!!
+        a.enabled = row["ENABLED", Boolean::class.java]!!
+        a.publish = row["PUBLISH", Boolean::class.java]!!
+
+        return a
+    }
+
+    /**
+     * A decoded row. Lookups by name search the column names ignoring case, like the driver does.
+     */
+    private class MemoryRow(private val names: List<String>, private val values: List<Any>) : Row {
+        @Suppress("UNCHECKED_CAST")
+        override fun <T : Any?> get(index: Int, type: Class<T>): T = values[index] as T
+
+        override fun <T : Any?> get(name: String, type: Class<T>): T {
+            return get(names.indexOfFirst { it.equals(name, ignoreCase = true) }, type)
+        }
+    }
+
+    private companion object {
+        const val ROWS = 1000
+    }
+}
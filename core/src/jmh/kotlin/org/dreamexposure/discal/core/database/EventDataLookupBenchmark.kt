@@ -0,0 +1,102 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.sql.Connection
+import java.util.concurrent.TimeUnit
+
+/**
+ * Looks up the stored data of one guild's events, in tables of 10k to 1M event rows.
+ *
+ * [getEventsData] is the real path. The two plain JDBC queries compare the statement shapes alone: bound and scoped
+ * to the guild, in chunks, against the old one with the IDs spliced in and no guild filter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+class EventDataLookupBenchmark {
+    @Param("10000", "100000", "1000000")
+    var rows = 0
+
+    @Param("10", "100", "1000")
+    var ids = 0
+
+    private val eventsPerGuild = 1000
+
+    private lateinit var connection: Connection
+    private lateinit var guildId: Snowflake
+    private lateinit var eventIds: List<String>
+
+    @Setup
+    fun setUp() {
+        connection = TestDatabase.connection()
+        seed()
+
+        // A guild in the middle of the table
+        val guild = rows / eventsPerGuild / 2
+        guildId = Snowflake.of(guild.toLong() shl 22)
+        eventIds = List(ids) { "event${guild * eventsPerGuild + it}" }
+    }
+
+    @TearDown
+    fun tearDown() = connection.close()
+
+    @Benchmark
+    fun getEventsData(): Map<String, EventData> = DatabaseManager.getEventsData(guildId, eventIds).block()!!
+
+    @Benchmark
+    fun boundScopedQuery(): Int {
+        return eventIds.chunked(100).sumOf { chunk ->
+            val sql = """SELECT EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK FROM events
+                WHERE GUILD_ID = ? AND EVENT_ID IN (${chunk.joinToString(", ") { "?" }})"""
+
+            connection.prepareStatement(sql).use { statement ->
+                statement.setLong(1, guildId.asLong())
+                chunk.forEachIndexed { i, id -> statement.setString(i + 2, id) }
+                statement.executeQuery().use { rs -> generateSequence { rs.next().takeIf { it } }.count() }
+            }
+        }
+    }
+
+    @Benchmark
+    fun splicedUnscopedQuery(): Int {
+        val sql = "SELECT * FROM events WHERE event_id in (${eventIds.joinToString(", ") { "'$it'" }})"
+
+        return connection.createStatement().use { statement ->
+            statement.executeQuery(sql).use { rs -> generateSequence { rs.next().takeIf { it } }.count() }
+        }
+    }
+
+    /**
+     * [rows] events, [eventsPerGuild] to a guild, generated by the server in one statement.
+     */
+    private fun seed() {
+        val digits = (0..9).joinToString(" UNION ALL ") { "SELECT $it AS d" }
+        val places = List(6) { "($digits) d$it" }.joinToString(", ")
+        val number = List(6) { "d$it.d * ${"1" + "0".repeat(it)}" }.joinToString(" + ")
+
+        connection.createStatement().use { statement ->
+            statement.execute("DELETE FROM events")
+            statement.execute("""INSERT INTO events (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK)
+                SELECT (n DIV $eventsPerGuild) << 22, CONCAT('event', n), 1, 0, ''
+                FROM (SELECT $number AS n FROM $places) numbers
+                WHERE n < $rows""")
+            statement.execute("ANALYZE TABLE events")
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Group
+import org.openjdk.jmh.annotations.GroupThreads
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import reactor.core.publisher.Flux
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pushes the storage side of the announcement and command paths through [InMemoryRepository], one guild per
+ * operation, so throughput is guilds per second with nothing but the repository in the way.
+ *
+ * - [announcementCycle] is what the announcement service reads for every guild it handles each cycle.
+ * - [command] is one command: settings and main calendar, then an RSVP toggle that is written back, then the guild's
+ * announcements.
+ * - The `soak` group runs both at once, a cycle per three commands, for as long as it is given (`-r` per iteration).
+ * Leave it running for a long time to catch leaks or contention that a short run hides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+class RepositoryLoadBenchmark {
+    @Param("10000", "100000")
+    var guilds = 0
+
+    lateinit var repository: InMemoryRepository
+
+    @Setup
+    fun setUp() {
+        repository = InMemoryRepository()
+
+        Flux.range(0, guilds).flatMap { i ->
+            val guildId = guildId(i)
+            val rsvp = RsvpData(guildId, "event0").apply { limit = 50 }
+
+            Flux.concat(
+                repository.updateSettings(GuildSettings(guildId)),
+                repository.updateCalendar(CalendarData(guildId, 1, CalendarHost.GOOGLE, "cal$i", "cal$i")),
+                repository.updateRsvpData(rsvp),
+                Flux.range(0, EVENTS).flatMap { repository.updateEventData(EventData(guildId, "event$it", 1, 0, "")) },
+                Flux.range(0, ANNOUNCEMENTS).flatMap {
+                    repository.updateAnnouncement(Announcement(
+                        guildId,
+                        id = "announcement$i-$it",
+                        modifier = AnnouncementModifier.values()[it % AnnouncementModifier.values().size],
+                        type = if (it == 0) AnnouncementType.SPECIFIC else AnnouncementType.UNIVERSAL,
+                        eventId = "event$it",
+                        // One in four is switched off, like a guild that paused some
+                        enabled = (i + it) % 4 != 0,
+                    ))
+                },
+            )
+        }.blockLast()
+    }
+
+    /**
+     * Where each thread is in the guild list, they start apart and walk it in order.
+     */
+    @State(Scope.Thread)
+    open class Cursor {
+        private var next = ThreadLocalRandom.current().nextInt(Int.MAX_VALUE)
+
+        fun next(guilds: Int) = (next++ and Int.MAX_VALUE) % guilds
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun announcementCycle(cursor: Cursor, blackhole: Blackhole) = cycle(guildId(cursor.next(guilds)), blackhole)
+
+    @Benchmark
+    @Threads(4)
+    fun command(cursor: Cursor, blackhole: Blackhole) = command(cursor.next(guilds), blackhole)
+
+    @Benchmark
+    @Group("soak")
+    @GroupThreads(1)
+    fun soakAnnouncements(cursor: Cursor, blackhole: Blackhole) = cycle(guildId(cursor.next(guilds)), blackhole)
+
+    @Benchmark
+    @Group("soak")
+    @GroupThreads(3)
+    fun soakCommands(cursor: Cursor, blackhole: Blackhole) = command(cursor.next(guilds), blackhole)
+
+    private fun cycle(guildId: Snowflake, blackhole: Blackhole) {
+        val announcements = repository.streamEnabledAnnouncements(guildId).collectList().block()!!
+
+        for (announcement in announcements) {
+            blackhole.consume(repository.getCalendar(guildId, announcement.calendarNumber).block())
+            if (announcement.type == AnnouncementType.SPECIFIC) {
+                blackhole.consume(repository.getEventsData(guildId, listOf(announcement.eventId)).block())
+            }
+        }
+    }
+
+    private fun command(guild: Int, blackhole: Blackhole) {
+        val guildId = guildId(guild)
+        blackhole.consume(repository.getSettings(guildId).block())
+        blackhole.consume(repository.getMainCalendar(guildId).block())
+
+        // Toggling one of a few users keeps the member lists from growing through a long soak
+        val rsvp = repository.getRsvpData(guildId, "event0").block()!!
+        val user = "${ThreadLocalRandom.current().nextInt(20)}"
+        val going = rsvp.membersOf(RsvpStatus.GOING_ON_TIME)
+        if (!going.remove(user)) going.add(user)
+        blackhole.consume(repository.updateRsvpData(rsvp).block())
+
+        blackhole.consume(repository.getAnnouncements(guildId).block())
+    }
+
+    private fun guildId(i: Int) = Snowflake.of((i.toLong() shl 22) + i)
+
+    private companion object {
+        const val EVENTS = 5
+        const val ANNOUNCEMENTS = 4
+    }
+}
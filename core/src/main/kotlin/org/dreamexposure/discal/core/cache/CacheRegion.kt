@@ -0,0 +1,253 @@
+package org.dreamexposure.discal.core.cache
+
+import org.dreamexposure.discal.core.database.LatencyHistogram
+import org.dreamexposure.discal.core.`object`.network.discal.CacheRegionData
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A bounded, expiring in-memory cache.
+ *
+ * Every entry gets its own expiry of [ttl], spread by up to [jitter] either way, so entries cached together (like
+ * every guild on a shard right after startup) don't all expire at the same moment and send a wave of loads to the
+ * database. Past [maxSize] entries, the least recently used one is evicted.
+ *
+ * A region can also remember that a key has no value, for [negativeTtl], so lookups of things that don't exist (like
+ * the settings of the many guilds that never changed any) don't go to the database every time either.
+ *
+ * Lookups are a map access under a lock, which is far cheaper than anything that would be cached in here.
+ *
+ * A load only fills the region if nothing wrote the key while it ran. Otherwise a load that read the database just
+ * before an update could put the old value back over the new one, and it would stay until it expired.
+ */
+class CacheRegion<K : Any, V : Any>(
+    private val ttl: Duration,
+    private val maxSize: Int,
+    private val jitter: Double = 0.2,
+    private val negativeTtl: Duration = Duration.ZERO,
+) {
+    private val entries = object : LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, Entry<V>>): Boolean {
+            if (size <= maxSize) return false
+            evictions.incrementAndGet()
+            return true
+        }
+    }
+
+    private val hits = AtomicLong()
+    private val negativeHits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val expirations = AtomicLong()
+    private val loadLatency = LatencyHistogram()
+
+    // Loads currently running, so concurrent misses for the same key share one, see loadOnce()
+    private val inFlight = ConcurrentHashMap<Any, Mono<*>>()
+    private val coalesced = AtomicLong()
+
+    // Keys with a load running, and how often they were written since, see fill(). Guarded by the entries lock
+    private val generations = HashMap<K, Generation>()
+
+    /**
+     * @return The cached value, or null when there is none or the key is known to have none.
+     */
+    operator fun get(key: K): V? = count(lookup(key))?.value
+
+    operator fun set(key: K, value: V) {
+        synchronized(entries) {
+            written(key)
+            entries[key] = Entry(value, expiry(ttl))
+        }
+    }
+
+    /**
+     * @return Whether the key is known to have no value. Only counts towards the metrics when it is.
+     */
+    fun isAbsent(key: K): Boolean {
+        val entry = lookup(key)
+        if (entry == null || entry.value != null) return false
+
+        negativeHits.incrementAndGet()
+        return true
+    }
+
+    /**
+     * Remembers that the key has no value, unless a value is cached for it, which is more recent than whatever read
+     * found nothing. Does nothing if the region has no [negativeTtl].
+     */
+    fun setAbsent(key: K) {
+        synchronized(entries) {
+            written(key)
+            putAbsent(key)
+        }
+    }
+
+    /**
+     * Forgets that the key has no value, leaving a cached value alone.
+     */
+    fun removeAbsent(key: K) {
+        synchronized(entries) {
+            written(key)
+            if (entries[key]?.let { it.value == null } == true) entries.remove(key)
+        }
+    }
+
+    /**
+     * Replaces the value for the key with the result of [remap], which gets the current value or null. Returning null
+     * removes the entry.
+     */
+    fun compute(key: K, remap: (V?) -> V?) {
+        synchronized(entries) {
+            written(key)
+            val current = entries[key]?.takeIf { it.expiresAt - System.nanoTime() > 0 }?.value
+            val new = remap(current)
+            if (new == null) entries.remove(key) else entries[key] = Entry(new, expiry(ttl))
+        }
+    }
+
+    fun remove(key: K) {
+        synchronized(entries) {
+            written(key)
+            entries.remove(key)
+        }
+    }
+
+    fun clear() {
+        synchronized(entries) {
+            generations.values.forEach { it.writes++ }
+            entries.clear()
+        }
+    }
+
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    /**
+     * Serves the cached value, or loads it with [loadOnce] and caches what it emits. When the load completes empty,
+     * that is cached as [absent][setAbsent]. Nothing is cached when it errors, or when the key was written while it
+     * ran, the write is newer than whatever the load read.
+     */
+    fun getOrLoad(key: K, load: () -> Mono<V>): Mono<V> {
+        return Mono.defer {
+            val entry = count(lookup(key))
+            when {
+                entry == null -> loadOnce(key) { fill(key, load) }
+                entry.value == null -> Mono.empty()
+                else -> Mono.just(entry.value)
+            }
+        }
+    }
+
+    /**
+     * Runs [load], unless a load for the same key is already running, in which case its result is shared instead.
+     * When a popular entry expires, every caller that misses it at the same time waits on one load, not one each.
+     *
+     * @param key Only compared with keys of other loads of this region, it doesn't have to be a [K].
+     */
+    fun <T> loadOnce(key: Any, load: () -> Mono<T>): Mono<T> {
+        return Mono.defer {
+            var started = false
+            val shared = inFlight.computeIfAbsent(key) {
+                started = true
+                lateinit var self: Mono<T>
+                self = timeLoad(load()).doFinally { inFlight.remove(key, self) }.cache()
+                self
+            }
+            if (!started) coalesced.incrementAndGet()
+
+            @Suppress("UNCHECKED_CAST")
+            shared as Mono<T>
+        }
+    }
+
+    private fun fill(key: K, load: () -> Mono<V>): Mono<V> {
+        return Mono.defer {
+            val (generation, writes) = synchronized(entries) {
+                val generation = generations.getOrPut(key, ::Generation)
+                generation.loads++
+                generation to generation.writes
+            }
+
+            fun ifUnwritten(put: () -> Unit) {
+                synchronized(entries) { if (generation.writes == writes) put() }
+            }
+
+            load().doOnNext { ifUnwritten { entries[key] = Entry(it, expiry(ttl)) } }
+                .switchIfEmpty(Mono.fromRunnable { ifUnwritten { putAbsent(key) } })
+                .doFinally {
+                    synchronized(entries) { if (--generation.loads == 0) generations.remove(key) }
+                }
+        }
+    }
+
+    // Call with the entries lock held
+    private fun written(key: K) {
+        generations[key]?.let { it.writes++ }
+    }
+
+    // Call with the entries lock held
+    private fun putAbsent(key: K) {
+        if (negativeTtl.isZero) return
+        if (lookup(key)?.value == null) entries[key] = Entry(null, expiry(negativeTtl))
+    }
+
+    private fun <T> timeLoad(load: Mono<T>): Mono<T> {
+        return Mono.defer {
+            val start = System.nanoTime()
+            load.doOnTerminate { loadLatency.record(System.nanoTime() - start) }
+        }
+    }
+
+    fun getData(): CacheRegionData {
+        val latency = loadLatency.snapshot()
+
+        return CacheRegionData(
+            size = size,
+            maxSize = maxSize,
+            hits = hits.get(),
+            negativeHits = negativeHits.get(),
+            misses = misses.get(),
+            evictions = evictions.get(),
+            expirations = expirations.get(),
+            loads = latency.count,
+            coalesced = coalesced.get(),
+            collapseRatio = if (latency.count + coalesced.get() == 0L) 0.0
+            else coalesced.get().toDouble() / (latency.count + coalesced.get()),
+            loadMeanMillis = latency.meanMillis,
+            loadP95Millis = latency.p95Millis,
+        )
+    }
+
+    private fun lookup(key: K): Entry<V>? {
+        return synchronized(entries) {
+            val entry = entries[key] ?: return@synchronized null
+            if (entry.expiresAt - System.nanoTime() > 0) return@synchronized entry
+
+            entries.remove(key)
+            expirations.incrementAndGet()
+            null
+        }
+    }
+
+    private fun count(entry: Entry<V>?): Entry<V>? {
+        when {
+            entry == null -> misses.incrementAndGet()
+            entry.value == null -> negativeHits.incrementAndGet()
+            else -> hits.incrementAndGet()
+        }
+        return entry
+    }
+
+    private fun expiry(ttl: Duration): Long {
+        val spread = if (jitter > 0) ThreadLocalRandom.current().nextDouble(-jitter, jitter) else 0.0
+        return System.nanoTime() + (ttl.toNanos() * (1 + spread)).toLong()
+    }
+
+    // A null value means the key is known to have none
+    private class Entry<V>(val value: V?, val expiresAt: Long)
+
+    private class Generation(var writes: Long = 0, var loads: Int = 0)
+}
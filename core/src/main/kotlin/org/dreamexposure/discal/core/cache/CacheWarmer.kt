@@ -0,0 +1,79 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.function.TupleUtils
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
+
+/**
+ * Opt-in with `CACHE_WARMUP`. Fills [DiscalCache] with the settings of a shard's guilds, and which of them have no
+ * calendars, in bulk, instead of leaving the first announcement cycles after a restart to load them one guild at a time.
+ *
+ * Guilds are loaded in chunks with one query per table each, one query at a time per chunk and one chunk at a time by
+ * default. `CACHE_WARMUP_CONCURRENCY` is capped at half the bulk lane, so warm-up always leaves room for the scans that
+ * need it. Guilds without settings or calendars are cached as such too, which is most of them.
+ *
+ * Only what is in the database is warmed. Calendars that do exist would need their host to be asked for their
+ * details, a burst of Google calls at startup for calendars that may not be used for hours, so they load on demand.
+ */
+object CacheWarmer {
+    private val enabled = BotSettings.CACHE_WARMUP.getOrDefault("false").toBoolean()
+    private val chunkSize = BotSettings.CACHE_WARMUP_CHUNK_SIZE.getOrDefault("500").toInt()
+    private val concurrency = BotSettings.CACHE_WARMUP_CONCURRENCY.getOrDefault("1").toInt()
+        .coerceIn(1, maxOf(1, BotSettings.SQL_BULKHEAD_BULK.getOrDefault("4").toInt() / 2))
+
+    fun warm(guildIds: List<Snowflake>): Mono<Void> {
+        if (!enabled || guildIds.isEmpty()) return Mono.empty()
+
+        return Mono.defer {
+            val start = System.nanoTime()
+            val chunks = guildIds.chunked(chunkSize)
+            val done = AtomicInteger()
+            val warmed = AtomicInteger()
+
+            LOGGER.info(DEFAULT, "Cache warm-up: starting for ${guildIds.size} guilds in ${chunks.size} chunks")
+
+            Flux.fromIterable(chunks).flatMap({ chunk ->
+                warmChunk(chunk).doOnNext { withCalendars ->
+                    warmed.addAndGet(chunk.size)
+                    LOGGER.info(DEFAULT, "Cache warm-up: chunk ${done.incrementAndGet()}/${chunks.size} done, " +
+                        "${warmed.get()}/${guildIds.size} guilds, $withCalendars with calendars")
+                }.doOnError {
+                    done.incrementAndGet()
+                    LOGGER.error(DEFAULT, "Cache warm-up: chunk failed, its guilds will load on demand", it)
+                }.onErrorResume { Mono.empty() }
+            }, concurrency).then(Mono.fromRunnable {
+                val took = Duration.ofNanos(System.nanoTime() - start)
+                LOGGER.info(DEFAULT, "Cache warm-up: finished, ${warmed.get()}/${guildIds.size} guilds in ${took.toMillis()}ms")
+            })
+        }
+    }
+
+    /**
+     * @return How many of the guilds have calendars.
+     */
+    private fun warmChunk(guildIds: List<Snowflake>): Mono<Int> {
+        val settings = DatabaseManager.streamSettings(guildIds).collectMap { it.guildID }
+        val withCalendars = DatabaseManager.streamCalendars(guildIds).map { it.guildId }.collect(Collectors.toSet())
+
+        // One after the other, a chunk never holds more than one bulk slot
+        return settings.zipWhen { withCalendars }.map(TupleUtils.function { settings, withCalendars ->
+            guildIds.forEach { guildId ->
+                val stored = settings[guildId]
+                if (stored != null) DiscalCache.guildSettings[guildId] = stored
+                else DiscalCache.guildSettings.setAbsent(guildId)
+
+                if (guildId !in withCalendars) DiscalCache.setNoCalendars(guildId)
+            }
+
+            withCalendars.size
+        })
+    }
+}
@@ -1,26 +1,29 @@
 package org.dreamexposure.discal.core.cache
 
 import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.network.discal.CacheRegionData
 import org.dreamexposure.discal.core.entities.Calendar
-import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
 import java.time.Duration
-import java.util.concurrent.ConcurrentHashMap
 
-//TODO: Eventually use redis instead of in-memory so these can be shared across the whole discal network and need less time for eventual consistency.
+/**
+ * The local, per-process tier. [SharedCache] sits behind it and keeps every node's copy in sync.
+ */
 object DiscalCache {
-    //guild id -> settings
-    val guildSettings: MutableMap<Snowflake, GuildSettings> = ConcurrentHashMap()
-    //guild id -> cal num -> calendar
-    private val calendars: MutableMap<Snowflake, ConcurrentHashMap<Int, Calendar>> = ConcurrentHashMap()
-
-    init {
-        //Automatically clear caches every so often...
-        Flux.interval(Duration.ofMinutes(15))
-            .doOnEach { invalidateAll() }
-            .subscribe()
-    }
+    private val ttl = Duration.ofSeconds(BotSettings.CACHE_TTL.getOrDefault("900").toLong())
+    private val jitter = BotSettings.CACHE_TTL_JITTER.getOrDefault("0.2").toDouble()
+    private val negativeTtl = Duration.ofSeconds(BotSettings.CACHE_NEGATIVE_TTL.getOrDefault("60").toLong())
 
+    //guild id -> settings
+    val guildSettings = CacheRegion<Snowflake, GuildSettings>(
+        ttl, BotSettings.CACHE_MAX_SETTINGS.getOrDefault("10000").toInt(), jitter, negativeTtl
+    )
+    //guild id -> cal num -> calendar, absent for guilds known to have no calendars
+    private val calendars = CacheRegion<Snowflake, Map<Int, Calendar>>(
+        ttl, BotSettings.CACHE_MAX_CALENDARS.getOrDefault("10000").toInt(), jitter, negativeTtl
+    )
 
     fun invalidateAll() {
         guildSettings.clear()
@@ -33,16 +36,29 @@ object DiscalCache {
     fun getAllCalendars(guildId: Snowflake): Collection<Calendar>? = calendars[guildId]?.values
 
     fun putCalendar(calendar: Calendar) {
-        if (calendars.containsKey(calendar.guildId))
-            calendars[calendar.guildId]!![calendar.calendarNumber] = calendar
-        else {
-            val map = ConcurrentHashMap<Int, Calendar>()
-            map[calendar.calendarNumber] = calendar
-
-            calendars[calendar.guildId] = map
-        }
+        calendars.compute(calendar.guildId) { (it ?: emptyMap()) + (calendar.calendarNumber to calendar) }
     }
 
+    /**
+     * Loads and caches a calendar, sharing the load with anyone else loading the same calendar right now.
+     */
+    fun loadCalendar(guildId: Snowflake, calNum: Int, load: () -> Mono<Calendar>): Mono<Calendar> {
+        return calendars.loadOnce(guildId to calNum) { load().doOnNext(this::putCalendar) }
+    }
+
+    /**
+     * Like [loadCalendar], for all of a guild's calendars at once.
+     */
+    fun loadAllCalendars(guildId: Snowflake, load: () -> Mono<List<Calendar>>): Mono<List<Calendar>> {
+        return calendars.loadOnce(guildId) { load().doOnNext { it.forEach(this::putCalendar) } }
+    }
+
+    fun hasNoCalendars(guildId: Snowflake): Boolean = calendars.isAbsent(guildId)
+
+    fun setNoCalendars(guildId: Snowflake) = calendars.setAbsent(guildId)
+
+    fun clearNoCalendars(guildId: Snowflake) = calendars.removeAbsent(guildId)
+
     fun handleCalendarDelete(guildId: Snowflake) {
         removeCalendars(guildId)
         //Eventually other cached things will be here, like events, rsvp data, etc
@@ -51,4 +67,9 @@ object DiscalCache {
     fun removeCalendars(guildId: Snowflake) {
         calendars.remove(guildId)
     }
+
+    fun getData(): Map<String, CacheRegionData> = mapOf(
+        "guild_settings" to guildSettings.getData(),
+        "calendars" to calendars.getData(),
+    )
 }
@@ -0,0 +1,321 @@
+package org.dreamexposure.discal.core.cache
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.Events
+import discord4j.common.util.Snowflake
+import org.apache.http.HttpStatus
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventMirrorDelta
+import org.dreamexposure.discal.core.`object`.network.discal.CacheRegionData
+import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.extensions.google.asInstant
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import org.dreamexposure.discal.core.wrapper.google.EventWrapper
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.util.TreeMap
+
+/**
+ * Opt-in with `EVENT_MIRROR`. Keeps a copy of each Google calendar's events, so listing events doesn't mean listing
+ * them from Google every time.
+ *
+ * Only a window of each calendar is mirrored: from `EVENT_MIRROR_LOOKBACK_DAYS` ago to `EVENT_MIRROR_HORIZON_DAYS` from
+ * now. The first time a calendar is needed, the event instances in that window are listed once, and the sync token
+ * Google hands back is kept with them. From then on, at most every `EVENT_MIRROR_REFRESH` seconds (or on the next read
+ * after DisCal itself changed an event), only what changed since that token is asked for. Mirrors are stored in MySQL together with their
+ * token, so a restart or an evicted mirror picks up from where it was, not from scratch. Changes outside the window
+ * are dropped, and once half the horizon has passed, the calendar is listed again for a window from then.
+ *
+ * Reads are answered from an index of the events by start time, as long as the window holds the whole answer. For
+ * upcoming events it does when the calendar has nothing past the window, which a full listing checks for with one more
+ * request of a single event, and incremental changes keep up to date. Calendars
+ * with more than `EVENT_MIRROR_MAX_EVENTS` instances in the window aren't mirrored, and neither is anything while
+ * Google can't be reached for the first listing. Those return empty, and callers go to Google directly like before.
+ *
+ * Changes made outside DisCal, or by another shard, show up within the refresh interval.
+ */
+object EventMirror {
+    private val enabled = BotSettings.EVENT_MIRROR.getOrDefault("false").toBoolean()
+    private val refreshNanos = Duration.ofSeconds(BotSettings.EVENT_MIRROR_REFRESH.getOrDefault("60").toLong()).toNanos()
+    private val maxEvents = BotSettings.EVENT_MIRROR_MAX_EVENTS.getOrDefault("5000").toInt()
+    private val lookbackMillis = Duration.ofDays(BotSettings.EVENT_MIRROR_LOOKBACK_DAYS.getOrDefault("30").toLong()).toMillis()
+    private val horizonMillis = Duration.ofDays(BotSettings.EVENT_MIRROR_HORIZON_DAYS.getOrDefault("180").toLong()).toMillis()
+    private val dayMillis = Duration.ofDays(1).toMillis()
+
+    private val json = GsonFactory.getDefaultInstance()
+
+    // (guild id, google calendar id) -> mirror, absent for calendars too big to mirror.
+    // Keyed by the calendar id rather than number, so renumbering after a calendar is deleted can't mix them up.
+    private val mirrors = CacheRegion<Pair<Snowflake, String>, CalendarMirror>(
+        ttl = Duration.ofHours(1),
+        maxSize = BotSettings.EVENT_MIRROR_MAX_CALENDARS.getOrDefault("2000").toInt(),
+        negativeTtl = Duration.ofHours(1),
+    )
+
+    /**
+     * Same as listing with `timeMin`/`timeMax`: events that end after [start] and start before [end], by start time.
+     *
+     * @return The events, or empty when the calendar isn't mirrored or the range isn't within its window.
+     */
+    fun getEventsInTimeRange(calData: CalendarData, zone: ZoneId, start: Instant, end: Instant): Mono<List<Event>> {
+        return mirror(calData).flatMap { Mono.justOrEmpty(it.range(zone, start.toEpochMilli(), end.toEpochMilli())) }
+    }
+
+    /**
+     * Same as listing with `timeMin` of now: the first [amount] events that haven't ended yet, by start time.
+     *
+     * @return The events, fewer than [amount] when the calendar has no more. Empty when the calendar isn't mirrored, or
+     * has fewer than [amount] in its window and more past it.
+     */
+    fun getUpcomingEvents(calData: CalendarData, zone: ZoneId, amount: Int): Mono<List<Event>> {
+        return mirror(calData).flatMap { Mono.justOrEmpty(it.upcoming(zone, System.currentTimeMillis(), amount)) }
+    }
+
+    /**
+     * Events that have started and not ended yet.
+     */
+    fun getOngoingEvents(calData: CalendarData, zone: ZoneId): Mono<List<Event>> {
+        return mirror(calData).map { it.ongoing(zone, System.currentTimeMillis()) }
+    }
+
+    /**
+     * Makes the next read of the calendar sync first, for after DisCal changed one of its events.
+     */
+    fun markStale(calData: CalendarData) {
+        if (enabled) mirrors[calData.guildId to calData.calendarId]?.stale = true
+    }
+
+    fun getData(): CacheRegionData = mirrors.getData()
+
+    private fun mirror(calData: CalendarData): Mono<CalendarMirror> {
+        if (!enabled) return Mono.empty()
+        val key = calData.guildId to calData.calendarId
+
+        return Mono.defer {
+            if (mirrors.isAbsent(key)) return@defer Mono.empty()
+
+            val cached = mirrors[key]
+            when {
+                cached == null -> mirrors.loadOnce(key) { load(calData) }
+                cached.windowRunningOut() -> mirrors.loadOnce(key) { fullSync(calData) }
+                cached.isStale() -> mirrors.loadOnce(key) { sync(calData, cached) }
+                else -> Mono.just(cached)
+            }
+        }
+    }
+
+    /**
+     * Picks up the stored mirror and catches it up, or lists the calendar from scratch when none is stored.
+     */
+    private fun load(calData: CalendarData): Mono<CalendarMirror> {
+        return DatabaseManager.getEventMirror(calData.guildId, calData.calendarNumber, calData.calendarId)
+            .map { stored ->
+                val mirror = CalendarMirror(
+                    stored.syncToken,
+                    stored.windowStart.toEpochMilli(),
+                    stored.windowEnd.toEpochMilli(),
+                )
+                mirror.apply(stored.syncToken, stored.changed.values.map { json.fromString(it, Event::class.java) }, emptyList())
+                mirror
+            }.flatMap { if (it.windowRunningOut()) fullSync(calData) else probePastWindow(calData, it).then(sync(calData, it)) }
+            .switchIfEmpty(Mono.defer { fullSync(calData) })
+    }
+
+    private fun sync(calData: CalendarData, mirror: CalendarMirror): Mono<CalendarMirror> {
+        val changes = EventWrapper.syncEvents(calData, mirror.syncToken, maxEvents, mirror.windowStart, mirror.windowEnd)
+
+        return changes.flatMap { events ->
+            // Too much changed at once to take as a delta
+            if (events.nextSyncToken == null) fullSync(calData)
+            else apply(calData, mirror, events, full = false)
+        }.onErrorResume({ it is GoogleJsonResponseException && it.statusCode == HttpStatus.SC_GONE }) {
+            // Token expired, Google wants a full listing
+            fullSync(calData)
+        }.onErrorResume {
+            // Serve what we have, the next read after the refresh interval tries again
+            LOGGER.error(DEFAULT, "[G.Cal] Event mirror sync failure", it)
+            mirror.checked()
+            Mono.just(mirror)
+        }
+    }
+
+    private fun fullSync(calData: CalendarData): Mono<CalendarMirror> {
+        val key = calData.guildId to calData.calendarId
+        val now = System.currentTimeMillis()
+        val windowStart = now - lookbackMillis
+        val windowEnd = now + horizonMillis
+
+        return EventWrapper.syncEvents(calData, null, maxEvents, windowStart, windowEnd).flatMap { events ->
+            if (events.nextSyncToken == null) {
+                LOGGER.debug(DEFAULT, "Event mirror: calendar of guild ${calData.guildId} has too many events to mirror")
+                mirrors.remove(key)
+                mirrors.setAbsent(key)
+                Mono.empty()
+            } else {
+                val mirror = CalendarMirror(events.nextSyncToken, windowStart, windowEnd)
+                probePastWindow(calData, mirror).then(apply(calData, mirror, events, full = true))
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "[G.Cal] Event mirror full sync failure", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    /**
+     * Finds out whether the calendar has any events past the mirror's window. Assumes it does when Google can't tell.
+     */
+    private fun probePastWindow(calData: CalendarData, mirror: CalendarMirror): Mono<Void> {
+        return EventWrapper.getEvents(calData, 1, mirror.windowEnd)
+            .map { it.isNotEmpty() }
+            .defaultIfEmpty(true)
+            .doOnNext { mirror.pastWindow = it }
+            .then()
+    }
+
+    private fun apply(calData: CalendarData, mirror: CalendarMirror, events: Events, full: Boolean): Mono<CalendarMirror> {
+        val (cancelled, updated) = events.items.partition { it.status.equals("cancelled", true) }
+        // Incremental changes can be anywhere in time, those that moved out of the window are dropped like deleted ones
+        val (changed, outside) = updated.partition(mirror::holds)
+        val removed = (cancelled + outside).map { it.id }
+        if (outside.any(mirror::endsPastWindow)) mirror.pastWindow = true
+
+        val delta = EventMirrorDelta(
+            calData.guildId,
+            calData.calendarNumber,
+            calData.calendarId,
+            events.nextSyncToken,
+            Instant.ofEpochMilli(mirror.windowStart),
+            Instant.ofEpochMilli(mirror.windowEnd),
+            full,
+            changed.associate { it.id to json.toString(it) },
+            removed,
+        )
+        mirror.apply(events.nextSyncToken, changed, removed)
+
+        // A failed write only means a later load catches up from an older token, replaying changes is harmless
+        return DatabaseManager.updateEventMirror(delta).thenReturn(mirror).doOnNext {
+            val key = calData.guildId to calData.calendarId
+            if (it.size > maxEvents) {
+                mirrors.remove(key)
+                mirrors.setAbsent(key)
+            } else mirrors[key] = it
+        }
+    }
+
+    /**
+     * A calendar's events between [windowStart] and [windowEnd], and an index of them by start time. The index depends
+     * on the calendar's timezone (for all-day events), so it is built on the first read after a change or a timezone
+     * change.
+     */
+    private class CalendarMirror(@Volatile var syncToken: String, val windowStart: Long, val windowEnd: Long) {
+        private val events = HashMap<String, Event>()
+
+        private var index: TreeMap<Long, MutableList<Indexed>>? = null
+        private var indexZone: ZoneId? = null
+        // Longest event, ranges look back this far for events that started before them but are still going
+        private var longest = 0L
+
+        @Volatile
+        var stale = true
+
+        // Whether the calendar has events past the window, unless known otherwise it might
+        @Volatile
+        var pastWindow = true
+
+        @Volatile
+        private var checkedAt = 0L
+
+        val size: Int
+            @Synchronized get() = events.size
+
+        fun isStale() = stale || System.nanoTime() - checkedAt > refreshNanos
+
+        fun windowRunningOut() = windowEnd - System.currentTimeMillis() < horizonMillis / 2
+
+        /**
+         * Whether the event ends after the window starts and starts before it ends, like a listing of the window.
+         */
+        fun holds(event: Event): Boolean {
+            if (event.start == null || event.end == null) return true
+            // The calendar's zone isn't known here, all-day events are read in UTC with a day of slack for any zone
+            val start = event.start.asInstant(ZoneOffset.UTC).toEpochMilli()
+            val end = event.end.asInstant(ZoneOffset.UTC).toEpochMilli()
+            return end > windowStart - dayMillis && start < windowEnd + dayMillis
+        }
+
+        fun endsPastWindow(event: Event): Boolean {
+            return event.end == null || event.end.asInstant(ZoneOffset.UTC).toEpochMilli() > windowEnd
+        }
+
+        fun checked() {
+            stale = false
+            checkedAt = System.nanoTime()
+        }
+
+        @Synchronized
+        fun apply(syncToken: String, changed: List<Event>, removed: List<String>) {
+            changed.forEach { events[it.id] = it }
+            removed.forEach { events.remove(it) }
+            this.syncToken = syncToken
+            index = null
+            checked()
+        }
+
+        @Synchronized
+        fun range(zone: ZoneId, start: Long, end: Long): List<Event>? {
+            if (start < windowStart || end > windowEnd) return null
+
+            return index(zone).subMap(start - longest, true, end, false).values
+                .flatten()
+                .filter { it.end > start }
+                .map { it.event.clone() }
+        }
+
+        @Synchronized
+        fun upcoming(zone: ZoneId, now: Long, amount: Int): List<Event>? {
+            return index(zone).tailMap(now - longest, true).values.asSequence()
+                .flatten()
+                .filter { it.end > now }
+                .take(amount)
+                .map { it.event.clone() }
+                .toList()
+                // Short only because the window ends, the rest is past it
+                .takeIf { it.size == amount || !pastWindow }
+        }
+
+        @Synchronized
+        fun ongoing(zone: ZoneId, now: Long): List<Event> {
+            return index(zone).subMap(now - longest, true, now, false).values
+                .flatten()
+                .filter { it.end > now }
+                .map { it.event.clone() }
+        }
+
+        private fun index(zone: ZoneId): TreeMap<Long, MutableList<Indexed>> {
+            index?.let { if (zone == indexZone) return it }
+
+            val built = TreeMap<Long, MutableList<Indexed>>()
+            longest = 0
+            events.values.sortedBy { it.id }.forEach { event ->
+                if (event.start == null || event.end == null) return@forEach
+                val start = event.start.asInstant(zone).toEpochMilli()
+                val end = event.end.asInstant(zone).toEpochMilli()
+
+                built.getOrPut(start) { mutableListOf() } += Indexed(end, event)
+                longest = maxOf(longest, end - start)
+            }
+
+            index = built
+            indexZone = zone
+            return built
+        }
+
+        private class Indexed(val end: Long, val event: Event)
+    }
+}
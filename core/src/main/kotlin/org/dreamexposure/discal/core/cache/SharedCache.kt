@@ -0,0 +1,153 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import io.lettuce.core.RedisClient
+import io.lettuce.core.RedisURI
+import io.lettuce.core.SetArgs
+import io.lettuce.core.api.reactive.RedisReactiveCommands
+import org.dreamexposure.discal.Application
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import org.dreamexposure.discal.core.utils.GlobalVal.JSON_FORMAT
+import reactor.core.publisher.Mono
+import java.time.Duration
+
+/**
+ * The Redis tier behind [DiscalCache], shared by every shard, the API server and CAM. Opt-in with `CACHE_USE_REDIS`,
+ * it uses the same Redis as the D4J stores and sessions, so pointing `REDIS_HOSTNAME` at a local Redis is all it
+ * takes to run it locally.
+ *
+ * Guild settings are stored here, so a node that misses locally usually doesn't have to go to MySQL. Calendars are not,
+ * their data carries credentials that are deliberately never serialized, so only their invalidations go through here.
+ *
+ * Whenever settings or calendars change, the node making the change publishes it and every other node drops its local
+ * copy, so changes show up everywhere within milliseconds instead of whenever the local entry expires.
+ *
+ * Redis being down never fails a call, it only means falling back to MySQL and to local expiry. Nothing connects until
+ * [connect] is called at startup, until then (or if it fails) every call is a no-op.
+ */
+object SharedCache {
+    private const val CHANNEL = "discal:cache:invalidate"
+    private const val SETTINGS_PREFIX = "discal:cache:settings:"
+
+    private val ttl = Duration.ofSeconds(BotSettings.CACHE_REDIS_TTL.getOrDefault("300").toLong())
+    private val instanceId = Application.instanceId.toString()
+
+    @Volatile
+    private var commands: RedisReactiveCommands<String, String>? = null
+
+    /**
+     * Connects to Redis if `CACHE_USE_REDIS` is set. Blocks while connecting, so call it once at startup, off any event
+     * loop. A failure is logged and leaves the shared tier off for the life of the process.
+     */
+    fun connect() {
+        if (!BotSettings.CACHE_USE_REDIS.getOrDefault("false").toBoolean() || commands != null) return
+
+        try {
+            val uri = RedisURI.Builder.redis(BotSettings.REDIS_HOSTNAME.get(), BotSettings.REDIS_PORT.get().toInt())
+            if (BotSettings.REDIS_USE_PASSWORD.get().equals("true", true))
+                uri.withPassword(BotSettings.REDIS_PASSWORD.get().toCharArray())
+            val client = RedisClient.create(uri.build())
+
+            val connected = client.connect().reactive()
+
+            val pubSub = client.connectPubSub().reactive()
+            pubSub.observeChannels()
+                .doOnNext { handleInvalidation(it.message) }
+                .doOnError { LOGGER.error(DEFAULT, "Shared cache invalidation listener failed", it) }
+                .retry()
+                .subscribe()
+            pubSub.subscribe(CHANNEL)
+                .doOnError { LOGGER.error(DEFAULT, "Failed to subscribe to shared cache invalidations", it) }
+                .subscribe()
+
+            commands = connected
+        } catch (e: Exception) {
+            LOGGER.error(DEFAULT, "Failed to connect shared cache, running without it", e)
+        }
+    }
+
+    fun getSettings(guildId: Snowflake): Mono<GuildSettings> {
+        val redis = commands ?: return Mono.empty()
+
+        return redis.get(SETTINGS_PREFIX + guildId.asString())
+            .map { JSON_FORMAT.decodeFromString(GuildSettings.serializer(), it) }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to get guild settings from shared cache", it)
+            }.onErrorResume { Mono.empty() }
+    }
+
+    /**
+     * Fills in settings loaded after a miss. Only if there are none yet: a writer may have stored newer settings since
+     * these were loaded.
+     */
+    fun putSettings(settings: GuildSettings): Mono<Void> {
+        val redis = commands ?: return Mono.empty()
+
+        return Mono.fromCallable { JSON_FORMAT.encodeToString(GuildSettings.serializer(), settings) }
+            .flatMap { redis.set(SETTINGS_PREFIX + settings.guildID.asString(), it, SetArgs.Builder.nx().ex(ttl.seconds)) }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to put guild settings in shared cache", it)
+            }.onErrorResume { Mono.empty() }
+            .then()
+    }
+
+    /**
+     * Stores settings that were just written, over whatever is there, and has every other node drop its local copy.
+     * Fills that loaded the old settings before the write can't overwrite them, see [putSettings].
+     */
+    fun updateSettings(settings: GuildSettings): Mono<Void> {
+        val redis = commands ?: return Mono.empty()
+
+        return Mono.fromCallable { JSON_FORMAT.encodeToString(GuildSettings.serializer(), settings) }
+            .flatMap { redis.setex(SETTINGS_PREFIX + settings.guildID.asString(), ttl.seconds, it) }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to update guild settings in shared cache", it)
+            }.onErrorResume { Mono.empty() }
+            .then(publish(Region.SETTINGS, settings.guildID))
+    }
+
+    /**
+     * Drops the shared copy, for settings that were deleted.
+     */
+    fun invalidateSettings(guildId: Snowflake): Mono<Void> {
+        val redis = commands ?: return Mono.empty()
+
+        return redis.del(SETTINGS_PREFIX + guildId.asString())
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to drop guild settings from shared cache", it)
+            }.onErrorResume { Mono.empty() }
+            .then(publish(Region.SETTINGS, guildId))
+    }
+
+    fun invalidateCalendars(guildId: Snowflake): Mono<Void> = publish(Region.CALENDARS, guildId)
+
+    private fun publish(region: Region, guildId: Snowflake): Mono<Void> {
+        val redis = commands ?: return Mono.empty()
+
+        return redis.publish(CHANNEL, "${region.name} ${guildId.asString()} $instanceId")
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to publish shared cache invalidation", it)
+            }.onErrorResume { Mono.empty() }
+            .then()
+    }
+
+    private fun handleInvalidation(message: String) {
+        val parts = message.split(' ')
+        // This node already has the change
+        if (parts.size != 3 || parts[2] == instanceId) return
+
+        val guildId = Snowflake.of(parts[1])
+        when (Region.values().find { it.name == parts[0] }) {
+            Region.SETTINGS -> DiscalCache.guildSettings.remove(guildId)
+            Region.CALENDARS -> DiscalCache.removeCalendars(guildId)
+            null -> Unit
+        }
+    }
+
+    private enum class Region {
+        SETTINGS, CALENDARS
+    }
+}
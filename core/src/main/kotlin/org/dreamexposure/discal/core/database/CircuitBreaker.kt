@@ -0,0 +1,99 @@
+package org.dreamexposure.discal.core.database
+
+import java.time.Duration
+
+/**
+ * A count based circuit breaker that treats slow calls the same as failed ones, so a database that is still answering
+ * but taking seconds to do it gets shed just like one that is down.
+ *
+ * Closed, it keeps the outcome of the last [window] calls and opens once at least [minimumCalls] of them are in and
+ * [failureRate] or more were bad. Open, every call is refused for [openFor]. After that it goes half-open and lets
+ * [probes] calls through: if they all go well it closes again, if any is bad it opens for another [openFor].
+ *
+ * Calls are much slower than the lock, so everything is simply synchronized.
+ */
+internal class CircuitBreaker(
+    private val window: Int = 50,
+    private val minimumCalls: Int = 20,
+    private val failureRate: Double = 0.5,
+    private val openFor: Duration = Duration.ofSeconds(10),
+    private val probes: Int = 3,
+) {
+    private val outcomes = BooleanArray(window)
+    private var next = 0
+    private var recorded = 0
+    private var bad = 0
+
+    private var openedAt = 0L
+    private var probesStarted = 0
+    private var probesPassed = 0
+
+    @Volatile
+    var state = State.CLOSED
+        private set
+
+    /**
+     * @return Whether the call may go ahead. Every permitted call must end in [record] or [release].
+     */
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openFor.toNanos()) return false
+            state = State.HALF_OPEN
+            probesStarted = 0
+            probesPassed = 0
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= probes) return false
+            probesStarted++
+        }
+        return true
+    }
+
+    @Synchronized
+    fun record(isBad: Boolean) {
+        when (state) {
+            State.CLOSED -> {
+                if (recorded == window) {
+                    if (outcomes[next]) bad--
+                } else recorded++
+                outcomes[next] = isBad
+                if (isBad) bad++
+                next = (next + 1) % window
+
+                if (recorded >= minimumCalls && bad >= recorded * failureRate) open()
+            }
+            State.HALF_OPEN -> {
+                if (isBad) open()
+                else if (++probesPassed >= probes) close()
+            }
+            // Started before the breaker opened, it has already made up its mind
+            State.OPEN -> Unit
+        }
+    }
+
+    /**
+     * Gives back a permit without an outcome, for calls that were cancelled or never reached the database.
+     */
+    @Synchronized
+    fun release() {
+        if (state == State.HALF_OPEN && probesStarted > probesPassed) probesStarted--
+    }
+
+    private fun open() {
+        state = State.OPEN
+        openedAt = System.nanoTime()
+    }
+
+    private fun close() {
+        state = State.CLOSED
+        outcomes.fill(false)
+        next = 0
+        recorded = 0
+        bad = 0
+    }
+
+    enum class State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
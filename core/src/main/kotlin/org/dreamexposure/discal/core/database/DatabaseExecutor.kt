@@ -0,0 +1,255 @@
+package org.dreamexposure.discal.core.database
+
+import io.r2dbc.spi.R2dbcTransientException
+import org.dreamexposure.discal.core.exceptions.DatabaseUnavailableException
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.network.discal.DatabaseExecutorData
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoSink
+import reactor.core.publisher.SignalType
+import reactor.util.retry.Retry
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+internal enum class QueryClass {
+    // Single row or small reads that users are waiting on
+    READ,
+
+    WRITE,
+
+    // Scans over whole tables or shards, cache warm-up, teardowns and retention purges
+    BULK,
+}
+
+/**
+ * The one place database calls are run through, so a slow or failing database is handled the same way everywhere.
+ *
+ * - Each [QueryClass] has its own bulkhead: a cap on calls in flight, past which calls fail straight away instead of
+ * queueing on the pool. A flood of bulk work can't take the connections reads and writes need. Bulk work is never in a
+ * hurry, so [QueryClass.BULK] calls wait up to `SQL_BULKHEAD_BULK_WAIT_MS` for their turn instead of failing.
+ * - All classes share a [CircuitBreaker] that counts slow calls as bad, so a brown-out is shed instead of piled onto.
+ * - Transient errors are retried at most twice with jittered backoff, but only while the retry budget allows. The
+ * budget refills with a fraction of a token per call, so retries can never add more than that fraction of load.
+ * Streams are only retried until their first row, a retry would emit the rows already emitted again.
+ *
+ * Refused calls fail with [DatabaseUnavailableException].
+ */
+internal class DatabaseExecutor {
+    private val breaker = CircuitBreaker(
+        failureRate = BotSettings.SQL_BREAKER_FAILURE_RATE.getOrDefault("0.5").toDouble(),
+        openFor = Duration.ofSeconds(BotSettings.SQL_BREAKER_OPEN_SECONDS.getOrDefault("10").toLong()),
+    )
+    private val slowNanos = Duration.ofMillis(BotSettings.SQL_BREAKER_SLOW_MS.getOrDefault("1000").toLong()).toNanos()
+
+    private val retryBudget = RetryBudget(BotSettings.SQL_RETRY_BUDGET.getOrDefault("0.1").toDouble())
+
+    private val lanes = mapOf(
+        QueryClass.READ to Lane(BotSettings.SQL_BULKHEAD_READ.getOrDefault("30").toInt()),
+        QueryClass.WRITE to Lane(BotSettings.SQL_BULKHEAD_WRITE.getOrDefault("20").toInt()),
+        QueryClass.BULK to Lane(
+            BotSettings.SQL_BULKHEAD_BULK.getOrDefault("4").toInt(),
+            maxWait = Duration.ofMillis(BotSettings.SQL_BULKHEAD_BULK_WAIT_MS.getOrDefault("30000").toLong()),
+        ),
+    )
+
+    val circuitState: CircuitBreaker.State
+        get() = breaker.state
+
+    /**
+     * @param call Subscribed once per attempt, so it has to acquire its own connection.
+     */
+    fun <T> execute(queryClass: QueryClass, call: () -> Mono<T>): Mono<T> {
+        return executeMany(queryClass) { call().flux() }.singleOrEmpty()
+    }
+
+    fun <T> executeMany(queryClass: QueryClass, call: () -> Flux<T>): Flux<T> {
+        val lane = lanes.getValue(queryClass)
+
+        return Flux.defer {
+            val emitted = AtomicBoolean()
+
+            Flux.defer { attempt(queryClass, lane, call) }
+                .doOnNext { emitted.set(true) }
+                .retryWhen(Retry.backoff(2, Duration.ofMillis(25))
+                    .maxBackoff(Duration.ofMillis(250))
+                    .jitter(0.5)
+                    .filter { !emitted.get() && isTransient(it) && lane.allowRetry() }
+                    .onRetryExhaustedThrow { _, signal -> signal.failure() }
+                )
+        }
+    }
+
+    private fun <T> attempt(queryClass: QueryClass, lane: Lane, call: () -> Flux<T>): Flux<T> {
+        lane.calls.incrementAndGet()
+        retryBudget.deposit()
+
+        return lane.enter().flatMapMany { entered ->
+            if (!entered) {
+                lane.rejected.incrementAndGet()
+                return@flatMapMany Flux.error(DatabaseUnavailableException("Database $queryClass bulkhead is full"))
+            }
+            if (!breaker.tryAcquire()) {
+                lane.exit()
+                lane.shortCircuited.incrementAndGet()
+                return@flatMapMany Flux.error(DatabaseUnavailableException("Database circuit is open"))
+            }
+
+            runCall(queryClass, lane, call)
+        }
+    }
+
+    private fun <T> runCall(queryClass: QueryClass, lane: Lane, call: () -> Flux<T>): Flux<T> {
+        val start = System.nanoTime()
+        var error: Throwable? = null
+        return call()
+            .doOnError { error = it }
+            .doFinally { signal ->
+                lane.exit()
+                val nanos = System.nanoTime() - start
+                lane.latency.record(nanos)
+
+                // Bulk calls stream for as long as they need to, only their failures say anything about the database
+                val slow = queryClass != QueryClass.BULK && nanos > slowNanos
+                if (slow) lane.slow.incrementAndGet()
+
+                when (signal) {
+                    SignalType.ON_COMPLETE -> {
+                        lane.successes.incrementAndGet()
+                        breaker.record(slow)
+                    }
+                    SignalType.ON_ERROR -> {
+                        lane.failures.incrementAndGet()
+                        breaker.record(slow || isTransient(error!!))
+                    }
+                    else -> breaker.release()
+                }
+            }
+    }
+
+    /**
+     * Constraint violations and bad SQL are the caller's problem, not a sign the database is struggling.
+     */
+    private fun isTransient(error: Throwable): Boolean {
+        return error is R2dbcTransientException
+            || (error is IllegalStateException && error.message?.contains("Request queue was disposed") == true)
+            || error is TimeoutException
+    }
+
+    private fun Lane.allowRetry(): Boolean {
+        return if (retryBudget.withdraw()) {
+            retries.incrementAndGet()
+            true
+        } else {
+            retriesDenied.incrementAndGet()
+            false
+        }
+    }
+
+    fun getData(): Map<String, DatabaseExecutorData> {
+        return lanes.entries.associate { (queryClass, lane) ->
+            val latency = lane.latency.snapshot()
+            queryClass.name.lowercase() to DatabaseExecutorData(
+                calls = lane.calls.get(),
+                successes = lane.successes.get(),
+                failures = lane.failures.get(),
+                slow = lane.slow.get(),
+                rejected = lane.rejected.get(),
+                shortCircuited = lane.shortCircuited.get(),
+                retries = lane.retries.get(),
+                retriesDenied = lane.retriesDenied.get(),
+                inFlight = lane.inFlight.get(),
+                limit = lane.limit,
+                latencyP50Millis = latency.p50Millis,
+                latencyP95Millis = latency.p95Millis,
+                latencyP99Millis = latency.p99Millis,
+            )
+        }
+    }
+
+    /**
+     * @param maxWait How long a call waits for a free slot, or null to fail straight away.
+     */
+    private class Lane(val limit: Int, private val maxWait: Duration? = null) {
+        val inFlight = AtomicInteger()
+        private val waiters = ConcurrentLinkedQueue<Waiter>()
+        val latency = LatencyHistogram()
+
+        val calls = AtomicLong()
+        val successes = AtomicLong()
+        val failures = AtomicLong()
+        val slow = AtomicLong()
+        val rejected = AtomicLong()
+        val shortCircuited = AtomicLong()
+        val retries = AtomicLong()
+        val retriesDenied = AtomicLong()
+
+        /**
+         * @return Whether the call got a slot, and has to [exit] once done.
+         */
+        fun enter(): Mono<Boolean> {
+            if (tryEnter()) return Mono.just(true)
+            if (maxWait == null) return Mono.just(false)
+
+            return Mono.create<Boolean> { sink ->
+                val waiter = Waiter(sink)
+                // Given a slot right as it gave up, the slot goes to the next one
+                sink.onCancel { if (!waiter.done.compareAndSet(false, true)) exit() }
+                waiters.add(waiter)
+                drain()
+            }.timeout(maxWait, Mono.just(false))
+        }
+
+        fun exit() {
+            inFlight.decrementAndGet()
+            drain()
+        }
+
+        private fun tryEnter(): Boolean {
+            while (true) {
+                val current = inFlight.get()
+                if (current >= limit) return false
+                if (inFlight.compareAndSet(current, current + 1)) return true
+            }
+        }
+
+        // Hands free slots to waiting calls, oldest first
+        private fun drain() {
+            while (waiters.isNotEmpty() && tryEnter()) {
+                val waiter = waiters.poll()
+                if (waiter == null || !waiter.done.compareAndSet(false, true)) {
+                    inFlight.decrementAndGet()
+                    continue
+                }
+                waiter.sink.success(true)
+            }
+        }
+    }
+
+    private class Waiter(val sink: MonoSink<Boolean>) {
+        val done = AtomicBoolean()
+    }
+
+    /**
+     * A token bucket, every call adds [ratio] of a token, every retry takes a whole one.
+     */
+    private class RetryBudget(private val ratio: Double, private val max: Double = 10.0) {
+        private var tokens = max
+
+        @Synchronized
+        fun deposit() {
+            tokens = minOf(max, tokens + ratio)
+        }
+
+        @Synchronized
+        fun withdraw(): Boolean {
+            if (tokens < 1) return false
+            tokens--
+            return true
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.WebSession
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.EventMirrorDelta
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.event.RsvpWriteResult
+import org.dreamexposure.discal.core.`object`.google.GoogleCredentialData
+import org.dreamexposure.discal.core.`object`.web.UserAPIAccount
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Instant
+
+/**
+ * Everything DisCal stores. [MySqlRepository] is the default, [InMemoryRepository] exists for benchmarks and soak
+ * tests. Callers go through [DatabaseManager], which delegates to whichever one `DATABASE_BACKEND` picks.
+ *
+ * Reads never error, a failed read is logged and comes back empty (or as the type's empty/default value).
+ * Writes return whether they succeeded.
+ */
+interface DiscalRepository {
+    /* API accounts */
+
+    fun updateAPIAccount(acc: UserAPIAccount): Mono<Boolean>
+
+    fun getAPIAccount(APIKey: String): Mono<UserAPIAccount>
+
+    /* Guild settings */
+
+    fun updateSettings(settings: GuildSettings): Mono<Boolean>
+
+    /**
+     * @return The guild's settings, or [GuildSettings.empty] if it has none stored.
+     */
+    fun getSettings(guildId: Snowflake): Mono<GuildSettings>
+
+    /**
+     * Streams the stored settings of many guilds at once, for warming caches. Guilds without settings are skipped.
+     * Unlike other reads, errors are emitted, so a failed load can't be mistaken for guilds having none.
+     */
+    fun streamSettings(guildIds: List<Snowflake>): Flux<GuildSettings>
+
+    /* Calendars */
+
+    fun updateCalendar(calData: CalendarData): Mono<Boolean>
+
+    fun getMainCalendar(guildId: Snowflake): Mono<CalendarData> = getCalendar(guildId, 1)
+
+    fun getCalendar(guildId: Snowflake, calendarNumber: Int): Mono<CalendarData>
+
+    fun getAllCalendars(guildId: Snowflake): Mono<List<CalendarData>>
+
+    /**
+     * Like [streamSettings], for the calendars of many guilds at once.
+     */
+    fun streamCalendars(guildIds: List<Snowflake>): Flux<CalendarData>
+
+    fun getCalendarCount(): Mono<Int>
+
+    fun getCalendarCount(guildId: Snowflake): Mono<Int>
+
+    /**
+     * Deletes a calendar and everything linked to it, then shifts the guild's later calendars down by one.
+     */
+    fun deleteCalendarAndRelatedData(calendarData: CalendarData): Mono<Boolean>
+
+    /**
+     * Deletes everything stored for the guild.
+     */
+    fun deleteAllDataForGuild(guildId: Snowflake): Mono<Boolean>
+
+    /**
+     * Picks up teardowns that were started before the given time and never finished, most likely because the process
+     * running them died. Teardowns are safe to run again from the start.
+     *
+     * @return How many were finished.
+     */
+    fun resumeTeardowns(startedBefore: Instant): Mono<Int>
+
+    /* Events */
+
+    fun updateEventData(data: EventData): Mono<Boolean>
+
+    /**
+     * @return The event's data, or a blank [EventData] if none is stored. Recurring children share their parent's.
+     */
+    fun getEventData(guildId: Snowflake, eventId: String): Mono<EventData>
+
+    fun getEventsData(guildId: Snowflake, eventIds: List<String>): Mono<Map<String, EventData>> {
+        return streamEventsData(guildId, eventIds)
+            .collectMap { it.eventId }
+            .defaultIfEmpty(emptyMap())
+    }
+
+    /**
+     * Streams the stored [EventData] for the requested events of a single guild. Events with nothing stored are
+     * skipped.
+     */
+    fun streamEventsData(guildId: Snowflake, eventIds: List<String>): Flux<EventData>
+
+    fun deleteEventData(eventId: String): Mono<Boolean>
+
+    /* Event mirrors */
+
+    /**
+     * @return The stored copy of the calendar's events as a full [EventMirrorDelta], or empty if there is none for
+     * this calendar.
+     */
+    fun getEventMirror(guildId: Snowflake, calendarNumber: Int, calendarId: String): Mono<EventMirrorDelta>
+
+    fun updateEventMirror(delta: EventMirrorDelta): Mono<Boolean>
+
+    /* Rsvp */
+
+    fun updateRsvpData(data: RsvpData): Mono<Boolean>
+
+    /**
+     * Saves the rsvp like [updateRsvpData], but never holds it back, so the outcome is final once this completes.
+     * Users added as going are checked against the stored limit one at a time. Those that don't fit are moved to the
+     * waitlist, in [data] as well as in storage.
+     */
+    fun updateRsvpDataNow(data: RsvpData): Mono<RsvpWriteResult>
+
+    /**
+     * @param withMembers Whether to load every member of the rsvp. List views that page through members with
+     * [getRsvpMembers] don't need them.
+     * @return The event's rsvp, or a blank [RsvpData] if none is stored.
+     */
+    fun getRsvpData(guildId: Snowflake, eventId: String, withMembers: Boolean = true): Mono<RsvpData>
+
+    /**
+     * Pages through the users with the given status, in the order they RSVP'd.
+     */
+    fun getRsvpMembers(guildId: Snowflake, eventId: String, status: RsvpStatus, page: Int, pageSize: Int): Flux<String>
+
+    fun getRsvpMemberCounts(guildId: Snowflake, eventId: String): Mono<Map<RsvpStatus, Int>>
+
+    fun removeRsvpRole(guildId: Snowflake, roleId: Snowflake): Mono<Boolean>
+
+    /* Announcements */
+
+    fun updateAnnouncement(announcement: Announcement): Mono<Boolean>
+
+    fun getAnnouncement(announcementId: String, guildId: Snowflake): Mono<Announcement>
+
+    fun getAnnouncements(guildId: Snowflake): Mono<List<Announcement>> = streamAnnouncements(guildId).collectList()
+
+    fun streamAnnouncements(guildId: Snowflake): Flux<Announcement>
+
+    fun getAnnouncements(guildId: Snowflake, type: AnnouncementType): Mono<List<Announcement>> =
+        streamAnnouncements(guildId, type).collectList()
+
+    fun streamAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement>
+
+    fun getAnnouncements(): Mono<List<Announcement>> = streamAnnouncements().collectList()
+
+    fun streamAnnouncements(): Flux<Announcement>
+
+    fun getAnnouncements(type: AnnouncementType): Mono<List<Announcement>> = streamAnnouncements(type).collectList()
+
+    fun streamAnnouncements(type: AnnouncementType): Flux<Announcement>
+
+    fun getEnabledAnnouncements(): Mono<List<Announcement>> = streamEnabledAnnouncements().collectList()
+
+    fun streamEnabledAnnouncements(): Flux<Announcement>
+
+    fun getEnabledAnnouncements(guildId: Snowflake): Mono<List<Announcement>> =
+        streamEnabledAnnouncements(guildId).collectList()
+
+    fun streamEnabledAnnouncements(guildId: Snowflake): Flux<Announcement>
+
+    fun getEnabledAnnouncements(announcementType: AnnouncementType): Mono<List<Announcement>> =
+        streamEnabledAnnouncements(announcementType).collectList()
+
+    fun streamEnabledAnnouncements(announcementType: AnnouncementType): Flux<Announcement>
+
+    fun getEnabledAnnouncements(guildId: Snowflake, type: AnnouncementType): Mono<List<Announcement>> =
+        streamEnabledAnnouncements(guildId, type).collectList()
+
+    fun streamEnabledAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement>
+
+    fun getAnnouncementsForShard(shardCount: Int, shardIndex: Int): Mono<List<Announcement>> =
+        streamAnnouncementsForShard(shardCount, shardIndex).collectList()
+
+    /**
+     * Streams the announcements of guilds on the given shard, using Discord's sharding formula.
+     */
+    fun streamAnnouncementsForShard(shardCount: Int, shardIndex: Int): Flux<Announcement>
+
+    fun getAnnouncementCount(): Mono<Int>
+
+    fun deleteAnnouncement(announcementId: String): Mono<Boolean>
+
+    fun deleteAnnouncementsForEvent(guildId: Snowflake, eventId: String): Mono<Boolean>
+
+    /* Static messages */
+
+    fun updateStaticMessage(message: StaticMessage): Mono<Boolean>
+
+    fun getStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<StaticMessage>
+
+    fun deleteStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<Boolean>
+
+    fun getStaticMessageCount(): Mono<Int>
+
+    fun getStaticMessagesForShard(shardCount: Int, shardIndex: Int): Mono<List<StaticMessage>> =
+        streamStaticMessagesForShard(shardCount, shardIndex).collectList()
+
+    fun streamStaticMessagesForShard(shardCount: Int, shardIndex: Int): Flux<StaticMessage>
+
+    fun getStaticMessagesForCalendar(guildId: Snowflake, calendarNumber: Int): Mono<List<StaticMessage>> =
+        streamStaticMessagesForCalendar(guildId, calendarNumber).collectList()
+
+    fun streamStaticMessagesForCalendar(guildId: Snowflake, calendarNumber: Int): Flux<StaticMessage>
+
+    /* Credentials */
+
+    fun updateCredentialData(credData: GoogleCredentialData): Mono<Boolean>
+
+    fun getCredentialData(credNumber: Int): Mono<GoogleCredentialData>
+
+    /* Sessions */
+
+    fun insertSessionData(session: WebSession): Mono<Boolean>
+
+    /**
+     * Replaces all of the session's user's sessions with this one.
+     */
+    fun removeAndInsertSessionData(session: WebSession): Mono<Boolean>
+
+    fun getSessionData(token: String): Mono<WebSession>
+
+    fun getAllSessionsForUser(userId: Snowflake): Mono<List<WebSession>>
+
+    fun deleteSession(token: String): Mono<Boolean>
+
+    fun deleteAllSessionsForUser(userId: Snowflake): Mono<Boolean>
+
+    /* Retention */
+
+    /**
+     * Purges rsvp data, including members, of events that ended before the cutoff.
+     * Rsvps without a known end are never purged.
+     */
+    fun purgeEndedRsvps(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult>
+
+    /**
+     * Purges event data, and the specific announcements for those events, of events that ended before the cutoff.
+     */
+    fun purgeEndedEvents(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult>
+
+    fun purgeExpiredSessions(options: RetentionOptions): Flux<PurgeResult>
+}
@@ -0,0 +1,437 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.WebSession
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.EventMirrorDelta
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.event.RsvpWriteResult
+import org.dreamexposure.discal.core.`object`.google.GoogleCredentialData
+import org.dreamexposure.discal.core.`object`.web.UserAPIAccount
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * A [DiscalRepository] that keeps everything in concurrent maps, for benchmarks and soak tests that need to push the
+ * bot without a database in the way. Select it with `DATABASE_BACKEND=memory`, or construct one directly.
+ *
+ * Objects are stored and handed back as-is rather than copied, the same instance a caller saved is what the next
+ * read returns. Nothing survives a restart.
+ */
+class InMemoryRepository : DiscalRepository {
+    private val guilds = ConcurrentHashMap<Snowflake, GuildData>()
+    private val announcementGuilds = ConcurrentHashMap<String, Snowflake>()
+    private val apiAccounts = ConcurrentHashMap<String, UserAPIAccount>()
+    private val credentials = ConcurrentHashMap<Int, GoogleCredentialData>()
+    private val sessions = ConcurrentHashMap<String, WebSession>()
+
+    private class GuildData {
+        @Volatile
+        var settings: GuildSettings? = null
+        val calendars = ConcurrentHashMap<Int, CalendarData>()
+        val events = ConcurrentHashMap<String, EventData>()
+        val rsvps = ConcurrentHashMap<String, RsvpData>()
+        val announcements = ConcurrentHashMap<String, Announcement>()
+        val staticMessages = ConcurrentHashMap<Snowflake, StaticMessage>()
+        // Stored as the full delta they would be read back as
+        val eventMirrors = ConcurrentHashMap<Int, EventMirrorDelta>()
+    }
+
+    private fun guild(guildId: Snowflake) = guilds.computeIfAbsent(guildId) { GuildData() }
+
+    private fun allAnnouncements() = Flux.fromIterable(guilds.values).flatMapIterable { it.announcements.values }
+
+    // Recurring children share their parent's data
+    private fun parentId(eventId: String) = if (eventId.contains("_")) eventId.split("_")[0] else eventId
+
+    /* API accounts */
+
+    override fun updateAPIAccount(acc: UserAPIAccount): Mono<Boolean> {
+        apiAccounts[acc.APIKey] = acc
+        return Mono.just(true)
+    }
+
+    override fun getAPIAccount(APIKey: String): Mono<UserAPIAccount> = Mono.justOrEmpty(apiAccounts[APIKey])
+
+    /* Guild settings */
+
+    override fun updateSettings(settings: GuildSettings): Mono<Boolean> {
+        guild(settings.guildID).settings = settings
+        return Mono.just(true)
+    }
+
+    override fun getSettings(guildId: Snowflake): Mono<GuildSettings> {
+        return Mono.just(guilds[guildId]?.settings ?: GuildSettings.empty(guildId))
+    }
+
+    override fun streamSettings(guildIds: List<Snowflake>): Flux<GuildSettings> {
+        return Flux.fromIterable(guildIds.mapNotNull { guilds[it]?.settings })
+    }
+
+    /* Calendars */
+
+    override fun updateCalendar(calData: CalendarData): Mono<Boolean> {
+        guild(calData.guildId).calendars[calData.calendarNumber] = calData
+        return Mono.just(true)
+    }
+
+    override fun getCalendar(guildId: Snowflake, calendarNumber: Int): Mono<CalendarData> {
+        return Mono.justOrEmpty(guilds[guildId]?.calendars?.get(calendarNumber))
+    }
+
+    override fun getAllCalendars(guildId: Snowflake): Mono<List<CalendarData>> {
+        return Mono.just(guilds[guildId]?.calendars?.values?.sortedBy(CalendarData::calendarNumber) ?: emptyList())
+    }
+
+    override fun streamCalendars(guildIds: List<Snowflake>): Flux<CalendarData> {
+        return Flux.fromIterable(guildIds.flatMap { guilds[it]?.calendars?.values ?: emptyList() })
+    }
+
+    override fun getCalendarCount(): Mono<Int> = Mono.fromCallable { guilds.values.sumOf { it.calendars.size } }
+
+    override fun getCalendarCount(guildId: Snowflake): Mono<Int> = Mono.just(guilds[guildId]?.calendars?.size ?: 0)
+
+    override fun deleteCalendarAndRelatedData(calendarData: CalendarData): Mono<Boolean> {
+        val guild = guilds[calendarData.guildId] ?: return Mono.just(true)
+        val number = calendarData.calendarNumber
+
+        return Mono.fromCallable {
+            // Renumbering touches several maps, keep other teardowns of this guild out while it runs
+            synchronized(guild) {
+                guild.calendars.remove(number)
+                guild.events.values.removeIf { it.calendarNumber == number }
+                guild.rsvps.values.removeIf { it.calendarNumber == number }
+                guild.announcements.values.filter { it.calendarNumber == number }.forEach {
+                    guild.announcements.remove(it.id)
+                    announcementGuilds.remove(it.id)
+                }
+                guild.staticMessages.values.removeIf { it.calendarNumber == number }
+                guild.eventMirrors.remove(number)
+
+                guild.calendars.values.filter { it.calendarNumber > number }.sortedBy { it.calendarNumber }.forEach {
+                    guild.calendars.remove(it.calendarNumber)
+                    guild.calendars[it.calendarNumber - 1] = it.copy(calendarNumber = it.calendarNumber - 1)
+                }
+                guild.events.replaceAll { _, data ->
+                    if (data.calendarNumber > number) data.copy(calendarNumber = data.calendarNumber - 1) else data
+                }
+                guild.rsvps.replaceAll { _, data ->
+                    if (data.calendarNumber > number) renumber(data, data.calendarNumber - 1) else data
+                }
+                guild.announcements.values.filter { it.calendarNumber > number }.forEach { it.calendarNumber-- }
+                guild.staticMessages.replaceAll { _, message ->
+                    if (message.calendarNumber > number) message.copy(calendarNumber = message.calendarNumber - 1)
+                    else message
+                }
+                guild.eventMirrors.keys.filter { it > number }.sorted().forEach {
+                    val mirror = guild.eventMirrors.remove(it)!!
+                    guild.eventMirrors[it - 1] = mirror.copy(calendarNumber = it - 1)
+                }
+            }
+            true
+        }
+    }
+
+    override fun deleteAllDataForGuild(guildId: Snowflake): Mono<Boolean> {
+        guilds.remove(guildId)?.announcements?.keys?.forEach { announcementGuilds.remove(it) }
+        return Mono.just(true)
+    }
+
+    // Teardowns here can't be interrupted part way
+    override fun resumeTeardowns(startedBefore: Instant): Mono<Int> = Mono.just(0)
+
+    /* Events */
+
+    override fun updateEventData(data: EventData): Mono<Boolean> {
+        val id = parentId(data.eventId)
+        val events = guild(data.guildId).events
+
+        // Same as MySQL, only keep rows worth keeping, otherwise just update whatever is already stored
+        val stored = if (data.shouldBeSaved()) {
+            events[id] = data.copy(eventId = id)
+            true
+        } else events.computeIfPresent(id) { _, _ -> data.copy(eventId = id) } != null
+
+        return Mono.just(stored)
+    }
+
+    override fun getEventData(guildId: Snowflake, eventId: String): Mono<EventData> {
+        val id = parentId(eventId)
+        return Mono.just(guilds[guildId]?.events?.get(id) ?: EventData(guildId, eventId = id))
+    }
+
+    override fun streamEventsData(guildId: Snowflake, eventIds: List<String>): Flux<EventData> {
+        val events = guilds[guildId]?.events ?: return Flux.empty()
+        return Flux.fromIterable(eventIds.mapTo(LinkedHashSet(), ::parentId).mapNotNull { events[it] })
+    }
+
+    override fun deleteEventData(eventId: String): Mono<Boolean> {
+        if (eventId.contains("_")) return Mono.empty() // Don't delete if child event of recurring parent.
+
+        guilds.values.forEach { it.events.remove(eventId) }
+        return Mono.just(true)
+    }
+
+    /* Event mirrors */
+
+    override fun getEventMirror(guildId: Snowflake, calendarNumber: Int, calendarId: String): Mono<EventMirrorDelta> {
+        return Mono.justOrEmpty(guilds[guildId]?.eventMirrors?.get(calendarNumber)?.takeIf { it.calendarId == calendarId })
+    }
+
+    override fun updateEventMirror(delta: EventMirrorDelta): Mono<Boolean> {
+        guild(delta.guildId).eventMirrors.compute(delta.calendarNumber) { _, stored ->
+            val events = if (delta.full || stored == null) delta.changed
+            else stored.changed + delta.changed - delta.removed.toSet()
+
+            delta.copy(full = true, changed = events, removed = emptyList())
+        }
+        return Mono.just(true)
+    }
+
+    /* Rsvp */
+
+    override fun updateRsvpData(data: RsvpData): Mono<Boolean> = updateRsvpDataNow(data).map(RsvpWriteResult::saved)
+
+    override fun updateRsvpDataNow(data: RsvpData): Mono<RsvpWriteResult> {
+        val waitlisted = synchronized(data) {
+            // Everyone shares the stored copy, so only the users that joined since the last save can be past the limit
+            val changes = data.getChanges()
+            val joined = changes.members.values.filterNotNull()
+                .filter { it.status == RsvpStatus.GOING_ON_TIME || it.status == RsvpStatus.GOING_LATE }
+                .sortedBy { it.position }
+            val over = if (data.limit >= 0) data.getCurrentCount() - data.limit else 0
+
+            joined.takeLast(over.coerceIn(0, joined.size)).map { member ->
+                data.membersOf(member.status).remove(member.userId)
+                data.waitlist.add(member.userId)
+                member.userId
+            }.toSet()
+        }
+
+        if (data.stored || data.shouldBeSaved()) {
+            guild(data.guildId).rsvps[data.eventId] = data
+            data.markSaved(true)
+        }
+        return Mono.just(RsvpWriteResult(true, waitlisted))
+    }
+
+    override fun getRsvpData(guildId: Snowflake, eventId: String, withMembers: Boolean): Mono<RsvpData> {
+        return Mono.just(guilds[guildId]?.rsvps?.get(eventId) ?: RsvpData(guildId, eventId))
+    }
+
+    override fun getRsvpMembers(guildId: Snowflake, eventId: String, status: RsvpStatus, page: Int, pageSize: Int): Flux<String> {
+        val data = guilds[guildId]?.rsvps?.get(eventId) ?: return Flux.empty()
+        return Flux.fromIterable(data.membersOf(status).drop(page.coerceAtLeast(0) * pageSize).take(pageSize))
+    }
+
+    override fun getRsvpMemberCounts(guildId: Snowflake, eventId: String): Mono<Map<RsvpStatus, Int>> {
+        val data = guilds[guildId]?.rsvps?.get(eventId) ?: return Mono.just(RsvpStatus.values().associateWith { 0 })
+        return Mono.just(data.getCounts())
+    }
+
+    override fun removeRsvpRole(guildId: Snowflake, roleId: Snowflake): Mono<Boolean> {
+        guilds[guildId]?.rsvps?.values?.filter { it.roleId == roleId }?.forEach {
+            it.setRole(null)
+            it.markSaved(true)
+        }
+        return Mono.just(true)
+    }
+
+    private fun renumber(data: RsvpData, calendarNumber: Int): RsvpData {
+        val renumbered = RsvpData(data.guildId, data.eventId, calendarNumber)
+        renumbered.eventEnd = data.eventEnd
+        renumbered.limit = data.limit
+        renumbered.setRole(data.roleId)
+        RsvpStatus.values().forEach { renumbered.membersOf(it).addAll(data.membersOf(it)) }
+        renumbered.markSaved(true)
+
+        return renumbered
+    }
+
+    /* Announcements */
+
+    override fun updateAnnouncement(announcement: Announcement): Mono<Boolean> {
+        guild(announcement.guildId).announcements[announcement.id] = announcement
+        announcementGuilds[announcement.id] = announcement.guildId
+        return Mono.just(true)
+    }
+
+    override fun getAnnouncement(announcementId: String, guildId: Snowflake): Mono<Announcement> {
+        return Mono.justOrEmpty(guilds[guildId]?.announcements?.get(announcementId))
+    }
+
+    override fun streamAnnouncements(guildId: Snowflake): Flux<Announcement> {
+        return Flux.fromIterable(guilds[guildId]?.announcements?.values ?: emptyList())
+    }
+
+    override fun streamAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements(guildId).filter { it.type == type }
+    }
+
+    override fun streamAnnouncements(): Flux<Announcement> = allAnnouncements()
+
+    override fun streamAnnouncements(type: AnnouncementType): Flux<Announcement> {
+        return allAnnouncements().filter { it.type == type }
+    }
+
+    override fun streamEnabledAnnouncements(): Flux<Announcement> = allAnnouncements().filter(Announcement::enabled)
+
+    override fun streamEnabledAnnouncements(guildId: Snowflake): Flux<Announcement> {
+        return streamAnnouncements(guildId).filter(Announcement::enabled)
+    }
+
+    override fun streamEnabledAnnouncements(announcementType: AnnouncementType): Flux<Announcement> {
+        return allAnnouncements().filter { it.enabled && it.type == announcementType }
+    }
+
+    override fun streamEnabledAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements(guildId).filter { it.enabled && it.type == type }
+    }
+
+    override fun streamAnnouncementsForShard(shardCount: Int, shardIndex: Int): Flux<Announcement> {
+        return Flux.fromIterable(guilds.entries)
+            .filter { isOnShard(it.key, shardCount, shardIndex) }
+            .flatMapIterable { it.value.announcements.values }
+    }
+
+    override fun getAnnouncementCount(): Mono<Int> = Mono.fromCallable { announcementGuilds.size }
+
+    override fun deleteAnnouncement(announcementId: String): Mono<Boolean> {
+        announcementGuilds.remove(announcementId)?.let { guilds[it]?.announcements?.remove(announcementId) }
+        return Mono.just(true)
+    }
+
+    override fun deleteAnnouncementsForEvent(guildId: Snowflake, eventId: String): Mono<Boolean> {
+        guilds[guildId]?.announcements?.values?.filter { it.eventId == eventId }?.forEach {
+            guilds[guildId]?.announcements?.remove(it.id)
+            announcementGuilds.remove(it.id)
+        }
+        return Mono.just(true)
+    }
+
+    /* Static messages */
+
+    override fun updateStaticMessage(message: StaticMessage): Mono<Boolean> {
+        guild(message.guildId).staticMessages[message.messageId] = message
+        return Mono.just(true)
+    }
+
+    override fun getStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<StaticMessage> {
+        return Mono.justOrEmpty(guilds[guildId]?.staticMessages?.get(messageId))
+    }
+
+    override fun deleteStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<Boolean> {
+        guilds[guildId]?.staticMessages?.remove(messageId)
+        return Mono.just(true)
+    }
+
+    override fun getStaticMessageCount(): Mono<Int> = Mono.fromCallable { guilds.values.sumOf { it.staticMessages.size } }
+
+    override fun streamStaticMessagesForShard(shardCount: Int, shardIndex: Int): Flux<StaticMessage> {
+        return Flux.fromIterable(guilds.entries)
+            .filter { isOnShard(it.key, shardCount, shardIndex) }
+            .flatMapIterable { it.value.staticMessages.values }
+    }
+
+    override fun streamStaticMessagesForCalendar(guildId: Snowflake, calendarNumber: Int): Flux<StaticMessage> {
+        return Flux.fromIterable(guilds[guildId]?.staticMessages?.values ?: emptyList())
+            .filter { it.calendarNumber == calendarNumber }
+    }
+
+    // Discord's sharding formula, same as the MySQL queries
+    private fun isOnShard(guildId: Snowflake, shardCount: Int, shardIndex: Int): Boolean {
+        return (guildId.asLong() shr 22) % shardCount == shardIndex.toLong()
+    }
+
+    /* Credentials */
+
+    override fun updateCredentialData(credData: GoogleCredentialData): Mono<Boolean> {
+        credentials[credData.credentialNumber] = credData
+        return Mono.just(true)
+    }
+
+    override fun getCredentialData(credNumber: Int): Mono<GoogleCredentialData> = Mono.justOrEmpty(credentials[credNumber])
+
+    /* Sessions */
+
+    override fun insertSessionData(session: WebSession): Mono<Boolean> {
+        sessions[session.token] = session
+        return Mono.just(true)
+    }
+
+    override fun removeAndInsertSessionData(session: WebSession): Mono<Boolean> {
+        sessions.values.removeIf { it.user == session.user }
+        return insertSessionData(session)
+    }
+
+    override fun getSessionData(token: String): Mono<WebSession> = Mono.justOrEmpty(sessions[token])
+
+    override fun getAllSessionsForUser(userId: Snowflake): Mono<List<WebSession>> {
+        return Mono.fromCallable { sessions.values.filter { it.user == userId } }
+    }
+
+    override fun deleteSession(token: String): Mono<Boolean> {
+        sessions.remove(token)
+        return Mono.just(true)
+    }
+
+    override fun deleteAllSessionsForUser(userId: Snowflake): Mono<Boolean> {
+        sessions.values.removeIf { it.user == userId }
+        return Mono.just(true)
+    }
+
+    /* Retention, everything happens in one go, batch sizes and pauses only matter for a real database */
+
+    override fun purgeEndedRsvps(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult> {
+        val cutoff = endedBefore.toEpochMilli()
+        return Flux.just(purge("rsvp", options) { guild ->
+            guild.rsvps.values.filter { it.eventEnd in 1 until cutoff }.map { it.eventId }
+                .onEach { if (!options.dryRun) guild.rsvps.remove(it) }
+                .size
+        })
+    }
+
+    override fun purgeEndedEvents(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult> {
+        val cutoff = endedBefore.toEpochMilli()
+        return Flux.just(purge("events", options) { guild ->
+            val ended = guild.events.values.filter { it.eventEnd in 1 until cutoff }.map { it.eventId }.toSet()
+            if (!options.dryRun) {
+                guild.events.keys.removeAll(ended)
+                guild.announcements.values
+                    .filter { it.type == AnnouncementType.SPECIFIC && it.eventId in ended }
+                    .forEach {
+                        guild.announcements.remove(it.id)
+                        announcementGuilds.remove(it.id)
+                    }
+            }
+            ended.size
+        })
+    }
+
+    override fun purgeExpiredSessions(options: RetentionOptions): Flux<PurgeResult> {
+        val start = System.nanoTime()
+        val now = Instant.now()
+        val expired = sessions.values.filter { it.expiresAt.isBefore(now) }
+        if (!options.dryRun) expired.forEach { sessions.remove(it.token) }
+
+        return Flux.just(
+            PurgeResult("sessions", expired.size.toLong(), 1, Duration.ofNanos(System.nanoTime() - start), options.dryRun)
+        )
+    }
+
+    private fun purge(table: String, options: RetentionOptions, perGuild: (GuildData) -> Int): PurgeResult {
+        val start = System.nanoTime()
+        val rows = guilds.values.sumOf { perGuild(it).toLong() }
+
+        return PurgeResult(table, rows, 1, Duration.ofNanos(System.nanoTime() - start), options.dryRun)
+    }
+}
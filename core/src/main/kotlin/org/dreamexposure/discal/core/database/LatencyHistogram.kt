@@ -0,0 +1,84 @@
+package org.dreamexposure.discal.core.database
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock-free, fixed bucket latency histogram.
+ * Cheap enough to record on every pool acquire without becoming the bottleneck itself.
+ *
+ * @param boundsMillis The inclusive upper bound of each bucket, in milliseconds. An overflow bucket is always added.
+ */
+class LatencyHistogram(private val boundsMillis: LongArray = DEFAULT_BOUNDS) {
+    private val buckets = AtomicLongArray(boundsMillis.size + 1)
+    private val count = AtomicLong()
+    private val totalNanos = AtomicLong()
+    private val maxNanos = AtomicLong()
+
+    fun record(nanos: Long) {
+        val millis = nanos / 1_000_000
+        var index = boundsMillis.size
+        for (i in boundsMillis.indices) {
+            if (millis <= boundsMillis[i]) {
+                index = i
+                break
+            }
+        }
+
+        buckets.incrementAndGet(index)
+        count.incrementAndGet()
+        totalNanos.addAndGet(nanos)
+        maxNanos.accumulateAndGet(nanos, ::maxOf)
+    }
+
+    fun record(duration: Duration) = record(duration.toNanos())
+
+    fun snapshot(): Snapshot {
+        val counts = LongArray(buckets.length()) { buckets[it] }
+        val total = counts.sum()
+
+        return Snapshot(
+            count = count.get(),
+            meanMillis = if (total == 0L) 0.0 else totalNanos.get() / total / 1_000_000.0,
+            maxMillis = maxNanos.get() / 1_000_000.0,
+            p50Millis = percentile(counts, total, 0.50),
+            p95Millis = percentile(counts, total, 0.95),
+            p99Millis = percentile(counts, total, 0.99),
+            buckets = boundsMillis.mapIndexed { i, bound -> "le_$bound" to counts[i] }.toMap() +
+                ("le_inf" to counts[boundsMillis.size]),
+        )
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket it falls in.
+     * Values in the overflow bucket are reported as the observed max.
+     */
+    private fun percentile(counts: LongArray, total: Long, percentile: Double): Double {
+        if (total == 0L) return 0.0
+
+        val rank = (total * percentile).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in counts.indices) {
+            seen += counts[i]
+            if (seen >= rank) {
+                return if (i < boundsMillis.size) boundsMillis[i].toDouble() else maxNanos.get() / 1_000_000.0
+            }
+        }
+        return maxNanos.get() / 1_000_000.0
+    }
+
+    data class Snapshot(
+        val count: Long,
+        val meanMillis: Double,
+        val maxMillis: Double,
+        val p50Millis: Double,
+        val p95Millis: Double,
+        val p99Millis: Double,
+        val buckets: Map<String, Long>,
+    )
+
+    companion object {
+        val DEFAULT_BOUNDS = longArrayOf(1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000)
+    }
+}
@@ -0,0 +1,70 @@
+package org.dreamexposure.discal.core.database
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * A comma-joined database column that is only split when something actually reads or modifies it.
+ * Most rows loaded during an announcement cycle never touch their subscriber lists, and writing an untouched list
+ * back hands out the stored string as-is.
+ *
+ * Once materialized this behaves exactly like the [CopyOnWriteArrayList] it replaces.
+ */
+class LazyStringList(raw: String) : AbstractMutableList<String>(), RandomAccess {
+    @Volatile
+    private var raw: String? = raw
+
+    @Volatile
+    private var backing: CopyOnWriteArrayList<String>? = null
+
+    private fun list(): CopyOnWriteArrayList<String> {
+        backing?.let { return it }
+
+        synchronized(this) {
+            backing?.let { return it }
+
+            val list = CopyOnWriteArrayList(raw!!.split(",").filter(String::isNotBlank))
+            backing = list
+            raw = null
+            return list
+        }
+    }
+
+    /**
+     * @return The comma-joined form of this list without splitting it if it was never touched.
+     */
+    fun joined(): String? = if (backing == null) raw else null
+
+    override val size: Int
+        get() {
+            val r = raw
+            if (backing == null && r != null && r.isBlank()) return 0
+            return list().size
+        }
+
+    override fun isEmpty(): Boolean = size == 0
+
+    override fun get(index: Int): String = list()[index]
+
+    override fun set(index: Int, element: String): String = list().set(index, element)
+
+    override fun add(index: Int, element: String) = list().add(index, element)
+
+    override fun removeAt(index: Int): String = list().removeAt(index)
+
+    override fun remove(element: String): Boolean = list().remove(element)
+
+    override fun removeAll(elements: Collection<String>): Boolean = list().removeAll(elements.toSet())
+
+    override fun retainAll(elements: Collection<String>): Boolean = list().retainAll(elements.toSet())
+
+    override fun clear() = list().clear()
+
+    // The copy-on-write iterators are snapshots and do not support removal, everything above avoids them
+    override fun iterator(): MutableIterator<String> = list().iterator()
+
+    override fun listIterator(): MutableListIterator<String> = list().listIterator()
+
+    override fun listIterator(index: Int): MutableListIterator<String> = list().listIterator(index)
+
+    override fun contains(element: String): Boolean = list().contains(element)
+}
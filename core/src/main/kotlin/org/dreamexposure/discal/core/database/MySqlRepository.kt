@@ -0,0 +1,2389 @@
+@file:Suppress("DuplicatedCode")
+
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import io.r2dbc.pool.ConnectionPool
+import io.r2dbc.pool.ConnectionPoolConfiguration
+import io.r2dbc.spi.Connection
+import io.r2dbc.spi.ConnectionFactories
+import io.r2dbc.spi.ConnectionFactoryOptions.*
+import io.r2dbc.spi.Result
+import io.r2dbc.spi.Row
+import io.r2dbc.spi.Statement
+import org.dreamexposure.discal.Application
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.SharedCache
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
+import org.dreamexposure.discal.core.extensions.asStringList
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.WebSession
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.EventMirrorDelta
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.event.RsvpMember
+import org.dreamexposure.discal.core.`object`.event.RsvpWriteResult
+import org.dreamexposure.discal.core.`object`.google.GoogleCredentialData
+import org.dreamexposure.discal.core.`object`.network.discal.DatabasePoolData
+import org.dreamexposure.discal.core.`object`.web.UserAPIAccount
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import org.intellij.lang.annotations.Language
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.Instant
+import java.util.function.Function
+import java.util.stream.Collectors
+
+/**
+ * The MySQL backed [DiscalRepository], and the default one. Use it through [DatabaseManager].
+ */
+internal object MySqlRepository : DiscalRepository {
+    private val pool: ConnectionPool
+    private val acquireLatency = LatencyHistogram()
+
+    // Optional read-only replica, see read()
+    private val replica: ConnectionPool?
+    private val replicaAcquireLatency = LatencyHistogram()
+    private val replicaLag: ReplicaLagTracker?
+    private val replicaMaxLag = Duration.ofMillis(BotSettings.SQL_REPLICA_MAX_LAG.getOrDefault("10000").toLong())
+
+    // Bulkheads, circuit breaker and retries for every call below, see DatabaseExecutor
+    private val executor = DatabaseExecutor()
+
+    init {
+        pool = createPool(BotSettings.SQL_HOST.get(), BotSettings.SQL_PORT.get().toInt(), "discal-mysql")
+
+        val replicaHost = BotSettings.SQL_REPLICA_HOST.getOrDefault("")
+        if (replicaHost.isNotBlank()) {
+            val replicaPort = BotSettings.SQL_REPLICA_PORT.getOrDefault(BotSettings.SQL_PORT.get()).toInt()
+            replica = createPool(replicaHost, replicaPort, "discal-mysql-replica")
+
+            val tracker = ReplicaLagTracker()
+            replicaLag = tracker
+            // Every process writes its own heartbeat row, clear out those of processes that are long gone
+            connect { c ->
+                Mono.from(
+                    c.createStatement(Queries.DELETE_STALE_HEARTBEATS)
+                        .bind(0, System.currentTimeMillis() - Duration.ofDays(1).toMillis())
+                        .execute()
+                ).flatMap { res -> Mono.from(res.rowsUpdated) }
+            }.onErrorResume { Mono.empty() }.subscribe()
+            Flux.interval(Duration.ofMillis(BotSettings.SQL_REPLICA_LAG_INTERVAL.getOrDefault("2000").toLong()))
+                .onBackpressureDrop()
+                .concatMap { sampleReplicaLag(tracker) }
+                .subscribe()
+        } else {
+            replica = null
+            replicaLag = null
+        }
+    }
+
+    private fun createPool(host: String, port: Int, name: String): ConnectionPool {
+        val factory = ConnectionFactories.get(
+            builder()
+                .option(DRIVER, "pool")
+                .option(PROTOCOL, "mysql")
+                .option(HOST, host)
+                .option(PORT, port)
+                .option(USER, BotSettings.SQL_USER.get())
+                .option(PASSWORD, BotSettings.SQL_PASS.get())
+                .option(DATABASE, BotSettings.SQL_DB.get())
+                .build()
+        )
+
+        val conf = ConnectionPoolConfiguration.builder()
+            .connectionFactory(factory)
+            .name(name)
+            .initialSize(BotSettings.SQL_POOL_INITIAL_SIZE.getOrDefault("5").toInt())
+            .maxSize(BotSettings.SQL_POOL_MAX_SIZE.getOrDefault("20").toInt())
+            .maxIdleTime(Duration.ofSeconds(BotSettings.SQL_POOL_MAX_IDLE_TIME.getOrDefault("1800").toLong()))
+            .maxLifeTime(Duration.ofSeconds(BotSettings.SQL_POOL_MAX_LIFE_TIME.getOrDefault("3600").toLong()))
+            .maxAcquireTime(Duration.ofSeconds(BotSettings.SQL_POOL_MAX_ACQUIRE_TIME.getOrDefault("10").toLong()))
+            .validationQuery(BotSettings.SQL_POOL_VALIDATION_QUERY.getOrDefault("SELECT 1"))
+            .backgroundEvictionInterval(
+                Duration.ofSeconds(BotSettings.SQL_POOL_EVICTION_INTERVAL.getOrDefault("120").toLong())
+            ).build()
+
+        return ConnectionPool(conf)
+    }
+
+    // Connections are handed back to the pool on close, the pool settings decide how many stay open.
+    // Reads that must see the primary pass QueryClass.READ, everything else defaults to WRITE.
+    private fun <T> connect(queryClass: QueryClass = QueryClass.WRITE, connection: Function<Connection, Mono<T>>): Mono<T> {
+        return executor.execute(queryClass) { Mono.usingWhen(acquire(), connection::apply, Connection::close) }
+    }
+
+    private fun <T> connectMany(queryClass: QueryClass = QueryClass.BULK, connection: Function<Connection, Flux<T>>): Flux<T> {
+        return executor.executeMany(queryClass) { Flux.usingWhen(acquire(), connection::apply, Connection::close) }
+    }
+
+    /**
+     * Like [connect], but for reads that can be served slightly stale. They go to the replica when one is configured,
+     * unless it is lagging too far behind or the caller asked for [DatabaseManager.readYourWrites].
+     */
+    private fun <T> read(connection: Function<Connection, Mono<T>>): Mono<T> {
+        return Mono.deferContextual { ctx ->
+            executor.execute(QueryClass.READ) {
+                Mono.usingWhen(acquire(readPool(ctx.hasKey(DatabaseManager.READ_YOUR_WRITES))), connection::apply, Connection::close)
+            }
+        }
+    }
+
+    /**
+     * Like [read], for streams. Keyed reads of a guild's or calendar's rows stay in [QueryClass.READ], only scans over
+     * whole tables or shards belong in [QueryClass.BULK].
+     */
+    private fun <T> readMany(queryClass: QueryClass = QueryClass.READ, connection: Function<Connection, Flux<T>>): Flux<T> {
+        return Flux.deferContextual { ctx ->
+            executor.executeMany(queryClass) {
+                Flux.usingWhen(acquire(readPool(ctx.hasKey(DatabaseManager.READ_YOUR_WRITES))), connection::apply, Connection::close)
+            }
+        }
+    }
+
+    private fun readPool(readYourWrites: Boolean): ConnectionPool {
+        if (replica == null || readYourWrites) return pool
+
+        val lag = replicaLag?.lag ?: return pool
+        return if (lag > replicaMaxLag) pool else replica
+    }
+
+    private fun acquire(): Mono<Connection> = acquire(pool)
+
+    private fun acquire(from: ConnectionPool): Mono<Connection> {
+        val latency = if (from === pool) acquireLatency else replicaAcquireLatency
+
+        return Mono.defer {
+            val start = System.nanoTime()
+            Mono.from(from.create()).doOnNext { latency.record(System.nanoTime() - start) }
+        }
+    }
+
+    private fun sampleReplicaLag(tracker: ReplicaLagTracker): Mono<Void> {
+        val beat = tracker.beat()
+
+        val write = connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_HEARTBEAT)
+                    .bind(0, Application.instanceId.toString())
+                    .bind(1, beat)
+                    .execute()
+            ).flatMap { res -> Mono.from(res.rowsUpdated) }
+        }
+
+        val readBack = Mono.usingWhen(acquire(replica!!), { c ->
+            Mono.from(c.createStatement(Queries.SELECT_HEARTBEAT).bind(0, Application.instanceId.toString()).execute())
+                .flatMapMany { res -> res.map { row, _ -> row[0, Long::class.java]!! } }
+                .next()
+        }, Connection::close)
+
+        return write.then(readBack)
+            .doOnNext(tracker::seen)
+            .doOnError {
+                LOGGER.error(DEFAULT, "Failed to sample replica lag", it)
+            }.onErrorResume { Mono.empty() }
+            .then()
+    }
+
+    fun getPoolData(): DatabasePoolData {
+        return poolData(pool, acquireLatency).copy(
+            replica = replica?.let { poolData(it, replicaAcquireLatency) },
+            replicaLagMillis = replicaLag?.lag?.toMillis() ?: -1,
+            executors = executor.getData(),
+            circuitState = executor.circuitState.name.lowercase(),
+        )
+    }
+
+    private fun poolData(pool: ConnectionPool, acquireLatency: LatencyHistogram): DatabasePoolData {
+        val latency = acquireLatency.snapshot()
+        val metrics = pool.metrics.orElse(null)
+
+        return DatabasePoolData(
+            acquired = metrics?.acquiredSize() ?: 0,
+            allocated = metrics?.allocatedSize() ?: 0,
+            idle = metrics?.idleSize() ?: 0,
+            pendingAcquire = metrics?.pendingAcquireSize() ?: 0,
+            maxAllocated = metrics?.maxAllocatedSize ?: 0,
+            acquireCount = latency.count,
+            acquireMeanMillis = latency.meanMillis,
+            acquireP50Millis = latency.p50Millis,
+            acquireP95Millis = latency.p95Millis,
+            acquireP99Millis = latency.p99Millis,
+            acquireMaxMillis = latency.maxMillis,
+            acquireHistogram = latency.buckets,
+        )
+    }
+
+    fun disconnectFromMySQL() {
+        pool.dispose()
+        replica?.dispose()
+    }
+
+    /**
+     * Writes out everything still held back by write-behind buffers. Call before disconnecting.
+     */
+    fun flushPendingWrites(): Mono<Void> = RsvpWriteBehind.flushAll()
+
+    /**
+     * Checks `SQL_SHARD_BUCKETS` against the bucket count the shard_bucket columns were generated with, read back from
+     * their definitions, and that it is a power of two. Shard reads built with another count silently skip guilds,
+     * so a mismatch is an error.
+     * Tables that don't have the column yet (migrations not run) are skipped.
+     */
+    fun verifyShardBuckets(): Mono<Void> {
+        if (Integer.bitCount(Queries.SHARD_BUCKETS) != 1)
+            return Mono.error(IllegalStateException("SQL_SHARD_BUCKETS must be a power of two, not ${Queries.SHARD_BUCKETS}"))
+
+        return connect(QueryClass.READ) { c ->
+            Mono.from(c.createStatement(Queries.SELECT_SHARD_BUCKET_EXPRESSIONS).execute())
+                .flatMapMany { res ->
+                    res.map { row, _ -> row["TABLE_NAME", String::class.java]!! to row["GENERATION_EXPRESSION", String::class.java]!! }
+                }.collectList()
+        }.flatMap { columns ->
+            val mismatched = columns.mapNotNull { (table, expression) ->
+                // The bucket count is what the shifted id is taken modulo, shown as ((`guild_id` >> 22) % 1024)
+                val buckets = Regex("%\\s*(\\d+)").find(expression)?.groupValues?.get(1)?.toInt()
+                if (buckets == Queries.SHARD_BUCKETS) null else "$table has $buckets"
+            }
+
+            if (mismatched.isEmpty()) Mono.empty()
+            else Mono.error(IllegalStateException(
+                "SQL_SHARD_BUCKETS is ${Queries.SHARD_BUCKETS}, but the shard_bucket columns were generated with " +
+                    "another count (${mismatched.joinToString()}). Set it to the count the migrations were run with."
+            ))
+        }
+    }
+
+    override fun updateAPIAccount(acc: UserAPIAccount): Mono<Boolean> {
+        // The key is (USER_ID, API_KEY), an upsert would add a second row when a key moves to another user
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPDATE_API_ACCOUNT)
+                    .bind(0, acc.userId)
+                    .bind(1, acc.blocked)
+                    .bind(2, acc.APIKey)
+                    .execute()
+            ).flatMap { res -> Mono.from(res.rowsUpdated) }.flatMap { updated ->
+                // 0 is also what an update that changed nothing reports, the insert is then ignored as a duplicate
+                if (updated > 0) Mono.just(true)
+                else Mono.from(
+                    c.createStatement(Queries.INSERT_API_ACCOUNT)
+                        .bind(0, acc.userId)
+                        .bind(1, acc.APIKey)
+                        .bind(2, acc.blocked)
+                        .bind(3, acc.timeIssued)
+                        .execute()
+                ).flatMap { res -> Mono.from(res.rowsUpdated) }.thenReturn(true)
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update API account", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun updateSettings(settings: GuildSettings): Mono<Boolean> {
+        DiscalCache.guildSettings[settings.guildID] = settings
+
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_GUILD_SETTINGS)
+                    .bind(0, settings.guildID.asLong())
+                    .bind(1, settings.controlRole)
+                    .bind(2, settings.announcementStyle.value)
+                    .bind(3, settings.timeFormat.value)
+                    .bind(4, settings.lang)
+                    .bind(5, settings.prefix)
+                    .bind(6, settings.patronGuild)
+                    .bind(7, settings.devGuild)
+                    .bind(8, settings.maxCalendars)
+                    .bind(9, settings.getDmAnnouncementsString())
+                    .bind(10, settings.branded)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update guild settings", it)
+        }.onErrorResume { Mono.just(false) }
+            .delayUntil { saved ->
+                // A failed write may have left anything cached, only settings that made it in are shared
+                if (saved) SharedCache.updateSettings(settings) else SharedCache.invalidateSettings(settings.guildID)
+            }
+    }
+
+    override fun updateCalendar(calData: CalendarData): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_CALENDAR)
+                    .bind(0, calData.guildId.asLong())
+                    .bind(1, calData.calendarNumber)
+                    .bind(2, calData.host.name)
+                    .bind(3, calData.calendarId)
+                    .bind(4, calData.calendarAddress)
+                    .bind(5, calData.external)
+                    .bind(6, calData.credentialId)
+                    .bind(7, calData.privateKey)
+                    .bind(8, calData.encryptedAccessToken)
+                    .bind(9, calData.encryptedRefreshToken)
+                    .bind(10, calData.expiresAt.toEpochMilli())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update calendar data", it)
+        }.onErrorResume { Mono.just(false) }
+            .delayUntil {
+                DiscalCache.clearNoCalendars(calData.guildId)
+                SharedCache.invalidateCalendars(calData.guildId)
+            }
+    }
+
+    override fun updateAnnouncement(announcement: Announcement): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_ANNOUNCEMENT)
+                    .bind(0, announcement.id)
+                    .bind(1, announcement.calendarNumber)
+                    .bind(2, announcement.guildId.asLong())
+                    .bind(3, announcement.subscriberRoleIds.asStringList())
+                    .bind(4, announcement.subscriberUserIds.asStringList())
+                    .bind(5, announcement.announcementChannelId)
+                    .bind(6, announcement.type.name)
+                    .bind(7, announcement.modifier.name)
+                    .bind(8, announcement.eventId)
+                    .bind(9, announcement.eventColor.name)
+                    .bind(10, announcement.hoursBefore)
+                    .bind(11, announcement.minutesBefore)
+                    .bind(12, announcement.info)
+                    .bind(13, announcement.enabled)
+                    .bind(14, announcement.publish)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update announcement", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun updateEventData(data: EventData): Mono<Boolean> {
+        val id = if (data.eventId.contains("_"))
+            data.eventId.split("_")[0]
+        else
+            data.eventId
+
+        return connect { c ->
+            // Only insert rows worth keeping, otherwise just update whatever is already stored
+            val statement = if (data.shouldBeSaved()) {
+                c.createStatement(Queries.UPSERT_EVENT_DATA)
+                    .bind(0, data.guildId.asLong())
+                    .bind(1, id)
+                    .bind(2, data.calendarNumber)
+                    .bind(3, data.eventEnd)
+                    .bind(4, data.imageLink)
+            } else {
+                c.createStatement(Queries.UPDATE_EVENT_DATA)
+                    .bind(0, data.calendarNumber)
+                    .bind(1, data.imageLink)
+                    .bind(2, data.eventEnd)
+                    .bind(3, id)
+                    .bind(4, data.guildId.asLong())
+            }
+
+            // MySQL reports 0 rows for a write that changed nothing, that still succeeded
+            Mono.from(statement.execute())
+                .flatMap { res -> Mono.from(res.rowsUpdated) }
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update event data", it)
+        }.onErrorResume { Mono.just(false) }.defaultIfEmpty(false)
+    }
+
+    override fun updateRsvpData(data: RsvpData): Mono<Boolean> {
+        // Users going past a limit can't be held back, they would only find out they were waitlisted after the fact
+        return if (RsvpWriteBehind.enabled && !data.hasLimitedJoins()) RsvpWriteBehind.offer(data)
+        else updateRsvpDataNow(data).map(RsvpWriteResult::saved)
+    }
+
+    override fun updateRsvpDataNow(data: RsvpData): Mono<RsvpWriteResult> {
+        return if (RsvpWriteBehind.enabled) RsvpWriteBehind.writeNow(data) else writeRsvpData(data)
+    }
+
+    /**
+     * Writes out everything changed on the rsvp since it was loaded or last saved.
+     */
+    internal fun writeRsvpData(data: RsvpData): Mono<RsvpWriteResult> {
+        val changes = data.getChanges()
+        val stored = data.stored || data.shouldBeSaved()
+
+        // Users going count toward the limit, which is checked by the database so other writers can't push past it
+        val (limited, upserts) = changes.members.values.filterNotNull().partition {
+            data.limit >= 0 && (it.status == RsvpStatus.GOING_ON_TIME || it.status == RsvpStatus.GOING_LATE)
+        }
+        val deletes = changes.members.filterValues { it == null }.keys.toList()
+
+        return connect { c ->
+            // Settings only need a write when they changed, or when this is the first time the rsvp is worth keeping
+            val settingsMono = if (changes.settings || !data.stored && data.shouldBeSaved()) {
+                updateRsvpSettings(c, data)
+            } else Mono.empty()
+
+            // Only changed users are written, batched into as few statements as possible
+            val upsertMono = upsertRsvpMembers(c, data, upserts)
+
+            // One at a time, each only goes in while the event still has room. Those that don't fit are waitlisted
+            val limitedMono = Flux.fromIterable(limited).concatMap { member ->
+                inTransaction(c, hasRoom(c, data, member.userId).flatMap { room ->
+                    val written = if (room) member else member.copy(status = RsvpStatus.WAITLIST)
+                    upsertRsvpMembers(c, data, listOf(written)).then(Mono.just(room))
+                }).filter { room -> !room }.map {
+                    LOGGER.debug("Rsvp limit reached for event ${data.eventId}, waitlisting ${member.userId}")
+                    // Unless they already changed again since, in which case that change is written next time
+                    if (data.membersOf(member.status).remove(member.userId)) data.waitlist.add(member.userId)
+                    member.userId
+                }
+            }
+
+            val deleteMono = Flux.fromIterable(deletes.chunked(Queries.RSVP_MEMBER_BATCH_SIZE)).concatMap { chunk ->
+                val statement = c.createStatement(Queries.deleteRsvpMembers(chunk.size))
+                    .bind(0, data.guildId.asLong())
+                    .bind(1, data.eventId)
+                chunk.forEachIndexed { i, userId -> statement.bind(i + 2, userId.toLong()) }
+
+                Mono.from(statement.execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+            }
+
+            // Deletes go first, they can make room for users going
+            settingsMono.thenMany(deleteMono).thenMany(upsertMono).thenMany(limitedMono)
+                .collect(Collectors.toSet())
+                .map { waitlisted ->
+                    data.markSaved(stored, changes)
+                    RsvpWriteResult(true, waitlisted)
+                }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update rsvp data", it)
+        }.onErrorResume { Mono.just(RsvpWriteResult(false)) }.defaultIfEmpty(RsvpWriteResult(false))
+    }
+
+    /**
+     * Whether the user fits in the event next to everyone else going. Must run in a transaction, it locks the rsvp row
+     * until that ends so writers for the same event take turns.
+     *
+     * Decided by counting, not by how many rows a conditional write reports. MySQL reports 0 for a write that changed
+     * nothing, which can't be told apart from one that was turned away.
+     */
+    private fun hasRoom(c: Connection, data: RsvpData, userId: String): Mono<Boolean> {
+        val limitMono = Mono.from(
+            c.createStatement(Queries.LOCK_RSVP_LIMIT)
+                .bind(0, data.guildId.asLong())
+                .bind(1, data.eventId)
+                .execute()
+        ).flatMapMany { res ->
+            res.map { row, _ -> row["RSVP_LIMIT", Int::class.java]!! }
+        }.next().defaultIfEmpty(data.limit)
+
+        // Read after the lock is held, so it sees everything committed by whoever held it before
+        val countMono = Mono.from(
+            c.createStatement(Queries.COUNT_OTHER_RSVP_MEMBERS_GOING)
+                .bind(0, data.guildId.asLong())
+                .bind(1, data.eventId)
+                .bind(2, userId.toLong())
+                .execute()
+        ).flatMapMany { res ->
+            res.map { row, _ -> row[0, Long::class.java]!! }
+        }.next().defaultIfEmpty(0L)
+
+        return limitMono.flatMap { limit -> countMono.map { count -> limit < 0 || count < limit } }
+    }
+
+    private fun upsertRsvpMembers(c: Connection, data: RsvpData, members: List<RsvpMember>): Flux<Int> {
+        return Flux.fromIterable(members.chunked(Queries.RSVP_MEMBER_BATCH_SIZE)).concatMap { chunk ->
+            val statement = c.createStatement(Queries.upsertRsvpMembers(chunk.size))
+            chunk.forEachIndexed { i, member ->
+                statement.bind(i * 5, data.guildId.asLong())
+                    .bind(i * 5 + 1, data.eventId)
+                    .bind(i * 5 + 2, member.userId.toLong())
+                    .bind(i * 5 + 3, member.status.value)
+                    .bind(i * 5 + 4, member.position)
+            }
+
+            Mono.from(statement.execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+        }
+    }
+
+    private fun updateRsvpSettings(c: Connection, data: RsvpData): Mono<Int> {
+        // Only insert rows worth keeping, otherwise just update whatever is already stored
+        val upsert = data.shouldBeSaved()
+        val statement = if (upsert) {
+            c.createStatement(Queries.UPSERT_RSVP_DATA)
+                .bind(0, data.guildId.asLong())
+                .bind(1, data.eventId)
+                .bind(2, data.calendarNumber)
+                .bind(3, data.eventEnd)
+                .bind(4, data.limit)
+                //5 deal with nullable role below
+        } else {
+            c.createStatement(Queries.UPDATE_RSVP_DATA)
+                .bind(0, data.calendarNumber)
+                .bind(1, data.eventEnd)
+                .bind(2, data.limit)
+                //3 deal with nullable role below
+                .bind(4, data.eventId)
+                .bind(5, data.guildId.asLong())
+        }
+        val roleIndex = if (upsert) 5 else 3
+
+        if (data.roleId == null)
+            statement.bindNull(roleIndex, Long::class.java)
+        else
+            statement.bind(roleIndex, data.roleId!!.asLong())
+
+        return Mono.from(statement.execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+    }
+
+    override fun updateCredentialData(credData: GoogleCredentialData): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_CREDENTIAL_DATA)
+                    .bind(0, credData.credentialNumber)
+                    .bind(1, credData.encryptedRefreshToken)
+                    .bind(2, credData.encryptedAccessToken)
+                    .bind(3, credData.expiresAt.toEpochMilli())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update credential data", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun getAPIAccount(APIKey: String): Mono<UserAPIAccount> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_API_KEY)
+                    .bind(0, APIKey)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    UserAPIAccount(
+                        row["USER_ID", String::class.java]!!,
+                        APIKey,
+                        row["BLOCKED", Boolean::class.java]!!,
+                        row["TIME_ISSUED", Long::class.java]!!
+                    )
+                }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get API-key data", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    override fun getSettings(guildId: Snowflake): Mono<GuildSettings> {
+        // Guilds without a row are cached as absent too, most never change a setting
+        return DiscalCache.guildSettings.getOrLoad(guildId) {
+            SharedCache.getSettings(guildId).switchIfEmpty(
+                loadSettings(guildId).delayUntil(SharedCache::putSettings)
+            )
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get guild settings", it)
+        }.onErrorResume {
+            Mono.empty()
+        }.defaultIfEmpty(GuildSettings.empty(guildId))
+    }
+
+    // Cache fills read the primary, a lagging replica would put stale settings into both cache tiers
+    private fun loadSettings(guildId: Snowflake): Mono<GuildSettings> {
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_GUILD_SETTINGS)
+                    .bind(0, guildId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> GuildSettingsMapper.map(row) }
+            }.next()
+        }
+    }
+
+    override fun getCalendar(guildId: Snowflake, calendarNumber: Int): Mono<CalendarData> {
+        if (DiscalCache.hasNoCalendars(guildId)) return Mono.empty()
+
+        // Primary, since an empty result is cached as the guild having no calendars
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_CALENDAR_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> CalendarMapper.map(row) }
+            }.next()
+        }.switchIfEmpty(Mono.fromRunnable {
+            // Calendars are numbered from 1 without gaps, no calendar 1 means no calendars at all
+            if (calendarNumber == 1) DiscalCache.setNoCalendars(guildId)
+        }).doOnError {
+            LOGGER.error(DEFAULT, "Failed to get all guild calendars", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    override fun getAllCalendars(guildId: Snowflake): Mono<List<CalendarData>> {
+        if (DiscalCache.hasNoCalendars(guildId)) return Mono.just(emptyList())
+
+        // Primary, since an empty result is cached as the guild having no calendars
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_ALL_CALENDARS_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> CalendarMapper.map(row) }
+            }.collectList()
+        }.doOnNext {
+            if (it.isEmpty()) DiscalCache.setNoCalendars(guildId)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get all guild calendars", it)
+        }.onErrorReturn(mutableListOf())
+    }
+
+    override fun getCalendarCount(): Mono<Int> = getTableCount(Tables.CALENDARS, "Failed to get calendar count")
+
+    override fun streamSettings(guildIds: List<Snowflake>): Flux<GuildSettings> {
+        return streamForGuilds(guildIds, Queries::selectManyGuildSettings) { row -> GuildSettingsMapper.map(row) }
+    }
+
+    override fun streamCalendars(guildIds: List<Snowflake>): Flux<CalendarData> {
+        return streamForGuilds(guildIds, Queries::selectManyCalendars) { row -> CalendarMapper.map(row) }
+    }
+
+    private fun <T> streamForGuilds(guildIds: List<Snowflake>, query: (Int) -> String, map: (Row) -> T): Flux<T> {
+        if (guildIds.isEmpty()) return Flux.empty()
+
+        // Primary, everything streamed here ends up cached
+        return connectMany { c ->
+            Flux.fromIterable(guildIds.chunked(Queries.GUILD_BATCH_SIZES.last())).concatMap { chunk ->
+                val size = Queries.GUILD_BATCH_SIZES.first { it >= chunk.size }
+                val statement = c.createStatement(query(size))
+
+                // Pad with the last ID, duplicates in an IN list are harmless
+                for (i in 0 until size) statement.bind(i, chunk[i.coerceAtMost(chunk.size - 1)].asLong())
+
+                Mono.from(statement.execute()).flatMapMany { res -> res.map { row, _ -> map(row) } }
+            }
+        }
+    }
+
+    override fun getCalendarCount(guildId: Snowflake): Mono<Int> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_CALENDAR_COUNT_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    val calendars = row.get(0, Long::class.java)!!
+                    return@map calendars.toInt()
+                }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get calendar count", it)
+        }.onErrorReturn(-1).defaultIfEmpty(0)
+    }
+
+    override fun getEventData(guildId: Snowflake, eventId: String): Mono<EventData> {
+        var eventIdLookup = eventId
+        if (eventId.contains("_"))
+            eventIdLookup = eventId.split("_")[0]
+
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_EVENT_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .bind(1, eventIdLookup)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+
+                    val id = row["EVENT_ID", String::class.java]!!
+                    val calNum = row["CALENDAR_NUMBER", Int::class.java]!!
+                    val end = row["EVENT_END", Long::class.java]!!
+                    val img = row["IMAGE_LINK", String::class.java]!!
+
+                    EventData(guildId, id, calNum, end, img)
+                }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get event data", it)
+        }.onErrorResume {
+            Mono.empty()
+        }.defaultIfEmpty(EventData(guildId, eventId = eventIdLookup))
+    }
+
+    override fun getRsvpData(guildId: Snowflake, eventId: String, withMembers: Boolean): Mono<RsvpData> {
+        // Pending writes are always the newest state
+        RsvpWriteBehind.get(guildId, eventId)?.let { return Mono.just(it) }
+
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_RSVP_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .bind(1, eventId)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    val calNumber = row["CALENDAR_NUMBER", Int::class.java]!!
+
+                    val data = RsvpData(guildId, eventId, calNumber)
+
+                    data.eventEnd = row["EVENT_END", Long::class.java]!!
+                    data.limit = row["RSVP_LIMIT", Int::class.java]!!
+
+                    //Handle new rsvp role
+                    if (row.get("RSVP_ROLE") != null)
+                        data.setRole(Snowflake.of(row["RSVP_ROLE", Long::class.java]!!))
+
+                    data.markSaved(true)
+                    data
+                }
+            }.next().defaultIfEmpty(RsvpData(guildId, eventId)).flatMap { data ->
+                if (!withMembers) return@flatMap Mono.just(data)
+
+                Mono.from(
+                    c.createStatement(Queries.SELECT_RSVP_MEMBERS)
+                        .bind(0, guildId.asLong())
+                        .bind(1, eventId)
+                        .execute()
+                ).flatMapMany { res ->
+                    res.map { row, _ ->
+                        val status = RsvpStatus.fromValue(row["status", Int::class.java]!!)
+                        data.membersOf(status).add(row["user_id", Long::class.java]!!.toString())
+                    }
+                }.then(Mono.fromCallable {
+                    // Loading the members is not a change
+                    data.markSaved(data.stored)
+                    data
+                })
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get rsvp data", it)
+        }.onErrorResume {
+            Mono.empty()
+        }.defaultIfEmpty(RsvpData(guildId, eventId))
+    }
+
+    override fun getRsvpMembers(guildId: Snowflake, eventId: String, status: RsvpStatus, page: Int, pageSize: Int): Flux<String> {
+        RsvpWriteBehind.get(guildId, eventId)?.let { pending ->
+            return Flux.fromIterable(pending.membersOf(status).drop(page.coerceAtLeast(0) * pageSize).take(pageSize))
+        }
+
+        return connectMany(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_RSVP_MEMBERS_PAGE)
+                    .bind(0, guildId.asLong())
+                    .bind(1, eventId)
+                    .bind(2, status.value)
+                    .bind(3, pageSize)
+                    .bind(4, page.coerceAtLeast(0) * pageSize)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> row[0, Long::class.java]!!.toString() }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get rsvp members", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    override fun getRsvpMemberCounts(guildId: Snowflake, eventId: String): Mono<Map<RsvpStatus, Int>> {
+        RsvpWriteBehind.get(guildId, eventId)?.let { return Mono.just(it.getCounts()) }
+
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_RSVP_MEMBER_COUNTS)
+                    .bind(0, guildId.asLong())
+                    .bind(1, eventId)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    RsvpStatus.fromValue(row[0, Int::class.java]!!) to row[1, Long::class.java]!!.toInt()
+                }
+            }.collectMap({ it.first }, { it.second })
+                .map { counts -> RsvpStatus.values().associateWith { counts[it] ?: 0 } }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get rsvp member counts", it)
+        }.onErrorResume {
+            Mono.empty()
+        }.defaultIfEmpty(RsvpStatus.values().associateWith { 0 })
+    }
+
+    override fun getAnnouncement(announcementId: String, guildId: Snowflake): Mono<Announcement> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_ANNOUNCEMENT_BY_GUILD)
+                    .bind(0, guildId.asLong())
+                    .bind(1, announcementId)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> AnnouncementMapper.map(row) }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get announcement", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    override fun streamAnnouncements(guildId: Snowflake): Flux<Announcement> {
+        return streamAnnouncements("Failed to get announcements for guild") { c ->
+            c.createStatement(Queries.SELECT_ALL_ANNOUNCEMENTS_BY_GUILD)
+                .bind(0, guildId.asLong())
+        }
+    }
+
+    override fun streamAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements("Failed to get guild's announcements by type") { c ->
+            c.createStatement(Queries.SELECT_ANNOUNCEMENTS_BY_GUILD_AND_TYPE)
+                .bind(0, guildId.asLong())
+                .bind(1, type.name)
+        }
+    }
+
+    override fun streamAnnouncements(): Flux<Announcement> {
+        return streamAnnouncements("Failed to get all announcements", QueryClass.BULK) { c ->
+            c.createStatement(Queries.SELECT_ALL_ANNOUNCEMENTS)
+        }
+    }
+
+    override fun streamAnnouncements(type: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements("Failed to get announcements by type", QueryClass.BULK) { c ->
+            c.createStatement(Queries.SELECT_ALL_ANNOUNCEMENTS_BY_TYPE)
+                .bind(0, type.name)
+        }
+    }
+
+    override fun streamEnabledAnnouncements(): Flux<Announcement> {
+        return streamAnnouncements("Failed to get enabled announcements", QueryClass.BULK) { c ->
+            c.createStatement(Queries.SELECT_ALL_ENABLED_ANNOUNCEMENTS)
+        }
+    }
+
+    override fun streamEnabledAnnouncements(guildId: Snowflake): Flux<Announcement> {
+        return streamAnnouncements("Failed to get guild's enabled announcements") { c ->
+            c.createStatement(Queries.SELECT_ENABLED_ANNOUNCEMENTS_BY_GUILD)
+                .bind(0, guildId.asLong())
+        }
+    }
+
+    override fun streamEnabledAnnouncements(announcementType: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements("Failed to get enabled announcements by type", QueryClass.BULK) { c ->
+            c.createStatement(Queries.SELECT_ENABLED_ANNOUNCEMENTS_BY_TYPE)
+                .bind(0, announcementType.name)
+        }
+    }
+
+    override fun streamEnabledAnnouncements(guildId: Snowflake, type: AnnouncementType): Flux<Announcement> {
+        return streamAnnouncements("Failed to get guild's enabled announcements by type") { c ->
+            c.createStatement(Queries.SELECT_ENABLED_ANNOUNCEMENTS_BY_TYPE_GUILD)
+                .bind(0, guildId.asLong())
+                .bind(1, type.name)
+        }
+    }
+
+    /**
+     * Streams mapped announcement rows as the driver decodes them.
+     * Rows are only requested as fast as the subscriber consumes them, so a slow consumer keeps the connection
+     * checked out for longer but never holds more than a prefetch window of rows in memory.
+     */
+    private fun streamAnnouncements(
+        errorMessage: String,
+        queryClass: QueryClass = QueryClass.READ,
+        statement: (Connection) -> Statement,
+    ): Flux<Announcement> {
+        return readMany(queryClass) { c ->
+            Mono.from(statement(c).execute()).flatMapMany { res ->
+                res.map { row, _ -> AnnouncementMapper.map(row) }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, errorMessage, it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    override fun getAnnouncementCount(): Mono<Int> = getTableCount(Tables.ANNOUNCEMENTS, "Failed to get announcement count")
+
+    override fun getCredentialData(credNumber: Int): Mono<GoogleCredentialData> {
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_CREDENTIAL_DATA)
+                    .bind(0, credNumber)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    val refresh = row["REFRESH_TOKEN", String::class.java]!!
+                    val access = row["ACCESS_TOKEN", String::class.java]!!
+                    val expires = Instant.ofEpochMilli(row["EXPIRES_AT", Long::class.java]!!)
+
+                    GoogleCredentialData(credNumber, refresh, access, expires)
+                }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get enabled announcements by type", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    override fun deleteAnnouncement(announcementId: String): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_ANNOUNCEMENT)
+                    .bind(0, announcementId)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to delete announcements", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    override fun deleteAnnouncementsForEvent(guildId: Snowflake, eventId: String): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_ANNOUNCEMENTS_FOR_EVENT)
+                    .bind(0, eventId)
+                    .bind(1, guildId.asLong())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to delete announcements for event", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    override fun deleteEventData(eventId: String): Mono<Boolean> {
+        if (eventId.contains("_")) return Mono.empty() // Don't delete if child event of recurring parent.
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_EVENT_DATA)
+                    .bind(0, eventId)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to delete event data", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    /* Event mirrors */
+
+    override fun getEventMirror(guildId: Snowflake, calendarNumber: Int, calendarId: String): Mono<EventMirrorDelta> {
+        // Read from the primary, a mirror read back stale from a replica would skip the changes in between
+        return connect(QueryClass.READ) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_EVENT_MIRROR_STATE)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    EventMirrorDelta(
+                        guildId,
+                        calendarNumber,
+                        row["calendar_id", String::class.java]!!,
+                        row["sync_token", String::class.java]!!,
+                        row["window_start", Instant::class.java]!!,
+                        row["window_end", Instant::class.java]!!,
+                        full = true,
+                        changed = emptyMap(),
+                    )
+                }
+            }.next().filter { it.calendarId == calendarId }.flatMap { state ->
+                Mono.from(
+                    c.createStatement(Queries.SELECT_EVENT_MIRROR)
+                        .bind(0, guildId.asLong())
+                        .bind(1, calendarNumber)
+                        .execute()
+                ).flatMapMany { res ->
+                    res.map { row, _ -> row[0, String::class.java]!! to row[1, String::class.java]!! }
+                }.collectMap({ it.first }, { it.second }).map { events ->
+                    state.copy(changed = events)
+                }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get event mirror", it)
+        }.onErrorResume { Mono.empty() }
+    }
+
+    override fun updateEventMirror(delta: EventMirrorDelta): Mono<Boolean> {
+        return connect { c ->
+            val clear = if (delta.full) {
+                Mono.from(
+                    c.createStatement(Queries.DELETE_EVENT_MIRROR)
+                        .bind(0, delta.guildId.asLong())
+                        .bind(1, delta.calendarNumber)
+                        .execute()
+                ).flatMap { res -> Mono.from(res.rowsUpdated) }
+            } else Mono.empty<Int>()
+
+            val upserts = Flux.fromIterable(delta.changed.entries.chunked(Queries.EVENT_MIRROR_BATCH_SIZE)).concatMap { chunk ->
+                val statement = c.createStatement(Queries.upsertEventMirror(chunk.size))
+                chunk.forEachIndexed { i, (eventId, payload) ->
+                    statement.bind(i * 4, delta.guildId.asLong())
+                        .bind(i * 4 + 1, delta.calendarNumber)
+                        .bind(i * 4 + 2, eventId)
+                        .bind(i * 4 + 3, payload)
+                }
+
+                Mono.from(statement.execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+            }
+
+            val deletes = Flux.fromIterable(delta.removed.chunked(Queries.EVENT_MIRROR_BATCH_SIZE)).concatMap { chunk ->
+                val statement = c.createStatement(Queries.deleteEventMirrorEvents(chunk.size))
+                    .bind(0, delta.guildId.asLong())
+                    .bind(1, delta.calendarNumber)
+                chunk.forEachIndexed { i, eventId -> statement.bind(i + 2, eventId) }
+
+                Mono.from(statement.execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+            }
+
+            val state = Mono.from(
+                c.createStatement(Queries.UPSERT_EVENT_MIRROR_STATE)
+                    .bind(0, delta.guildId.asLong())
+                    .bind(1, delta.calendarNumber)
+                    .bind(2, delta.calendarId)
+                    .bind(3, delta.syncToken)
+                    .bind(4, delta.windowStart)
+                    .bind(5, delta.windowEnd)
+                    .bind(6, Instant.now())
+                    .execute()
+            ).flatMap { res -> Mono.from(res.rowsUpdated) }
+
+            // The token has to move together with the events it covers, or the next sync would skip or repeat changes
+            inTransaction(c, clear.thenMany(upserts).thenMany(deletes).then(state).thenReturn(true))
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update event mirror", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    override fun removeRsvpRole(guildId: Snowflake, roleId: Snowflake): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.REMOVE_RSVP_ROLE)
+                    .bindNull(0, Long::class.java)
+                    .bind(1, guildId.asLong())
+                    .bind(2, roleId.asLong())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed update all rsvp with role for guild ", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    /* Utility Deletion Methods */
+
+    // See runTeardown for how
+    override fun deleteCalendarAndRelatedData(calendarData: CalendarData): Mono<Boolean> {
+        return runTeardown(calendarData.guildId, calendarData.calendarNumber, resumeBefore = null)
+    }
+
+    override fun deleteAllDataForGuild(guildId: Snowflake): Mono<Boolean> = runTeardown(guildId, 0, resumeBefore = null)
+
+    override fun resumeTeardowns(startedBefore: Instant): Mono<Int> {
+        return connect(QueryClass.BULK) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_TEARDOWN_JOBS)
+                    .bind(0, startedBefore)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> Snowflake.of(row[0, Long::class.java]!!) to row[1, Int::class.java]!! }
+            }.collectList()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get unfinished teardowns", it)
+        }.onErrorReturn(emptyList()).flatMapMany { Flux.fromIterable(it) }
+            .concatMap { (guildId, calendarNumber) -> runTeardown(guildId, calendarNumber, resumeBefore = startedBefore) }
+            .filter { it }
+            .count()
+            .map(Long::toInt)
+    }
+
+    /**
+     * Tears down a calendar, or the whole guild when [calendarNumber] is 0.
+     *
+     * A job row per calendar (or guild), claimed by this instance, is written first, so a teardown interrupted part way
+     * can be resumed. Several calendars of a guild can be torn down at once. A guild teardown takes over its calendars'
+     * jobs, and while it is pending no calendar one starts. Resuming a job claims it again, past [resumeBefore] it
+     * counts as abandoned.
+     *
+     * Then each table is emptied of the calendar's/guild's rows in bounded batches, one table at a time. Each batch is
+     * its own short transaction, so locks are never held across tables or for long. Last, a single transaction locks
+     * the guild's jobs and marks this one finished, or removes the guild's settings. The last calendar job of a guild to
+     * finish removes every finished calendar and shifts later calendars down, so numbers never move under a teardown
+     * still running. It rolls back if the job is gone or was claimed by another instance, so renumbering never happens
+     * twice, and nothing is left half-numbered.
+     */
+    private fun runTeardown(guildId: Snowflake, calendarNumber: Int, resumeBefore: Instant?): Mono<Boolean> {
+        val what = if (calendarNumber == 0) "guild $guildId" else "calendar $calendarNumber of guild $guildId"
+        val batchSize = BotSettings.TEARDOWN_BATCH_SIZE.getOrDefault("1000").toInt()
+        val owner = Application.instanceId.toString()
+
+        val claim = connect(QueryClass.BULK) { c ->
+            when {
+                resumeBefore != null -> Mono.from(
+                    c.createStatement(Queries.CLAIM_TEARDOWN_JOB)
+                        .bind(0, owner)
+                        .bind(1, Instant.now())
+                        .bind(2, guildId.asLong())
+                        .bind(3, calendarNumber)
+                        .bind(4, resumeBefore)
+                        .execute()
+                ).flatMap { res -> Mono.from(res.rowsUpdated) }
+                calendarNumber == 0 -> {
+                    // The guild teardown takes over its calendars' jobs, it deletes all they would have
+                    val takeOver = Mono.from(
+                        c.createStatement(Queries.DELETE_CALENDAR_TEARDOWN_JOBS)
+                            .bind(0, guildId.asLong())
+                            .execute()
+                    ).flatMap { res -> Mono.from(res.rowsUpdated) }
+                    val start = Mono.from(
+                        c.createStatement(Queries.INSERT_GUILD_TEARDOWN_JOB)
+                            .bind(0, guildId.asLong())
+                            .bind(1, Instant.now())
+                            .bind(2, owner)
+                            .bind(3, Instant.now())
+                            .execute()
+                    )
+
+                    inTransaction(c, takeOver.then(start).flatMap { res -> Mono.from(res.rowsUpdated) })
+                }
+                else -> Mono.from(
+                    c.createStatement(Queries.INSERT_CALENDAR_TEARDOWN_JOB)
+                        .bind(0, guildId.asLong())
+                        .bind(1, calendarNumber)
+                        .bind(2, Instant.now())
+                        .bind(3, owner)
+                        .bind(4, Instant.now())
+                        .bind(5, guildId.asLong())
+                        .execute()
+                ).flatMap { res -> Mono.from(res.rowsUpdated) }
+            }
+        }.map { it > 0 }
+
+        val steps = if (calendarNumber == 0) {
+            listOf(
+                Tables.EVENTS, Tables.RSVP_MEMBERS, Tables.RSVP, Tables.ANNOUNCEMENTS, Tables.STATIC_MESSAGES,
+                Tables.EVENT_MIRROR, Tables.EVENT_MIRROR_STATE, Tables.CALENDARS,
+            )
+                .map { table ->
+                    deleteInBatches(table, batchSize) { c ->
+                        c.createStatement(Queries.deleteGuildBatch(table))
+                            .bind(0, guildId.asLong())
+                            .bind(1, batchSize)
+                    }
+                }
+        } else {
+            listOf(
+                Tables.EVENTS, Tables.ANNOUNCEMENTS, Tables.STATIC_MESSAGES, Tables.EVENT_MIRROR, Tables.EVENT_MIRROR_STATE,
+            ).map { table ->
+                deleteInBatches(table, batchSize) { c ->
+                    c.createStatement(Queries.deleteCalendarBatch(table))
+                        .bind(0, guildId.asLong())
+                        .bind(1, calendarNumber)
+                        .bind(2, batchSize)
+                }
+            } + deleteCalendarRsvpsInBatches(guildId, calendarNumber, batchSize)
+        }
+
+        val finish = connect(QueryClass.BULK) { c ->
+            // Locks every job of the guild first, so finishing jobs of one guild take turns
+            val jobs = Mono.from(
+                c.createStatement(Queries.LOCK_TEARDOWN_JOBS)
+                    .bind(0, guildId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> row[0, Int::class.java]!! to (row[1, Instant::class.java] != null) }
+            }.collectList()
+
+            // Only the claim holder finishes, anyone else would renumber a second time
+            val release = Mono.from(
+                c.createStatement(if (calendarNumber == 0) Queries.DELETE_TEARDOWN_JOB else Queries.FINISH_TEARDOWN_JOB)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .bind(2, owner)
+                    .execute()
+            ).flatMap { res -> Mono.from(res.rowsUpdated) }.filter { it > 0 }
+                .switchIfEmpty(Mono.error(IllegalStateException("Teardown job of $what is no longer held by this instance")))
+
+            fun statements(locked: List<Pair<Int, Boolean>>): Flux<Statement> {
+                val others = locked.filter { (number, _) -> number != calendarNumber }
+
+                return when {
+                    calendarNumber == 0 ->
+                        Flux.just(c.createStatement(Queries.DELETE_GUILD_SETTINGS).bind(0, guildId.asLong()))
+                    // Another calendar is still being torn down, it renumbers once it is done
+                    others.any { (_, finished) -> !finished } -> Flux.empty()
+                    else -> {
+                        // Highest first, so each number is still the one its job was started for when it is removed
+                        val removed = (others.map { it.first } + calendarNumber).sortedDescending()
+
+                        Flux.fromIterable(removed).concatMapIterable { number ->
+                            listOf(c.createStatement(Queries.DELETE_CALENDAR).bind(0, guildId.asLong()).bind(1, number)) +
+                                listOf(
+                                    Queries.DECREMENT_CALENDARS,
+                                    Queries.DECREMENT_EVENTS,
+                                    Queries.DECREMENT_RSVPS,
+                                    Queries.DECREMENT_ANNOUNCEMENTS,
+                                    Queries.DECREMENT_STATIC_MESSAGES,
+                                    Queries.DECREMENT_EVENT_MIRROR,
+                                    Queries.DECREMENT_EVENT_MIRROR_STATE,
+                                ).map { c.createStatement(it).bind(0, number).bind(1, guildId.asLong()) }
+                        }.concatWith(Mono.fromCallable {
+                            c.createStatement(Queries.DELETE_CALENDAR_TEARDOWN_JOBS).bind(0, guildId.asLong())
+                        })
+                    }
+                }
+            }
+
+            inTransaction(c, jobs.delayUntil { release }.flatMapMany(::statements).concatMap { Mono.from(it.execute()) }
+                .concatMap { res -> Mono.from(res.rowsUpdated) }
+                .then(Mono.just(true)))
+        }
+
+        val teardown = Flux.concat(steps)
+            .doOnNext {
+                LOGGER.info(DEFAULT, "Teardown of $what: deleted ${it.rows} rows from ${it.table} in ${it.batches} batches")
+            }.then(finish)
+            .delayUntil { dropCachedGuild(guildId, withSettings = calendarNumber == 0) }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Teardown of $what failed, it will be resumed later", it)
+            }.onErrorReturn(false)
+
+        return claim.doOnError {
+            LOGGER.error(DEFAULT, "Failed to claim teardown of $what", it)
+        }.onErrorReturn(false).flatMap { claimed ->
+            if (claimed) teardown
+            else {
+                if (resumeBefore == null) LOGGER.warn("Teardown of $what not started, it is already pending")
+                Mono.just(false)
+            }
+        }.defaultIfEmpty(false)
+    }
+
+    /**
+     * Renumbering touches every calendar of the guild, so its cached calendars go everywhere, not just the deleted one.
+     */
+    private fun dropCachedGuild(guildId: Snowflake, withSettings: Boolean): Mono<Void> {
+        DiscalCache.removeCalendars(guildId)
+        if (withSettings) DiscalCache.guildSettings.remove(guildId)
+
+        return SharedCache.invalidateCalendars(guildId)
+            .then(if (withSettings) SharedCache.invalidateSettings(guildId) else Mono.empty())
+    }
+
+    /**
+     * Rsvp members have no calendar number, so they are deleted alongside a batch of the calendar's rsvp rows.
+     */
+    private fun deleteCalendarRsvpsInBatches(guildId: Snowflake, calendarNumber: Int, batchSize: Int): Mono<PurgeResult> {
+        return runInBatches(Tables.RSVP, batchSize) { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_CALENDAR_RSVP_KEYS)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .bind(2, batchSize)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> row[0, String::class.java]!! }
+            }.collectList().flatMap { eventIds ->
+                if (eventIds.isEmpty()) return@flatMap Mono.just(0)
+
+                val deleteMembers = c.createStatement(Queries.deleteRsvpMembersForEvents(eventIds.size))
+                    .bind(0, guildId.asLong())
+                val deleteRsvps = c.createStatement(Queries.deleteRsvpsForEvents(eventIds.size))
+                    .bind(0, guildId.asLong())
+                eventIds.forEachIndexed { i, id ->
+                    deleteMembers.bind(i + 1, id)
+                    deleteRsvps.bind(i + 1, id)
+                }
+
+                inTransaction(c, Mono.from(deleteMembers.execute()).flatMap { Mono.from(it.rowsUpdated) }
+                    .then(Mono.from(deleteRsvps.execute()))
+                    .flatMap { Mono.from(it.rowsUpdated) })
+            }
+        }
+    }
+
+    private fun deleteInBatches(table: String, batchSize: Int, statement: (Connection) -> Statement): Mono<PurgeResult> {
+        return runInBatches(table, batchSize) { c ->
+            Mono.from(statement(c).execute()).flatMap { res -> Mono.from(res.rowsUpdated) }
+        }
+    }
+
+    /**
+     * Runs [batch] on a fresh connection each time, until a batch deletes fewer than [batchSize] rows.
+     */
+    private fun runInBatches(table: String, batchSize: Int, batch: (Connection) -> Mono<Int>): Mono<PurgeResult> {
+        return Mono.defer {
+            val start = System.nanoTime()
+            var rows = 0L
+            var batches = 0
+
+            connect(QueryClass.BULK, batch)
+                .expand { if (it >= batchSize) connect(QueryClass.BULK, batch) else Mono.empty() }
+                .doOnNext {
+                    rows += it
+                    batches++
+                }.then(Mono.fromCallable {
+                    PurgeResult(table, rows, batches, Duration.ofNanos(System.nanoTime() - start), false)
+                })
+        }
+    }
+
+    private fun <T> inTransaction(c: Connection, work: Mono<T>): Mono<T> {
+        return Mono.from(c.beginTransaction())
+            .then(work)
+            .flatMap { result -> Mono.from(c.commitTransaction()).thenReturn(result) }
+            .onErrorResume { error -> Mono.from(c.rollbackTransaction()).then(Mono.error(error)) }
+    }
+
+    /* Static message */
+
+    override fun updateStaticMessage(message: StaticMessage): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPSERT_STATIC_MESSAGE)
+                    .bind(0, message.guildId.asLong())
+                    .bind(1, message.messageId.asLong())
+                    .bind(2, message.channelId.asLong())
+                    .bind(3, message.type.value)
+                    .bind(4, message.lastUpdate)
+                    .bind(5, message.scheduledUpdate)
+                    .bind(6, message.calendarNumber)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to update static message data", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun getStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<StaticMessage> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_STATIC_MESSAGE)
+                    .bind(0, guildId.asLong())
+                    .bind(1, messageId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> StaticMessageMapper.map(row) }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get static message data", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    override fun deleteStaticMessage(guildId: Snowflake, messageId: Snowflake): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_STATIC_MESSAGE)
+                    .bind(0, guildId.asLong())
+                    .bind(1, messageId.asLong())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to delete static message data", it)
+        }.onErrorReturn(false).defaultIfEmpty(false)
+    }
+
+    override fun getStaticMessageCount(): Mono<Int> =
+        getTableCount(Tables.STATIC_MESSAGES, "Failed to get static message count")
+
+    /**
+     * Reads the trigger maintained row count of a table, a single primary key lookup no matter the table's size.
+     */
+    private fun getTableCount(table: String, errorMessage: String): Mono<Int> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_TABLE_COUNT)
+                    .bind(0, table)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> row[0, Long::class.java]!!.toInt() }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, errorMessage, it)
+        }.onErrorReturn(-1).defaultIfEmpty(-1)
+    }
+
+    override fun streamStaticMessagesForShard(shardCount: Int, shardIndex: Int): Flux<StaticMessage> {
+        return readMany(QueryClass.BULK) { c ->
+            Mono.from(
+                c.createStatement(Queries.selectStaticMessagesForShard(shardCount, shardIndex))
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> StaticMessageMapper.map(row) }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get static messages for shard", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    override fun streamStaticMessagesForCalendar(guildId: Snowflake, calendarNumber: Int): Flux<StaticMessage> {
+        return readMany { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_STATIC_MESSAGES_FOR_CALENDAR)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> StaticMessageMapper.map(row) }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get static messages for calendar", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    /* Event Data */
+
+    /**
+     * Streams the stored [EventData] for the requested events of a single guild.
+     * Large ID sets are split into chunks, and each chunk is padded up to one of a handful of fixed statement sizes
+     * so the server only ever sees a few distinct statement shapes.
+     */
+    override fun streamEventsData(guildId: Snowflake, eventIds: List<String>): Flux<EventData> {
+        // clean up IDs, recurring children share their parent's data
+        val idsToUse = eventIds.mapTo(LinkedHashSet()) { if (it.contains("_")) it.split("_")[0] else it }.toList()
+
+        if (idsToUse.isEmpty()) return Flux.empty()
+
+        return readMany { c ->
+            Flux.fromIterable(idsToUse.chunked(Queries.EVENT_DATA_BATCH_SIZES.last())).concatMap { chunk ->
+                val size = Queries.EVENT_DATA_BATCH_SIZES.first { it >= chunk.size }
+                val statement = c.createStatement(Queries.selectManyEventData(size))
+                    .bind(0, guildId.asLong())
+
+                // Pad with the last ID, duplicates in an IN list are harmless
+                for (i in 0 until size) statement.bind(i + 1, chunk[i.coerceAtMost(chunk.size - 1)])
+
+                Mono.from(statement.execute()).flatMapMany { res ->
+                    res.map { row, _ ->
+                        val id = row["EVENT_ID", String::class.java]!!
+                        val calNum = row["CALENDAR_NUMBER", Int::class.java]!!
+                        val end = row["EVENT_END", Long::class.java]!!
+                        val img = row["IMAGE_LINK", String::class.java]!!
+
+                        EventData(guildId, id, calNum, end, img)
+                    }
+                }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get many event data", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    /* Announcement Data */
+
+    override fun streamAnnouncementsForShard(shardCount: Int, shardIndex: Int): Flux<Announcement> {
+        return streamAnnouncements("Failed to get announcements for shard", QueryClass.BULK) { c ->
+            c.createStatement(Queries.selectAnnouncementsForShard(shardCount, shardIndex))
+        }
+    }
+
+    /* Session Data */
+    override fun insertSessionData(session: WebSession): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.INSERT_SESSION_DATA)
+                    .bind(0, session.token)
+                    .bind(1, session.user.asLong())
+                    .bind(2, session.expiresAt)
+                    .bind(3, session.accessToken)
+                    .bind(4, session.refreshToken)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to insert session data", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun removeAndInsertSessionData(session: WebSession): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.REMOVE_AND_INSERT_SESSION_DATA)
+                    // Remove all existing sessions for user bindings
+                    .bind(0, session.user.asLong())
+                    // Insert new session bindings
+                    .bind(1, session.token)
+                    .bind(2, session.user.asLong())
+                    .bind(3, session.expiresAt)
+                    .bind(4, session.accessToken)
+                    .bind(5, session.refreshToken)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to insert session data", it)
+        }.onErrorResume { Mono.just(false) }
+    }
+
+    override fun getSessionData(token: String): Mono<WebSession> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_SESSION_TOKEN)
+                    .bind(0, token)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    val userId = Snowflake.of(row["user_id", Long::class.java]!!)
+                    val expiresAt = row["expires_at", Instant::class.java]!!
+                    val accessToken = row["access_token", String::class.java]!!
+                    val refreshToken = row["refresh_token", String::class.java]!!
+
+                    WebSession(token, userId, expiresAt, accessToken, refreshToken)
+                }
+            }.next()
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get session data by token", it)
+        }.onErrorResume {
+            Mono.empty()
+        }
+    }
+
+    override fun getAllSessionsForUser(userId: Snowflake): Mono<List<WebSession>> {
+        return read { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_SESSIONS_USER)
+                    .bind(0, userId.asLong())
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ ->
+                    val token = row["token", String::class.java]!!
+                    val expiresAt = row["expires_at", Instant::class.java]!!
+                    val accessToken = row["access_token", String::class.java]!!
+                    val refreshToken = row["refresh_token", String::class.java]!!
+
+                    WebSession(token, userId, expiresAt, accessToken, refreshToken)
+                }
+            }
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get sessions for user", it)
+        }.onErrorResume {
+            Mono.empty()
+        }.collectList()
+    }
+
+    override fun deleteSession(token: String): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_SESSION)
+                    .bind(0, token)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "session delete failure", it)
+        }.onErrorReturn(false).defaultIfEmpty(true) // If nothing was updated and no error was emitted, it's safe to return this worked.
+    }
+
+    override fun deleteAllSessionsForUser(userId: Snowflake): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.DELETE_SESSIONS_FOR_USER)
+                    .bind(0, userId.asLong())
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "delete all sessions for user failure", it)
+        }.onErrorReturn(false).defaultIfEmpty(true) // If nothing was updated and no error was emitted, it's safe to return this worked.
+    }
+
+    /* Retention */
+
+    override fun purgeEndedRsvps(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult> {
+        return purgeEndedInBatches(Tables.RSVP, endedBefore, options, listOf(
+            Tables.RSVP_MEMBERS to Queries::purgeEndedRsvpMembers,
+            Tables.RSVP to Queries::purgeEndedRsvps,
+        ))
+    }
+
+    override fun purgeEndedEvents(endedBefore: Instant, options: RetentionOptions): Flux<PurgeResult> {
+        return purgeEndedInBatches(Tables.EVENTS, endedBefore, options, listOf(
+            Tables.ANNOUNCEMENTS to Queries::purgeEndedEventAnnouncements,
+            Tables.EVENTS to Queries::purgeEndedEvents,
+        ))
+    }
+
+    override fun purgeExpiredSessions(options: RetentionOptions): Flux<PurgeResult> {
+        val now = Instant.now()
+        val start = System.nanoTime()
+        var batches = 0
+        var total = 0L
+
+        fun batch(): Mono<Int> = connect(QueryClass.BULK) { c ->
+            val statement = if (options.dryRun) {
+                c.createStatement(Queries.COUNT_EXPIRED_SESSIONS).bind(0, now)
+            } else {
+                c.createStatement(Queries.PURGE_EXPIRED_SESSIONS)
+                    .bind(0, now)
+                    .bind(1, options.batchSize)
+            }
+
+            Mono.from(statement.execute()).flatMap { res ->
+                if (options.dryRun) Mono.from(res.map { row, _ -> row[0, Long::class.java]!!.toInt() })
+                else Mono.from(res.rowsUpdated)
+            }.doOnNext {
+                batches++
+                total += it
+            }
+        }
+
+        return batch()
+            .expand { if (!options.dryRun && it >= options.batchSize) Mono.delay(options.pause).then(batch()) else Mono.empty() }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Expired session purge failure", it)
+            }.onErrorResume {
+                Mono.empty()
+            }.then(Mono.fromCallable {
+                PurgeResult(Tables.SESSIONS, total, batches, Duration.ofNanos(System.nanoTime() - start), options.dryRun)
+            }).flux()
+    }
+
+    /**
+     * Walks the table in primary key order, a batch of ended keys at a time, and runs each step for those keys in
+     * order. Every batch gets its own short-lived connection and the purge pauses between batches, so no lock or
+     * connection is held long enough for live traffic to queue up behind it.
+     */
+    private fun purgeEndedInBatches(
+        table: String,
+        endedBefore: Instant,
+        options: RetentionOptions,
+        steps: List<Pair<String, (Int, Boolean) -> String>>,
+    ): Flux<PurgeResult> {
+        val cutoff = endedBefore.toEpochMilli()
+        val start = System.nanoTime()
+        val totals = steps.associateTo(LinkedHashMap()) { it.first to 0L }
+        var batches = 0
+
+        fun batch(after: Pair<Long, String>): Mono<Pair<Long, String>> = connect(QueryClass.BULK) { c ->
+            Mono.from(
+                c.createStatement(Queries.selectEndedKeys(table))
+                    .bind(0, after.first)
+                    .bind(1, after.first)
+                    .bind(2, after.second)
+                    .bind(3, cutoff)
+                    .bind(4, options.batchSize)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map { row, _ -> row[0, Long::class.java]!! to row[1, String::class.java]!! }
+            }.collectList().flatMap { keys ->
+                if (keys.isEmpty()) return@flatMap Mono.empty<Pair<Long, String>>()
+                batches++
+
+                Flux.fromIterable(steps).concatMap { (name, query) ->
+                    val statement = c.createStatement(query(keys.size, options.dryRun))
+                    keys.forEachIndexed { i, (guildId, eventId) ->
+                        statement.bind(i * 2, guildId).bind(i * 2 + 1, eventId)
+                    }
+                    statement.bind(keys.size * 2, cutoff)
+
+                    Mono.from(statement.execute()).flatMap { res ->
+                        if (options.dryRun) Mono.from(res.map { row, _ -> row[0, Long::class.java]!! })
+                        else Mono.from(res.rowsUpdated).map(Int::toLong)
+                    }.doOnNext { totals[name] = totals[name]!! + it }
+                }.then(
+                    if (keys.size < options.batchSize) Mono.empty<Pair<Long, String>>() else Mono.just(keys.last())
+                )
+            }
+        }
+
+        return batch(Long.MIN_VALUE to "")
+            .expand { last -> Mono.delay(options.pause).then(batch(last)) }
+            .doOnError {
+                LOGGER.error(DEFAULT, "Retention purge of $table failed", it)
+            }.onErrorResume {
+                Mono.empty()
+            }.thenMany(Flux.defer {
+                val duration = Duration.ofNanos(System.nanoTime() - start)
+                Flux.fromIterable(totals.map { (name, rows) -> PurgeResult(name, rows, batches, duration, options.dryRun) })
+            })
+    }
+}
+
+internal object Queries {
+    /* Upserts, these rely on the primary key of each table to decide between insert and update */
+
+    @Language("MySQL")
+    val UPDATE_API_ACCOUNT = """UPDATE ${Tables.API}
+        SET USER_ID = ?, BLOCKED = ?
+        WHERE API_KEY = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val INSERT_API_ACCOUNT = """INSERT IGNORE INTO ${Tables.API}
+        (USER_ID, API_KEY, BLOCKED, TIME_ISSUED)
+        VALUES (?, ?, ?, ?)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_GUILD_SETTINGS = """INSERT INTO ${Tables.GUILD_SETTINGS}
+        (GUILD_ID, CONTROL_ROLE, ANNOUNCEMENT_STYLE, TIME_FORMAT, LANG, PREFIX,
+        PATRON_GUILD, DEV_GUILD, MAX_CALENDARS, DM_ANNOUNCEMENTS, BRANDED)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CONTROL_ROLE = VALUES(CONTROL_ROLE), ANNOUNCEMENT_STYLE = VALUES(ANNOUNCEMENT_STYLE),
+        TIME_FORMAT = VALUES(TIME_FORMAT), LANG = VALUES(LANG), PREFIX = VALUES(PREFIX),
+        PATRON_GUILD = VALUES(PATRON_GUILD), DEV_GUILD = VALUES(DEV_GUILD),
+        MAX_CALENDARS = VALUES(MAX_CALENDARS), DM_ANNOUNCEMENTS = VALUES(DM_ANNOUNCEMENTS),
+        BRANDED = VALUES(BRANDED)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_CALENDAR = """INSERT INTO ${Tables.CALENDARS}
+        (GUILD_ID, CALENDAR_NUMBER, HOST, CALENDAR_ID,
+        CALENDAR_ADDRESS, EXTERNAL, CREDENTIAL_ID,
+        PRIVATE_KEY, ACCESS_TOKEN, REFRESH_TOKEN, EXPIRES_AT)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        HOST = VALUES(HOST), CALENDAR_ID = VALUES(CALENDAR_ID),
+        CALENDAR_ADDRESS = VALUES(CALENDAR_ADDRESS), EXTERNAL = VALUES(EXTERNAL),
+        CREDENTIAL_ID = VALUES(CREDENTIAL_ID), PRIVATE_KEY = VALUES(PRIVATE_KEY),
+        ACCESS_TOKEN = VALUES(ACCESS_TOKEN), REFRESH_TOKEN = VALUES(REFRESH_TOKEN),
+        EXPIRES_AT = VALUES(EXPIRES_AT)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_ANNOUNCEMENT = """INSERT INTO ${Tables.ANNOUNCEMENTS}
+        (ANNOUNCEMENT_ID, CALENDAR_NUMBER, GUILD_ID, SUBSCRIBERS_ROLE, SUBSCRIBERS_USER,
+        CHANNEL_ID, ANNOUNCEMENT_TYPE, MODIFIER, EVENT_ID, EVENT_COLOR,
+        HOURS_BEFORE, MINUTES_BEFORE, INFO, ENABLED, PUBLISH)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), SUBSCRIBERS_ROLE = VALUES(SUBSCRIBERS_ROLE),
+        SUBSCRIBERS_USER = VALUES(SUBSCRIBERS_USER), CHANNEL_ID = VALUES(CHANNEL_ID),
+        ANNOUNCEMENT_TYPE = VALUES(ANNOUNCEMENT_TYPE), MODIFIER = VALUES(MODIFIER),
+        EVENT_ID = VALUES(EVENT_ID), EVENT_COLOR = VALUES(EVENT_COLOR),
+        HOURS_BEFORE = VALUES(HOURS_BEFORE), MINUTES_BEFORE = VALUES(MINUTES_BEFORE),
+        INFO = VALUES(INFO), ENABLED = VALUES(ENABLED), PUBLISH = VALUES(PUBLISH)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_EVENT_DATA = """INSERT INTO ${Tables.EVENTS}
+        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK)
+        VALUES(?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), EVENT_END = VALUES(EVENT_END), IMAGE_LINK = VALUES(IMAGE_LINK)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPDATE_EVENT_DATA = """UPDATE ${Tables.EVENTS} SET
+        CALENDAR_NUMBER = ?, IMAGE_LINK = ?, EVENT_END = ?
+        WHERE EVENT_ID = ? AND GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_RSVP_DATA = """INSERT INTO ${Tables.RSVP}
+        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, RSVP_LIMIT, RSVP_ROLE)
+        VALUES(?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), EVENT_END = VALUES(EVENT_END),
+        RSVP_LIMIT = VALUES(RSVP_LIMIT), RSVP_ROLE = VALUES(RSVP_ROLE)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPDATE_RSVP_DATA = """UPDATE ${Tables.RSVP} SET
+        CALENDAR_NUMBER = ?, EVENT_END = ?, RSVP_LIMIT = ?, RSVP_ROLE = ?
+        WHERE EVENT_ID = ? AND GUILD_ID = ?
+        """.trimMargin()
+
+    const val RSVP_MEMBER_BATCH_SIZE = 100
+
+    fun upsertRsvpMembers(count: Int) = """INSERT INTO ${Tables.RSVP_MEMBERS}
+        (guild_id, event_id, user_id, status, position)
+        VALUES ${List(count) { "(?, ?, ?, ?, ?)" }.joinToString(", ")}
+        ON DUPLICATE KEY UPDATE
+        status = VALUES(status), position = VALUES(position)
+        """.trimMargin()
+
+    // Taken before counting who is going, so writers for the same event count one at a time
+    @Language("MySQL")
+    val LOCK_RSVP_LIMIT = """SELECT RSVP_LIMIT FROM ${Tables.RSVP}
+        WHERE GUILD_ID = ? AND EVENT_ID = ?
+        FOR UPDATE
+        """.trimMargin()
+
+    @Language("MySQL")
+    val COUNT_OTHER_RSVP_MEMBERS_GOING = """SELECT COUNT(*) FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id = ? AND status IN (1, 2) AND user_id <> ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_CREDENTIAL_DATA = """INSERT INTO ${Tables.CREDS}
+        (CREDENTIAL_NUMBER, REFRESH_TOKEN, ACCESS_TOKEN, EXPIRES_AT)
+        VALUES(?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        REFRESH_TOKEN = VALUES(REFRESH_TOKEN), ACCESS_TOKEN = VALUES(ACCESS_TOKEN), EXPIRES_AT = VALUES(EXPIRES_AT)
+        """.trimMargin()
+
+    /* Selects */
+
+    @Language("MySQL")
+    val SELECT_API_KEY = """SELECT * FROM ${Tables.API}
+        WHERE API_KEY = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_GUILD_SETTINGS = """DELETE FROM ${Tables.GUILD_SETTINGS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_GUILD_SETTINGS = """SELECT ${GuildSettingsMapper.COLUMNS} FROM ${Tables.GUILD_SETTINGS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_CALENDAR_BY_GUILD = """SELECT ${CalendarMapper.COLUMNS} FROM ${Tables.CALENDARS}
+        WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
+       """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ALL_CALENDARS_BY_GUILD = """SELECT ${CalendarMapper.COLUMNS} FROM ${Tables.CALENDARS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_TABLE_COUNT = """SELECT row_count FROM ${Tables.TABLE_COUNTS}
+        WHERE name = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_CALENDAR_COUNT_BY_GUILD = """SELECT COUNT(*) FROM ${Tables.CALENDARS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_EVENT_BY_GUILD = """SELECT * FROM ${Tables.EVENTS}
+        WHERE GUILD_ID = ? AND EVENT_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_RSVP_BY_GUILD = """SELECT * FROM ${Tables.RSVP}
+        WHERE GUILD_ID = ? AND EVENT_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_RSVP_MEMBERS = """SELECT user_id, status FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id = ?
+        ORDER BY status, position, user_id
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_RSVP_MEMBERS_PAGE = """SELECT user_id FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id = ? AND status = ?
+        ORDER BY position, user_id
+        LIMIT ? OFFSET ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_RSVP_MEMBER_COUNTS = """SELECT status, COUNT(*) FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id = ?
+        GROUP BY status
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ANNOUNCEMENT_BY_GUILD = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE GUILD_ID = ? and ANNOUNCEMENT_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ALL_ANNOUNCEMENTS = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}"""
+
+    @Language("MySQL")
+    val SELECT_ALL_ANNOUNCEMENTS_BY_GUILD = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ANNOUNCEMENTS_BY_GUILD_AND_TYPE = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE GUILD_ID = ? AND ANNOUNCEMENT_TYPE = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ALL_ANNOUNCEMENTS_BY_TYPE = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ANNOUNCEMENT_TYPE = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ALL_ENABLED_ANNOUNCEMENTS = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ENABLED = 1
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ENABLED_ANNOUNCEMENTS_BY_GUILD = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ENABLED = 1 and GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ENABLED_ANNOUNCEMENTS_BY_TYPE = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ENABLED = 1 and ANNOUNCEMENT_TYPE = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_ENABLED_ANNOUNCEMENTS_BY_TYPE_GUILD = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ENABLED = 1 AND GUILD_ID = ? AND ANNOUNCEMENT_TYPE = ?
+        """.trimMargin()
+
+
+    @Language("MySQL")
+    val SELECT_CREDENTIAL_DATA = """SELECT * FROM ${Tables.CREDS}
+        WHERE CREDENTIAL_NUMBER = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_ANNOUNCEMENT = """DELETE FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ANNOUNCEMENT_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_ANNOUNCEMENTS_FOR_EVENT = """DELETE FROM ${Tables.ANNOUNCEMENTS}
+        WHERE EVENT_ID = ? AND GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_EVENT_DATA = """DELETE FROM ${Tables.EVENTS}
+        WHERE EVENT_ID = ?
+        """.trimMargin()
+
+    fun deleteRsvpMembers(count: Int) = """DELETE FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id = ? AND user_id IN (${List(count) { "?" }.joinToString(",")})
+        """.trimMargin()
+
+    @Language("MySQL")
+    val REMOVE_RSVP_ROLE = """UPDATE ${Tables.RSVP}
+        SET RSVP_ROLE = ?
+        WHERE GUILD_ID = ? AND RSVP_ROLE = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_CALENDAR = """DELETE FROM ${Tables.CALENDARS} 
+        WHERE GUILD_ID = ? AND calendar_number = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_CALENDARS = """UPDATE ${Tables.CALENDARS} 
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_ANNOUNCEMENTS = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_EVENTS = """UPDATE ${Tables.EVENTS}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_RSVPS = """UPDATE ${Tables.RSVP}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_STATIC_MESSAGES = """UPDATE ${Tables.STATIC_MESSAGES}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_EVENT_MIRROR = """UPDATE ${Tables.EVENT_MIRROR}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DECREMENT_EVENT_MIRROR_STATE = """UPDATE ${Tables.EVENT_MIRROR_STATE}
+        SET calendar_number = calendar_number - 1
+        WHERE calendar_number >=? AND guild_id = ?
+        """.trimMargin()
+
+    /* Event mirrors */
+
+    const val EVENT_MIRROR_BATCH_SIZE = 100
+
+    @Language("MySQL")
+    val SELECT_EVENT_MIRROR_STATE = """SELECT calendar_id, sync_token, window_start, window_end FROM ${Tables.EVENT_MIRROR_STATE}
+        WHERE guild_id = ? AND calendar_number = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_EVENT_MIRROR = """SELECT event_id, payload FROM ${Tables.EVENT_MIRROR}
+        WHERE guild_id = ? AND calendar_number = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_EVENT_MIRROR_STATE = """INSERT INTO ${Tables.EVENT_MIRROR_STATE}
+        (guild_id, calendar_number, calendar_id, sync_token, window_start, window_end, synced_at)
+        VALUES(?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        calendar_id = VALUES(calendar_id), sync_token = VALUES(sync_token), window_start = VALUES(window_start),
+        window_end = VALUES(window_end), synced_at = VALUES(synced_at)
+        """.trimMargin()
+
+    fun upsertEventMirror(count: Int) = """INSERT INTO ${Tables.EVENT_MIRROR}
+        (guild_id, calendar_number, event_id, payload)
+        VALUES ${List(count) { "(?, ?, ?, ?)" }.joinToString(", ")}
+        ON DUPLICATE KEY UPDATE
+        payload = VALUES(payload)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_EVENT_MIRROR = """DELETE FROM ${Tables.EVENT_MIRROR}
+        WHERE guild_id = ? AND calendar_number = ?
+        """.trimMargin()
+
+    fun deleteEventMirrorEvents(count: Int) = """DELETE FROM ${Tables.EVENT_MIRROR}
+        WHERE guild_id = ? AND calendar_number = ? AND event_id IN (${List(count) { "?" }.joinToString(",")})
+        """.trimMargin()
+
+    /* Replication */
+
+    @Language("MySQL")
+    val UPSERT_HEARTBEAT = """REPLACE INTO ${Tables.REPLICATION_HEARTBEAT}
+        (id, beat) VALUES(?, ?)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_HEARTBEAT = """SELECT beat FROM ${Tables.REPLICATION_HEARTBEAT}
+        WHERE id = ?
+        """.trimMargin()
+
+    // Rows of processes that are gone, beats are epoch millis
+    @Language("MySQL")
+    val DELETE_STALE_HEARTBEATS = """DELETE FROM ${Tables.REPLICATION_HEARTBEAT}
+        WHERE beat < ?
+        """.trimMargin()
+
+    /* Teardown, every delete is bounded so no single statement holds its locks for long */
+
+    @Language("MySQL")
+    val INSERT_GUILD_TEARDOWN_JOB = """INSERT IGNORE INTO ${Tables.TEARDOWN_JOBS}
+        (guild_id, calendar_number, created_at, claimed_by, claimed_at)
+        VALUES (?, 0, ?, ?, ?)
+        """.trimMargin()
+
+    // Not while the whole guild is being torn down, that covers the calendar too
+    @Language("MySQL")
+    val INSERT_CALENDAR_TEARDOWN_JOB = """INSERT IGNORE INTO ${Tables.TEARDOWN_JOBS}
+        (guild_id, calendar_number, created_at, claimed_by, claimed_at)
+        SELECT ?, ?, ?, ?, ? FROM DUAL
+        WHERE NOT EXISTS (SELECT 1 FROM ${Tables.TEARDOWN_JOBS} WHERE guild_id = ? AND calendar_number = 0)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_TEARDOWN_JOBS = """SELECT guild_id, calendar_number FROM ${Tables.TEARDOWN_JOBS}
+        WHERE claimed_at < ? AND finished_at IS NULL
+        """.trimMargin()
+
+    @Language("MySQL")
+    val CLAIM_TEARDOWN_JOB = """UPDATE ${Tables.TEARDOWN_JOBS}
+        SET claimed_by = ?, claimed_at = ?
+        WHERE guild_id = ? AND calendar_number = ? AND claimed_at < ? AND finished_at IS NULL
+        """.trimMargin()
+
+    @Language("MySQL")
+    val LOCK_TEARDOWN_JOBS = """SELECT calendar_number, finished_at FROM ${Tables.TEARDOWN_JOBS}
+        WHERE guild_id = ?
+        FOR UPDATE
+        """.trimMargin()
+
+    @Language("MySQL")
+    val FINISH_TEARDOWN_JOB = """UPDATE ${Tables.TEARDOWN_JOBS}
+        SET finished_at = NOW()
+        WHERE guild_id = ? AND calendar_number = ? AND claimed_by = ? AND finished_at IS NULL
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_TEARDOWN_JOB = """DELETE FROM ${Tables.TEARDOWN_JOBS}
+        WHERE guild_id = ? AND calendar_number = ? AND claimed_by = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_CALENDAR_TEARDOWN_JOBS = """DELETE FROM ${Tables.TEARDOWN_JOBS}
+        WHERE guild_id = ? AND calendar_number > 0
+        """.trimMargin()
+
+    fun deleteCalendarBatch(table: String) = """DELETE FROM $table
+        WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
+        LIMIT ?
+        """.trimMargin()
+
+    fun deleteGuildBatch(table: String) = """DELETE FROM $table
+        WHERE GUILD_ID = ?
+        LIMIT ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_CALENDAR_RSVP_KEYS = """SELECT EVENT_ID FROM ${Tables.RSVP}
+        WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
+        LIMIT ?
+        """.trimMargin()
+
+    fun deleteRsvpMembersForEvents(count: Int) = """DELETE FROM ${Tables.RSVP_MEMBERS}
+        WHERE guild_id = ? AND event_id IN (${List(count) { "?" }.joinToString(",")})
+        """.trimMargin()
+
+    fun deleteRsvpsForEvents(count: Int) = """DELETE FROM ${Tables.RSVP}
+        WHERE GUILD_ID = ? AND EVENT_ID IN (${List(count) { "?" }.joinToString(",")})
+        """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_STATIC_MESSAGE = """SELECT ${StaticMessageMapper.COLUMNS} FROM ${Tables.STATIC_MESSAGES}
+        WHERE guild_id = ? AND message_id = ?
+        """.trimMargin()
+
+    fun selectStaticMessagesForShard(shardCount: Int, shardIndex: Int) = """SELECT ${StaticMessageMapper.COLUMNS} FROM ${Tables.STATIC_MESSAGES}
+        WHERE ${shardFilter(shardCount, shardIndex)}
+    """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_STATIC_MESSAGES_FOR_CALENDAR = """SELECT ${StaticMessageMapper.COLUMNS} FROM ${Tables.STATIC_MESSAGES}
+        WHERE guild_id = ? AND calendar_number = ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_STATIC_MESSAGE = """INSERT INTO ${Tables.STATIC_MESSAGES}
+        (guild_id, message_id, channel_id, type, last_update, scheduled_update, calendar_number)
+        VALUES(?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        last_update = VALUES(last_update), scheduled_update = VALUES(scheduled_update)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_STATIC_MESSAGE = """DELETE FROM ${Tables.STATIC_MESSAGES}
+        WHERE guild_id = ? AND message_id = ?
+        """.trimMargin()
+
+    // Fixed IN list sizes for batched event data lookups, the largest is also the chunk size
+    val EVENT_DATA_BATCH_SIZES = listOf(1, 10, 50, 100)
+
+    private val SELECT_MANY_EVENT_DATA = EVENT_DATA_BATCH_SIZES.associateWith { size ->
+        """SELECT EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK FROM ${Tables.EVENTS}
+        WHERE GUILD_ID = ? AND EVENT_ID IN (${List(size) { "?" }.joinToString(", ")})
+        """.trimMargin()
+    }
+
+    fun selectManyEventData(size: Int) = SELECT_MANY_EVENT_DATA[size]!!
+
+    // Fixed IN list sizes for bulk loads by guild, the largest is also the chunk size
+    val GUILD_BATCH_SIZES = listOf(1, 10, 100, 500)
+
+    private val SELECT_MANY_GUILD_SETTINGS = GUILD_BATCH_SIZES.associateWith { size ->
+        """SELECT ${GuildSettingsMapper.COLUMNS} FROM ${Tables.GUILD_SETTINGS}
+        WHERE GUILD_ID IN (${List(size) { "?" }.joinToString(", ")})
+        """.trimMargin()
+    }
+
+    fun selectManyGuildSettings(size: Int) = SELECT_MANY_GUILD_SETTINGS[size]!!
+
+    private val SELECT_MANY_CALENDARS = GUILD_BATCH_SIZES.associateWith { size ->
+        """SELECT ${CalendarMapper.COLUMNS} FROM ${Tables.CALENDARS}
+        WHERE GUILD_ID IN (${List(size) { "?" }.joinToString(", ")})
+        """.trimMargin()
+    }
+
+    fun selectManyCalendars(size: Int) = SELECT_MANY_CALENDARS[size]!!
+
+    fun selectAnnouncementsForShard(shardCount: Int, shardIndex: Int) = """SELECT ${AnnouncementMapper.COLUMNS} FROM ${Tables.ANNOUNCEMENTS}
+        WHERE ${shardFilter(shardCount, shardIndex)}
+    """.trimMargin()
+
+    /* Shard filtering */
+
+    // Must match the shard_buckets placeholder the migrations were run with, checked by verifyShardBuckets()
+    val SHARD_BUCKETS = BotSettings.SQL_SHARD_BUCKETS.getOrDefault("1024").toInt()
+    private val SHARD_BUCKET_BITS = Integer.numberOfTrailingZeros(SHARD_BUCKETS)
+
+    @Language("MySQL")
+    val SELECT_SHARD_BUCKET_EXPRESSIONS = """SELECT TABLE_NAME, GENERATION_EXPRESSION FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND COLUMN_NAME = 'shard_bucket'
+    """.trimMargin()
+
+    /**
+     * A guild belongs to shard `(id >> 22) % shardCount`. Its bucket is `(id >> 22) % SHARD_BUCKETS` with the bits
+     * reversed, which puts the low bits of the id, the ones that decide the shard, at the top. So for any shard count
+     * that is a power of two (up to SHARD_BUCKETS), a shard's guilds are exactly one contiguous range of buckets, read
+     * with one range scan on the shard_bucket index. A new shard count only changes the range, no row is rewritten.
+     *
+     * Other shard counts get the range for their largest power of two factor, and the MOD check runs on the rows in
+     * it. With 12 shards that is a quarter of the table, with an odd count it is all of it. A single shard owns every
+     * row, so it gets no filter at all.
+     *
+     * Only computed integers go into the filter, it takes no bindings.
+     */
+    private fun shardFilter(shardCount: Int, shardIndex: Int): String {
+        if (shardCount <= 1) return "TRUE"
+
+        val modulo = "MOD(guild_id >> 22, $shardCount) = $shardIndex"
+        val power = minOf(Integer.lowestOneBit(shardCount), SHARD_BUCKETS)
+        if (power == 1) return modulo
+
+        // The shard index's low bits, reversed, are the top bits every bucket of the range shares
+        val bits = Integer.numberOfTrailingZeros(power)
+        val top = Integer.reverse(shardIndex % power) ushr (Int.SIZE_BITS - bits)
+        val width = 1 shl (SHARD_BUCKET_BITS - bits)
+        val range = "shard_bucket BETWEEN ${top * width} AND ${(top + 1) * width - 1}"
+
+        return if (power == shardCount) range else "$range AND $modulo"
+    }
+
+    /* Session Data */
+
+    @Language("MySQL")
+    val INSERT_SESSION_DATA = """INSERT INTO ${Tables.SESSIONS}
+        (token, user_id, expires_at, access_token, refresh_token)
+        VALUES(?, ?, ?, ?, ?)
+    """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_SESSION_TOKEN = """SELECT * FROM ${Tables.SESSIONS}
+        WHERE token = ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val SELECT_SESSIONS_USER = """SELECT * FROM ${Tables.SESSIONS}
+        WHERE user_id = ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_SESSION = """DELETE FROM ${Tables.SESSIONS}
+        WHERE token = ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_SESSIONS_FOR_USER = """DELETE FROM ${Tables.SESSIONS}
+        WHERE user_id = ?
+    """.trimMargin()
+
+    val REMOVE_AND_INSERT_SESSION_DATA = "$DELETE_SESSIONS_FOR_USER;$INSERT_SESSION_DATA"
+
+    /* Retention */
+
+    // Spelled out rather than (GUILD_ID, EVENT_ID) > (?, ?), MySQL can't turn a row comparison into a key range
+    fun selectEndedKeys(table: String) = """SELECT GUILD_ID, EVENT_ID FROM $table
+        WHERE (GUILD_ID > ? OR (GUILD_ID = ? AND EVENT_ID > ?)) AND EVENT_END > 0 AND EVENT_END < ?
+        ORDER BY GUILD_ID, EVENT_ID
+        LIMIT ?
+        """.trimMargin()
+
+    private fun keyList(count: Int) = List(count) { "(?, ?)" }.joinToString(", ")
+
+    private fun purgeAction(alias: String, dryRun: Boolean) = if (dryRun) "SELECT COUNT(*)" else "DELETE $alias".trimEnd()
+
+    // The end is checked again in case the event moved since the keys were selected
+    fun purgeEndedRsvpMembers(count: Int, dryRun: Boolean) = """${purgeAction("m", dryRun)}
+        FROM ${Tables.RSVP_MEMBERS} m JOIN ${Tables.RSVP} r ON r.GUILD_ID = m.guild_id AND r.EVENT_ID = m.event_id
+        WHERE (r.GUILD_ID, r.EVENT_ID) IN (${keyList(count)}) AND r.EVENT_END < ?
+        """.trimMargin()
+
+    fun purgeEndedRsvps(count: Int, dryRun: Boolean) = """${purgeAction("", dryRun)} FROM ${Tables.RSVP}
+        WHERE (GUILD_ID, EVENT_ID) IN (${keyList(count)}) AND EVENT_END < ?
+        """.trimMargin()
+
+    fun purgeEndedEventAnnouncements(count: Int, dryRun: Boolean) = """${purgeAction("a", dryRun)}
+        FROM ${Tables.ANNOUNCEMENTS} a JOIN ${Tables.EVENTS} e ON e.GUILD_ID = a.GUILD_ID AND e.EVENT_ID = a.EVENT_ID
+        WHERE (e.GUILD_ID, e.EVENT_ID) IN (${keyList(count)}) AND e.EVENT_END < ? AND a.ANNOUNCEMENT_TYPE = 'SPECIFIC'
+        """.trimMargin()
+
+    fun purgeEndedEvents(count: Int, dryRun: Boolean) = """${purgeAction("", dryRun)} FROM ${Tables.EVENTS}
+        WHERE (GUILD_ID, EVENT_ID) IN (${keyList(count)}) AND EVENT_END < ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val PURGE_EXPIRED_SESSIONS = """DELETE FROM ${Tables.SESSIONS}
+        WHERE expires_at < ?
+        LIMIT ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val COUNT_EXPIRED_SESSIONS = """SELECT COUNT(*) FROM ${Tables.SESSIONS}
+        WHERE expires_at < ?
+        """.trimMargin()
+}
+
+internal object Tables {
+    /* The language annotations are there because IntelliJ is dumb and assumes this needs to be proper MySQL */
+
+    @Language("Kotlin")
+    const val API: String = "api"
+
+    @Language("Kotlin")
+    const val GUILD_SETTINGS = "guild_settings"
+
+    @Language("Kotlin")
+    const val CALENDARS = "calendars"
+
+    @Language("Kotlin")
+    const val ANNOUNCEMENTS = "announcements"
+
+    @Language("Kotlin")
+    const val EVENTS = "events"
+
+    @Language("Kotlin")
+    const val RSVP = "rsvp"
+
+    @Language("Kotlin")
+    const val RSVP_MEMBERS = "rsvp_members"
+
+    @Language("Kotlin")
+    const val CREDS = "credentials"
+
+    @Language("Kotlin")
+    const val STATIC_MESSAGES = "static_messages"
+
+    @Language("Kotlin")
+    const val SESSIONS = "sessions"
+
+    @Language("Kotlin")
+    const val TABLE_COUNTS = "table_counts"
+
+    @Language("Kotlin")
+    const val TEARDOWN_JOBS = "teardown_jobs"
+
+    @Language("Kotlin")
+    const val REPLICATION_HEARTBEAT = "replication_heartbeat"
+
+    @Language("Kotlin")
+    const val EVENT_MIRROR = "event_mirror"
+
+    @Language("Kotlin")
+    const val EVENT_MIRROR_STATE = "event_mirror_state"
+}
@@ -0,0 +1,43 @@
+package org.dreamexposure.discal.core.database
+
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedDeque
+
+/**
+ * Works out how far the replica is behind from heartbeats written to the primary and read back from the replica.
+ *
+ * The replica is behind by at least as long as the oldest heartbeat it has not seen yet has existed, so that is what
+ * [lag] reports. Each process writes its own heartbeat row, so all heartbeats compared come from the same clock.
+ */
+internal class ReplicaLagTracker {
+    private val unseen = ConcurrentLinkedDeque<Long>()
+
+    @Volatile
+    var lag: Duration? = null
+        private set
+
+    /**
+     * @return The heartbeat value to write to the primary.
+     */
+    fun beat(): Long {
+        val now = System.currentTimeMillis()
+        unseen.addLast(now)
+        // Never grows without bound if the replica stops replicating entirely
+        while (unseen.size > MAX_UNSEEN) unseen.pollFirst()
+        return now
+    }
+
+    /**
+     * @param heartbeat The newest heartbeat the replica has.
+     */
+    fun seen(heartbeat: Long) {
+        while (unseen.peekFirst()?.let { it <= heartbeat } == true) unseen.pollFirst()
+
+        val oldestUnseen = unseen.peekFirst()
+        lag = if (oldestUnseen == null) Duration.ZERO else Duration.ofMillis(System.currentTimeMillis() - oldestUnseen)
+    }
+
+    private companion object {
+        const val MAX_UNSEEN = 1000
+    }
+}
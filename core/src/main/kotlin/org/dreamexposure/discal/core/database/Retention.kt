@@ -0,0 +1,20 @@
+package org.dreamexposure.discal.core.database
+
+import java.time.Duration
+
+data class RetentionOptions(
+    val batchSize: Int,
+    val pause: Duration,
+    val dryRun: Boolean,
+)
+
+/**
+ * How many rows a purge removed from a single table, or would have removed in a dry-run.
+ */
+data class PurgeResult(
+    val table: String,
+    val rows: Long,
+    val batches: Int,
+    val duration: Duration,
+    val dryRun: Boolean,
+)
@@ -0,0 +1,111 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import io.r2dbc.spi.Row
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementStyle
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.dreamexposure.discal.core.enums.event.EventColor
+import org.dreamexposure.discal.core.enums.time.TimeFormat
+import org.dreamexposure.discal.core.extensions.setFromString
+import java.time.Instant
+
+/*
+Shared row mappers. Each one owns the column list its queries select, and reads the row by position in that list,
+so the two can never drift apart and no column is looked up by name.
+ */
+
+internal object AnnouncementMapper {
+    const val COLUMNS = """ANNOUNCEMENT_ID, GUILD_ID, CALENDAR_NUMBER, SUBSCRIBERS_ROLE, SUBSCRIBERS_USER, CHANNEL_ID,
+        ANNOUNCEMENT_TYPE, MODIFIER, EVENT_ID, EVENT_COLOR, HOURS_BEFORE, MINUTES_BEFORE, INFO, ENABLED, PUBLISH"""
+
+    // Colors are stored by name, skip the name/hex/id guessing for the common case
+    private val colorsByName = EventColor.values().associateBy(EventColor::name)
+
+    fun map(row: Row): Announcement {
+        return Announcement(
+            id = row[0, String::class.java]!!,
+            guildId = Snowflake.of(row[1, Long::class.java]!!),
+            calendarNumber = row[2, Int::class.java]!!,
+            subscriberRoleIds = LazyStringList(row[3, String::class.java]!!),
+            subscriberUserIds = LazyStringList(row[4, String::class.java]!!),
+            announcementChannelId = row[5, String::class.java]!!,
+            type = AnnouncementType.valueOf(row[6, String::class.java]!!),
+            modifier = AnnouncementModifier.valueOf(row[7, String::class.java]!!),
+            eventId = row[8, String::class.java]!!,
+            eventColor = color(row[9, String::class.java]!!),
+            hoursBefore = row[10, Int::class.java]!!,
+            minutesBefore = row[11, Int::class.java]!!,
+            info = row[12, String::class.java]!!,
+            enabled = row[13, Boolean::class.java]!!,
+            publish = row[14, Boolean::class.java]!!,
+        )
+    }
+
+    private fun color(value: String) = colorsByName[value] ?: EventColor.fromNameOrHexOrId(value)
+}
+
+internal object CalendarMapper {
+    const val COLUMNS = """GUILD_ID, CALENDAR_NUMBER, HOST, CALENDAR_ID, CALENDAR_ADDRESS, EXTERNAL,
+        CREDENTIAL_ID, PRIVATE_KEY, ACCESS_TOKEN, REFRESH_TOKEN, EXPIRES_AT"""
+
+    fun map(row: Row): CalendarData {
+        return CalendarData(
+            guildId = Snowflake.of(row[0, Long::class.java]!!),
+            calendarNumber = row[1, Int::class.java]!!,
+            host = CalendarHost.valueOf(row[2, String::class.java]!!),
+            calendarId = row[3, String::class.java]!!,
+            calendarAddress = row[4, String::class.java]!!,
+            external = row[5, Boolean::class.java]!!,
+            credentialId = row[6, Int::class.java]!!,
+            privateKey = row[7, String::class.java]!!,
+            encryptedAccessToken = row[8, String::class.java]!!,
+            encryptedRefreshToken = row[9, String::class.java]!!,
+            expiresAt = Instant.ofEpochMilli(row[10, Long::class.java]!!),
+        )
+    }
+}
+
+internal object GuildSettingsMapper {
+    const val COLUMNS = """GUILD_ID, CONTROL_ROLE, ANNOUNCEMENT_STYLE, TIME_FORMAT, LANG, PREFIX, PATRON_GUILD, DEV_GUILD,
+        MAX_CALENDARS, DM_ANNOUNCEMENTS, BRANDED"""
+
+    fun map(row: Row): GuildSettings {
+        val settings = GuildSettings(
+            guildID = Snowflake.of(row[0, Long::class.java]!!),
+            controlRole = row[1, String::class.java]!!,
+            announcementStyle = AnnouncementStyle.fromValue(row[2, Int::class.java]!!),
+            timeFormat = TimeFormat.fromValue(row[3, Int::class.java]!!),
+            lang = row[4, String::class.java]!!,
+            prefix = row[5, String::class.java]!!,
+            patronGuild = row[6, Boolean::class.java]!!,
+            devGuild = row[7, Boolean::class.java]!!,
+            maxCalendars = row[8, Int::class.java]!!,
+            branded = row[10, Boolean::class.java]!!,
+        )
+        settings.dmAnnouncements.setFromString(row[9, String::class.java]!!)
+
+        return settings
+    }
+}
+
+internal object StaticMessageMapper {
+    const val COLUMNS = "guild_id, message_id, channel_id, type, last_update, scheduled_update, calendar_number"
+
+    fun map(row: Row): StaticMessage {
+        return StaticMessage(
+            guildId = Snowflake.of(row[0, Long::class.java]!!),
+            messageId = Snowflake.of(row[1, Long::class.java]!!),
+            channelId = Snowflake.of(row[2, Long::class.java]!!),
+            type = StaticMessage.Type.valueOf(row[3, Int::class.java]!!),
+            lastUpdate = row[4, Instant::class.java]!!,
+            scheduledUpdate = row[5, Instant::class.java]!!,
+            calendarNumber = row[6, Int::class.java]!!,
+        )
+    }
+}
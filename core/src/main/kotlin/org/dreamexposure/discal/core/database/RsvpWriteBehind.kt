@@ -0,0 +1,111 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.event.RsvpWriteResult
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Opt-in write-behind for rsvp changes, enabled by setting `RSVP_WRITE_BEHIND_WINDOW` to a number of milliseconds.
+ *
+ * When an event is announced, lots of users tend to RSVP within seconds of each other. Instead of writing each of
+ * those on its own, the rsvp is held for the window and every change made during it goes out in one batched write.
+ * While held, reads are served the held rsvp, so nobody reads past their own change. Changes that add users going to
+ * an event with a limit are never held, they are written through [writeNow] so the limit is checked before anyone is
+ * told they got in.
+ *
+ * A failed write is retried with the next window, each time waiting a window longer. After [MAX_FLUSH_ATTEMPTS]
+ * failures in a row, the rsvp's changes are logged and dropped rather than held forever.
+ */
+internal object RsvpWriteBehind {
+    private val window = Duration.ofMillis(BotSettings.RSVP_WRITE_BEHIND_WINDOW.getOrDefault("0").toLong())
+
+    val enabled = !window.isZero && !window.isNegative
+
+    private val pending = ConcurrentHashMap<Pair<Snowflake, String>, RsvpData>()
+    private val scheduled: MutableSet<Pair<Snowflake, String>> = ConcurrentHashMap.newKeySet()
+    private val failures = ConcurrentHashMap<Pair<Snowflake, String>, Int>()
+
+    fun get(guildId: Snowflake, eventId: String): RsvpData? = pending[guildId to eventId]
+
+    fun offer(data: RsvpData): Mono<Boolean> {
+        val key = data.guildId to data.eventId
+        val existing = pending.putIfAbsent(key, data)
+
+        return when {
+            existing == null || existing === data -> {
+                schedule(key)
+                Mono.just(true)
+            }
+            // Loaded before the other copy was held, write the held copy out now so neither loses changes
+            pending.replace(key, existing, data) -> {
+                schedule(key)
+                MySqlRepository.writeRsvpData(existing).map(RsvpWriteResult::saved)
+            }
+            else -> offer(data)
+        }
+    }
+
+    /**
+     * Writes the rsvp right away, for changes whose outcome the caller has to know. A different copy held for the same
+     * event is written first, so its changes aren't lost.
+     */
+    fun writeNow(data: RsvpData): Mono<RsvpWriteResult> {
+        return Mono.defer {
+            val held = pending.remove(data.guildId to data.eventId)
+
+            val heldMono = if (held != null && held !== data) {
+                // Held again if it fails, to be retried like any other
+                MySqlRepository.writeRsvpData(held).filter { !it.saved }.flatMap { offer(held) }.then()
+            } else Mono.empty()
+
+            heldMono.then(MySqlRepository.writeRsvpData(data))
+        }
+    }
+
+    fun flushAll(): Mono<Void> {
+        return Flux.fromIterable(pending.keys.toList())
+            .flatMap(this::flush)
+            .then()
+    }
+
+    private fun schedule(key: Pair<Snowflake, String>) {
+        if (scheduled.add(key)) {
+            Mono.delay(window.multipliedBy((failures[key] ?: 0) + 1L))
+                .flatMap { flush(key) }
+                .doOnError { LOGGER.error(DEFAULT, "Rsvp write-behind flush failed", it) }
+                .onErrorResume { Mono.empty() }
+                .subscribe()
+        }
+    }
+
+    private fun flush(key: Pair<Snowflake, String>): Mono<Boolean> {
+        scheduled.remove(key)
+        val data = pending[key] ?: return Mono.just(true)
+
+        return MySqlRepository.writeRsvpData(data).map(RsvpWriteResult::saved).doOnNext { saved ->
+            if (saved) failures.remove(key) else failures.merge(key, 1, Int::plus)
+        }.doFinally {
+            // Stop holding the rsvp unless it changed again while it was being written, or the write failed
+            if (pending.remove(key, data) && data.hasChanges()) {
+                val attempts = failures[key] ?: 0
+                if (attempts >= MAX_FLUSH_ATTEMPTS) {
+                    failures.remove(key)
+                    LOGGER.error(DEFAULT, "Dropping rsvp changes for event ${key.second} in guild ${key.first.asString()} " +
+                        "after $attempts failed writes")
+                } else {
+                    pending.putIfAbsent(key, data)
+                    schedule(key)
+                }
+            }
+        }
+    }
+
+    private const val MAX_FLUSH_ATTEMPTS = 5
+}
@@ -12,6 +12,7 @@ import org.dreamexposure.discal.core.`object`.announcement.Announcement
 import org.dreamexposure.discal.core.`object`.event.EventData
 import org.dreamexposure.discal.core.`object`.event.Recurrence
 import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.event.RsvpWriteResult
 import org.dreamexposure.discal.core.utils.GlobalVal.JSON_FORMAT
 import org.json.JSONObject
 import reactor.core.publisher.Flux
@@ -130,10 +131,20 @@ interface Event {
      *
      * @return A [Mono] containing the [RsvpData] of the event
      */
-    fun getRsvp(): Mono<RsvpData> = DatabaseManager.getRsvpData(guildId, eventId)
+    fun getRsvp(): Mono<RsvpData> {
+        // Keep the stored end current, it decides when the rsvp can be purged
+        return DatabaseManager.getRsvpData(guildId, eventId).doOnNext { it.eventEnd = end.toEpochMilli() }
+    }
 
     fun updateRsvp(rsvp: RsvpData) = DatabaseManager.updateRsvpData(rsvp)
 
+    /**
+     * Saves the rsvp right away, for when the user has to be told whether they got in.
+     *
+     * @return A [Mono] containing the [RsvpWriteResult], with the users that were waitlisted because the event was full
+     */
+    fun updateRsvpNow(rsvp: RsvpData): Mono<RsvpWriteResult> = DatabaseManager.updateRsvpDataNow(rsvp)
+
     /**
      * Attempts to update the event and returns the result.
      * If an error occurs, it is emitted through the [Mono].
@@ -6,6 +6,8 @@ import com.google.api.services.calendar.model.EventDateTime
 import org.dreamexposure.discal.core.`object`.calendar.CalendarData
 import org.dreamexposure.discal.core.`object`.event.EventData
 import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.EventMirror
+import org.dreamexposure.discal.core.cache.SharedCache
 import org.dreamexposure.discal.core.crypto.KeyGenerator
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Calendar
@@ -15,6 +17,7 @@ import org.dreamexposure.discal.core.entities.spec.create.CreateEventSpec
 import org.dreamexposure.discal.core.entities.spec.update.UpdateCalendarSpec
 import org.dreamexposure.discal.core.enums.event.EventColor
 import org.dreamexposure.discal.core.extensions.google.asInstant
+import org.dreamexposure.discal.core.extensions.google.seriesEnd
 import org.dreamexposure.discal.core.wrapper.google.AclRuleWrapper
 import org.dreamexposure.discal.core.wrapper.google.CalendarWrapper
 import org.dreamexposure.discal.core.wrapper.google.EventWrapper
@@ -72,6 +75,7 @@ class GoogleCalendar internal constructor(
                     DiscalCache.putCalendar(new)
 
                     return@flatMap AclRuleWrapper.insertRule(rule, this.calendarData)
+                            .then(SharedCache.invalidateCalendars(guildId))
                             .thenReturn(UpdateCalendarResponse(
                                     old = this,
                                     new = new,
@@ -84,25 +88,29 @@ class GoogleCalendar internal constructor(
         return GoogleEvent.get(this, eventId)
     }
 
+    // These go to the event mirror first, which is empty when it's off or the calendar isn't mirrored
     override fun getUpcomingEvents(amount: Int): Flux<Event> {
-        return EventWrapper.getEvents(calendarData, amount, System.currentTimeMillis())
+        return EventMirror.getUpcomingEvents(calendarData, timezone, amount)
+                .switchIfEmpty(Mono.defer { EventWrapper.getEvents(calendarData, amount, System.currentTimeMillis()) })
                 .flatMapMany(this::loadEvents)
     }
 
     override fun getOngoingEvents(): Flux<Event> {
-        val start = System.currentTimeMillis() - Duration.ofDays(14).toMillis() // 2 weeks ago
-        val end = System.currentTimeMillis() + Duration.ofDays(1).toMillis() // One day from now
-
-        return EventWrapper.getEvents(calendarData, start, end)
-                .flatMapMany { Flux.fromIterable(it) }
-                .filter { it.start.asInstant(timezone).isBefore(Instant.now()) }
-                .filter { it.end.asInstant(timezone).isAfter(Instant.now()) }
-                .collectList()
-                .flatMapMany(this::loadEvents)
+        return EventMirror.getOngoingEvents(calendarData, timezone)
+                .switchIfEmpty(Mono.defer {
+                    val start = System.currentTimeMillis() - Duration.ofDays(14).toMillis() // 2 weeks ago
+                    val end = System.currentTimeMillis() + Duration.ofDays(1).toMillis() // One day from now
+
+                    EventWrapper.getEvents(calendarData, start, end).map { events ->
+                        events.filter { it.start.asInstant(timezone).isBefore(Instant.now()) }
+                                .filter { it.end.asInstant(timezone).isAfter(Instant.now()) }
+                    }
+                }).flatMapMany(this::loadEvents)
     }
 
     override fun getEventsInTimeRange(start: Instant, end: Instant): Flux<Event> {
-        return EventWrapper.getEvents(calendarData, start.toEpochMilli(), end.toEpochMilli())
+        return EventMirror.getEventsInTimeRange(calendarData, timezone, start, end)
+                .switchIfEmpty(Mono.defer { EventWrapper.getEvents(calendarData, start.toEpochMilli(), end.toEpochMilli()) })
                 .flatMapMany(this::loadEvents)
     }
 
@@ -131,11 +139,13 @@ class GoogleCalendar internal constructor(
 
         //Okay, all values are set, lets create the event now...
         return EventWrapper.createEvent(this.calendarData, event).flatMap { confirmed ->
+            EventMirror.markStale(calendarData)
+
             val data = EventData(
                     this.guildId,
                     confirmed.id,
                     calendarNumber,
-                    spec.end.toEpochMilli(),
+                    confirmed.seriesEnd(),
                     spec.image.orEmpty()
             )
 
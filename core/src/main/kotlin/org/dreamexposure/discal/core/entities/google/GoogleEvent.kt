@@ -4,12 +4,14 @@ import com.google.api.client.util.DateTime
 import com.google.api.services.calendar.model.EventDateTime
 import org.dreamexposure.discal.core.`object`.event.EventData
 import org.dreamexposure.discal.core.`object`.event.Recurrence
+import org.dreamexposure.discal.core.cache.EventMirror
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Calendar
 import org.dreamexposure.discal.core.entities.Event
 import org.dreamexposure.discal.core.entities.response.UpdateEventResponse
 import org.dreamexposure.discal.core.entities.spec.update.UpdateEventSpec
 import org.dreamexposure.discal.core.enums.event.EventColor
+import org.dreamexposure.discal.core.extensions.google.seriesEnd
 import org.dreamexposure.discal.core.wrapper.google.EventWrapper
 import reactor.core.publisher.Mono
 import java.time.Instant
@@ -135,11 +137,13 @@ class GoogleEvent internal constructor(
 
         //Okay, all values are set, lets patch this event now...
         return EventWrapper.patchEvent(this.calendar.calendarData, event).flatMap { confirmed ->
+            EventMirror.markStale(calendar.calendarData)
+
             val data = EventData(
                     this.guildId,
                     confirmed.id,
                     calendar.calendarNumber,
-                    confirmed.end.dateTime.value,
+                    confirmed.seriesEnd(),
                     spec.image ?: this.image
             )
 
@@ -152,6 +156,7 @@ class GoogleEvent internal constructor(
         return EventWrapper.deleteEvent(calendar.calendarData, eventId)
                 .flatMap { success ->
                     if (success) {
+                        EventMirror.markStale(calendar.calendarData)
                         Mono.`when`(
                                 DatabaseManager.deleteAnnouncementsForEvent(guildId, eventId),
                                 DatabaseManager.deleteEventData(eventId),
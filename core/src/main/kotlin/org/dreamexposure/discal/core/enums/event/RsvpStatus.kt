@@ -0,0 +1,18 @@
+package org.dreamexposure.discal.core.enums.event
+
+enum class RsvpStatus(val value: Int) {
+    GOING_ON_TIME(1), GOING_LATE(2), NOT_GOING(3), UNDECIDED(4), WAITLIST(5);
+
+    companion object {
+        fun fromValue(i: Int): RsvpStatus {
+            return when (i) {
+                1 -> GOING_ON_TIME
+                2 -> GOING_LATE
+                3 -> NOT_GOING
+                4 -> UNDECIDED
+                5 -> WAITLIST
+                else -> throw IllegalArgumentException("Unknown rsvp status: $i")
+            }
+        }
+    }
+}
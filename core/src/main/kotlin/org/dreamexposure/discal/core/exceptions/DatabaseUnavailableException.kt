@@ -0,0 +1,6 @@
+package org.dreamexposure.discal.core.exceptions
+
+/**
+ * A database call was refused before it reached the database. Thrown a lot during an outage, so no stack trace.
+ */
+class DatabaseUnavailableException(reason: String) : RuntimeException(reason, null, false, false)
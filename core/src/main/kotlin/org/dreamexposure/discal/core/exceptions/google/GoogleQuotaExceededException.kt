@@ -0,0 +1,7 @@
+package org.dreamexposure.discal.core.exceptions.google
+
+/**
+ * A Google call was dropped before it was sent, because it would have waited too long for its turn. Thrown a lot when
+ * a credential or guild is flooded, so no stack trace.
+ */
+class GoogleQuotaExceededException(reason: String) : RuntimeException(reason, null, false, false)
@@ -1,5 +1,6 @@
 package org.dreamexposure.discal.core.extensions
 
+import org.dreamexposure.discal.core.database.LazyStringList
 import org.dreamexposure.discal.core.entities.Event
 import org.dreamexposure.discal.core.logger.LOGGER
 import java.time.Instant
@@ -10,6 +11,8 @@ import java.util.stream.Collectors
 
 
 fun MutableList<String>.asStringList(): String {
+    if (this is LazyStringList) this.joined()?.let { return it }
+
     val builder = StringBuilder()
 
     for ((i, str) in this.withIndex()) {
@@ -14,7 +14,7 @@ import org.dreamexposure.discal.core.entities.spec.create.CreateCalendarSpec
 import org.dreamexposure.discal.core.enums.calendar.CalendarHost
 import org.dreamexposure.discal.core.wrapper.google.AclRuleWrapper
 import org.dreamexposure.discal.core.wrapper.google.CalendarWrapper
-import org.dreamexposure.discal.core.wrapper.google.GoogleAuthWrapper
+import org.dreamexposure.discal.core.wrapper.google.CredentialScheduler
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.time.Duration
@@ -68,12 +68,13 @@ fun RestGuild.getMainCalendar(): Mono<Calendar> = this.getCalendar(1)
  */
 fun RestGuild.getCalendar(calNumber: Int): Mono<Calendar> {
     //Check cache first
+    if (DiscalCache.hasNoCalendars(id)) return Mono.empty()
     val cal = DiscalCache.getCalendar(id, calNumber)
     if (cal != null) return Mono.just(cal)
 
-    return DatabaseManager.getCalendar(this.id, calNumber)
-            .flatMap(Calendar.Companion::from)
-            .doOnNext(DiscalCache::putCalendar)
+    return DiscalCache.loadCalendar(id, calNumber) {
+        DatabaseManager.getCalendar(this.id, calNumber).flatMap(Calendar.Companion::from)
+    }
 }
 
 /**
@@ -84,13 +85,16 @@ fun RestGuild.getCalendar(calNumber: Int): Mono<Calendar> {
  */
 fun RestGuild.getAllCalendars(): Flux<Calendar> {
     //check cache first
+    if (DiscalCache.hasNoCalendars(id)) return Flux.empty()
     val cals = DiscalCache.getAllCalendars(id)
     if (cals != null) return Flux.fromIterable(cals)
 
-    return DatabaseManager.getAllCalendars(this.id)
-            .flatMapMany { Flux.fromIterable(it) }
-            .flatMap(Calendar.Companion::from)
-            .doOnNext(DiscalCache::putCalendar)
+    return DiscalCache.loadAllCalendars(id) {
+        DatabaseManager.getAllCalendars(this.id)
+                .flatMapMany { Flux.fromIterable(it) }
+                .flatMap(Calendar.Companion::from)
+                .collectList()
+    }.flatMapMany { Flux.fromIterable(it) }
 }
 
 /**
@@ -104,7 +108,7 @@ fun RestGuild.createCalendar(spec: CreateCalendarSpec): Mono<Calendar> {
     return Mono.defer {
         when (spec.host) {
             CalendarHost.GOOGLE -> {
-                val credId = GoogleAuthWrapper.randomCredentialId()
+                val credId = CredentialScheduler.credentialForNewCalendar()
                 val googleCal = GoogleCalendarModel()
 
                 googleCal.summary = spec.name
@@ -165,8 +169,7 @@ fun RestGuild.getAnnouncement(id: String): Mono<Announcement> = DatabaseManager.
  * @return A Flux of all [announcements][Announcement] belonging to this [Guild]
  */
 fun RestGuild.getAllAnnouncements(): Flux<Announcement> {
-    return DatabaseManager.getAnnouncements(this.id)
-            .flatMapMany { Flux.fromIterable(it) }
+    return DatabaseManager.streamAnnouncements(this.id)
 }
 
 /**
@@ -176,8 +179,7 @@ fun RestGuild.getAllAnnouncements(): Flux<Announcement> {
  * @return A [Flux] of all [announcements][Announcement] belonging to this [Guild] that are enabled.
  */
 fun RestGuild.getEnabledAnnouncements(): Flux<Announcement> {
-    return DatabaseManager.getEnabledAnnouncements(this.id)
-            .flatMapMany { Flux.fromIterable(it) }
+    return DatabaseManager.streamEnabledAnnouncements(this.id)
 }
 
 fun RestGuild.createAnnouncement(ann: Announcement): Mono<Boolean> = DatabaseManager.updateAnnouncement(ann)
@@ -0,0 +1,54 @@
+package org.dreamexposure.discal.core.extensions.google
+
+import com.google.api.services.calendar.model.Event
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
+import java.time.format.DateTimeParseException
+import java.time.temporal.ChronoUnit
+
+private val RRULE_DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss")
+
+/**
+ * When the last instance of the event ends, in epoch millis. This is what event data is stored with, since a recurring
+ * event's data is stored once for the whole series, and purged once it ended.
+ *
+ * Series that don't end (no UNTIL or COUNT), rules this can't read, and single instances of a series (whose series end
+ * isn't known here) never end: [Long.MAX_VALUE]. A COUNT is read as that many periods, which can only be later than
+ * the real end, never earlier.
+ */
+fun Event.seriesEnd(): Long {
+    val end = this.end.dateTime?.value ?: this.end.date.value
+    if (this.recurringEventId != null) return Long.MAX_VALUE
+
+    val rrule = this.recurrence?.firstOrNull { it.startsWith("RRULE:") } ?: return end
+    val parts = rrule.removePrefix("RRULE:").split(";").associate { it.substringBefore("=") to it.substringAfter("=") }
+
+    parts["UNTIL"]?.let { until ->
+        val start = this.start.dateTime?.value ?: this.start.date.value
+        val lastStart = try {
+            if (until.length == 8) LocalDate.parse(until, DateTimeFormatter.BASIC_ISO_DATE).plusDays(1).atStartOfDay()
+            else LocalDateTime.parse(until.removeSuffix("Z"), RRULE_DATE_TIME)
+        } catch (e: DateTimeParseException) {
+            return Long.MAX_VALUE
+        }
+        // Dates without a zone are the calendar's local time, a day of slack covers any zone
+        return lastStart.toInstant(ZoneOffset.UTC).plus(1, ChronoUnit.DAYS).toEpochMilli() + (end - start)
+    }
+
+    val count = parts["COUNT"]?.toLongOrNull() ?: return Long.MAX_VALUE
+    val interval = parts["INTERVAL"]?.toLongOrNull() ?: 1
+    val unit = when (parts["FREQ"]) {
+        "DAILY" -> ChronoUnit.DAYS
+        "WEEKLY" -> ChronoUnit.WEEKS
+        "MONTHLY" -> ChronoUnit.MONTHS
+        "YEARLY" -> ChronoUnit.YEARS
+        else -> return Long.MAX_VALUE
+    }
+
+    return LocalDateTime.ofEpochSecond(end / 1000, 0, ZoneOffset.UTC)
+        .plus((count - 1) * interval, unit)
+        .toInstant(ZoneOffset.UTC)
+        .toEpochMilli()
+}
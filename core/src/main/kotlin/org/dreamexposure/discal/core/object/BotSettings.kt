@@ -3,6 +3,8 @@ package org.dreamexposure.discal.core.`object`
 import java.util.*
 
 enum class BotSettings {
+    DATABASE_BACKEND,
+
     SQL_HOST,
     SQL_PORT,
     SQL_USER,
@@ -10,6 +12,58 @@ enum class BotSettings {
     SQL_DB,
     SQL_PREFIX,
 
+    SQL_POOL_INITIAL_SIZE,
+    SQL_POOL_MAX_SIZE,
+    SQL_POOL_MAX_IDLE_TIME,
+    SQL_POOL_MAX_LIFE_TIME,
+    SQL_POOL_MAX_ACQUIRE_TIME,
+    SQL_POOL_VALIDATION_QUERY,
+    SQL_POOL_EVICTION_INTERVAL,
+
+    SQL_SHARD_BUCKETS,
+
+    SQL_REPLICA_HOST,
+    SQL_REPLICA_PORT,
+    SQL_REPLICA_MAX_LAG,
+    SQL_REPLICA_LAG_INTERVAL,
+
+    SQL_BULKHEAD_READ,
+    SQL_BULKHEAD_WRITE,
+    SQL_BULKHEAD_BULK,
+    SQL_BULKHEAD_BULK_WAIT_MS,
+    SQL_BREAKER_FAILURE_RATE,
+    SQL_BREAKER_SLOW_MS,
+    SQL_BREAKER_OPEN_SECONDS,
+    SQL_RETRY_BUDGET,
+
+    RSVP_WRITE_BEHIND_WINDOW,
+
+    RETENTION_EVENT_DAYS,
+    RETENTION_BATCH_SIZE,
+    RETENTION_BATCH_PAUSE,
+    RETENTION_DRY_RUN,
+
+    TEARDOWN_BATCH_SIZE,
+    TEARDOWN_ON_KICK,
+
+    CACHE_TTL,
+    CACHE_TTL_JITTER,
+    CACHE_NEGATIVE_TTL,
+    CACHE_MAX_SETTINGS,
+    CACHE_MAX_CALENDARS,
+    CACHE_USE_REDIS,
+    CACHE_REDIS_TTL,
+    CACHE_WARMUP,
+    CACHE_WARMUP_CHUNK_SIZE,
+    CACHE_WARMUP_CONCURRENCY,
+
+    EVENT_MIRROR,
+    EVENT_MIRROR_REFRESH,
+    EVENT_MIRROR_MAX_EVENTS,
+    EVENT_MIRROR_LOOKBACK_DAYS,
+    EVENT_MIRROR_HORIZON_DAYS,
+    EVENT_MIRROR_MAX_CALENDARS,
+
     REDIS_HOSTNAME,
     REDIS_PORT,
     REDIS_PASSWORD,
@@ -23,6 +77,21 @@ enum class BotSettings {
     GOOGLE_CLIENT_SECRET,
     CREDENTIALS_COUNT,
     CREDENTIALS_KEY,
+    GOOGLE_API_URL,
+
+    GOOGLE_HTTP_MAX_CONNECTIONS,
+    GOOGLE_HTTP_MAX_PER_HOST,
+    GOOGLE_HTTP_IDLE_SECONDS,
+    GOOGLE_HTTP_CONNECTION_TTL,
+    GOOGLE_REACTIVE_CLIENT,
+    GOOGLE_BATCH,
+    GOOGLE_BATCH_SIZE,
+    GOOGLE_BATCH_LINGER_MS,
+    GOOGLE_QUOTA_SCHEDULER,
+    GOOGLE_CREDENTIAL_RATE,
+    GOOGLE_QUOTA_USER_RATE,
+    GOOGLE_RATE_LIMIT_BACKOFF,
+    GOOGLE_QUOTA_MAX_WAIT_MS,
 
     SHARD_COUNT,
     SHARD_INDEX,
@@ -69,4 +138,6 @@ enum class BotSettings {
     }
 
     fun get() = this.value!!
+
+    fun getOrDefault(default: String) = this.value ?: default
 }
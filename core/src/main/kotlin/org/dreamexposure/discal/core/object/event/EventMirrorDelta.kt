@@ -0,0 +1,26 @@
+package org.dreamexposure.discal.core.`object`.event
+
+import discord4j.common.util.Snowflake
+import java.time.Instant
+
+/**
+ * A change to the stored copy of a calendar's events, see [EventMirror][org.dreamexposure.discal.core.cache.EventMirror].
+ *
+ * A [full] delta replaces everything stored for the calendar, which is also how a stored mirror is read back.
+ *
+ * @property windowStart Start of the time window the mirror holds the events of.
+ * @property windowEnd End of that window.
+ * @property changed Event id -> the event as Google's JSON.
+ * @property removed Ids of events that no longer exist.
+ */
+data class EventMirrorDelta(
+    val guildId: Snowflake,
+    val calendarNumber: Int,
+    val calendarId: String,
+    val syncToken: String,
+    val windowStart: Instant,
+    val windowEnd: Instant,
+    val full: Boolean,
+    val changed: Map<String, String>,
+    val removed: List<String> = emptyList(),
+)
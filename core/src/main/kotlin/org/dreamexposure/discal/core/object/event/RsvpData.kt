@@ -12,9 +12,11 @@ import discord4j.discordjson.json.MessageData
 import discord4j.rest.http.client.ClientException
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.Transient
 import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.`object`.GuildSettings
 import org.dreamexposure.discal.core.entities.Event
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
 import org.dreamexposure.discal.core.enums.time.DiscordTimestampFormat.LONG_DATETIME
 import org.dreamexposure.discal.core.extensions.asDiscordTimestamp
 import org.dreamexposure.discal.core.extensions.discord4j.getCalendar
@@ -28,7 +30,9 @@ import org.dreamexposure.discal.core.utils.getEmbedMessage
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import reactor.function.TupleUtils
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicLong
 
 @Serializable
 data class RsvpData(
@@ -42,29 +46,136 @@ data class RsvpData(
 ) {
     @SerialName("event_end")
     var eventEnd: Long = 0
+        set(value) {
+            if (field != value) markSettingsChanged()
+            field = value
+        }
 
     var limit: Int = -1
         set(value) {
-            field = value.coerceAtLeast(-1)
+            val coerced = value.coerceAtLeast(-1)
+            if (field != coerced) markSettingsChanged()
+            field = coerced
         }
 
     @Serializable(with = SnowflakeAsStringSerializer::class)
     @SerialName("role_id")
     var roleId: Snowflake? = null
+        private set(value) {
+            if (field != value) markSettingsChanged()
+            field = value
+        }
+
+    /*
+    Change tracking, so only what changed since this was loaded or last saved needs to be written.
+    Every change gets a new version, so a save only clears what it actually wrote, even while other changes come in.
+     */
+    @Transient
+    private val changeVersion = AtomicLong()
+
+    @Transient
+    private val changedMembers = ConcurrentHashMap<String, Long>()
+
+    @Transient
+    @Volatile
+    private var settingsVersion = 0L
+
+    @Transient
+    @Volatile
+    private var savedSettingsVersion = 0L
+
+    @Transient
+    internal var stored = false
         private set
 
     @SerialName("on_time")
-    val goingOnTime: MutableList<String> = CopyOnWriteArrayList()
+    val goingOnTime: MutableList<String> = MemberList(this::markMemberChanged)
 
     @SerialName("late")
-    val goingLate: MutableList<String> = CopyOnWriteArrayList()
+    val goingLate: MutableList<String> = MemberList(this::markMemberChanged)
 
     @SerialName("not_going")
-    val notGoing: MutableList<String> = CopyOnWriteArrayList()
+    val notGoing: MutableList<String> = MemberList(this::markMemberChanged)
+
+    val undecided: MutableList<String> = MemberList(this::markMemberChanged)
+
+    val waitlist: MutableList<String> = MemberList(this::markMemberChanged)
+
+    fun membersOf(status: RsvpStatus): MutableList<String> {
+        return when (status) {
+            RsvpStatus.GOING_ON_TIME -> goingOnTime
+            RsvpStatus.GOING_LATE -> goingLate
+            RsvpStatus.NOT_GOING -> notGoing
+            RsvpStatus.UNDECIDED -> undecided
+            RsvpStatus.WAITLIST -> waitlist
+        }
+    }
+
+    fun getCounts(): Map<RsvpStatus, Int> = RsvpStatus.values().associateWith { membersOf(it).size }
+
+    private fun markMemberChanged(userId: String) {
+        changedMembers[userId] = changeVersion.incrementAndGet()
+    }
+
+    private fun markSettingsChanged() {
+        settingsVersion = changeVersion.incrementAndGet()
+    }
+
+    internal fun hasChanges() = changedMembers.isNotEmpty() || settingsVersion != savedSettingsVersion
+
+    /**
+     * Whether any user changed since the last save is going while there is a limit. Those have to be checked against
+     * the stored limit before anyone is told they got in.
+     */
+    internal fun hasLimitedJoins(): Boolean {
+        return limit >= 0 && changedMembers.keys.any { goingOnTime.contains(it) || goingLate.contains(it) }
+    }
+
+    /**
+     * Snapshots everything changed since the last save.
+     * Each changed user comes with their current status, or `null` if they no longer have one.
+     * Positions are handed out in list order after every already stored position, so changed users keep their place
+     * relative to each other and go behind everyone that was already in the list.
+     */
+    internal fun getChanges(): RsvpChanges {
+        val versions = HashMap(changedMembers)
+        val currentSettingsVersion = settingsVersion
+        val base = System.currentTimeMillis() * 1000
+        val members = HashMap<String, RsvpMember?>()
+
+        versions.keys.forEach { members[it] = null }
+        RsvpStatus.values().forEach { status ->
+            membersOf(status).forEachIndexed { index, userId ->
+                if (members.containsKey(userId) && members[userId] == null)
+                    members[userId] = RsvpMember(userId, status, base + index)
+            }
+        }
+
+        return RsvpChanges(
+            members = members,
+            settings = currentSettingsVersion != savedSettingsVersion,
+            versions = versions,
+            settingsVersion = currentSettingsVersion,
+        )
+    }
 
-    val undecided: MutableList<String> = CopyOnWriteArrayList()
+    /**
+     * Clears the given changes, keeping anything that changed again after they were snapshot.
+     */
+    internal fun markSaved(stored: Boolean, changes: RsvpChanges) {
+        this.stored = stored
+        changes.versions.forEach { (userId, version) -> changedMembers.remove(userId, version) }
+        savedSettingsVersion = changes.settingsVersion
+    }
 
-    val waitlist: MutableList<String> = CopyOnWriteArrayList()
+    /**
+     * Clears all changes, for when this was just loaded.
+     */
+    internal fun markSaved(stored: Boolean) {
+        this.stored = stored
+        changedMembers.clear()
+        savedSettingsVersion = settingsVersion
+    }
 
     fun getCurrentCount() = this.goingOnTime.size + this.goingLate.size
 
@@ -115,11 +226,11 @@ data class RsvpData(
     //Functions
     fun removeCompletely(userId: String, client: DiscordClient, doWaitlistOp: Boolean = false): Mono<RsvpData> {
         // Remove from all lists
-        goingOnTime.removeAll { userId == it }
-        goingLate.removeAll { userId == it }
-        notGoing.removeAll { userId == it }
-        undecided.removeAll { userId == it }
-        waitlist.removeAll { userId == it }
+        goingOnTime.remove(userId)
+        goingLate.remove(userId)
+        notGoing.remove(userId)
+        undecided.remove(userId)
+        waitlist.remove(userId)
 
         // Remove role if one is set
         val roleMono = if (roleId != null) {
@@ -209,6 +320,18 @@ data class RsvpData(
 
     fun addGoingLate(member: Member): Mono<Void> = addGoingLate(member.id.asString(), member.client.rest())
 
+    /**
+     * Takes the role back from users that were given it as going, but were waitlisted when saved because the event
+     * filled up first.
+     */
+    fun revokeRole(userIds: Collection<String>, client: DiscordClient): Mono<Void> {
+        val roleId = this.roleId ?: return Mono.empty()
+
+        return Flux.fromIterable(userIds)
+            .flatMap { removeRole(it, roleId, "Waitlisted for event with ID: $eventId", client) }
+            .then()
+    }
+
     fun shouldBeSaved(): Boolean {
         return this.goingOnTime.isNotEmpty()
             || this.goingLate.isNotEmpty()
@@ -305,3 +428,78 @@ data class RsvpData(
         }
     }
 }
+
+internal class RsvpChanges(
+    val members: Map<String, RsvpMember?>,
+    val settings: Boolean,
+    val versions: Map<String, Long>,
+    val settingsVersion: Long,
+)
+
+/**
+ * A copy-on-write member list that remembers which users were added or removed.
+ */
+private class MemberList(private val changed: (String) -> Unit) : AbstractMutableList<String>(), RandomAccess {
+    private val backing = CopyOnWriteArrayList<String>()
+
+    override val size: Int
+        get() = backing.size
+
+    override fun get(index: Int): String = backing[index]
+
+    override fun set(index: Int, element: String): String {
+        val old = backing.set(index, element)
+        changed(old)
+        changed(element)
+        return old
+    }
+
+    override fun add(index: Int, element: String) {
+        backing.add(index, element)
+        changed(element)
+    }
+
+    override fun removeAt(index: Int): String {
+        val old = backing.removeAt(index)
+        changed(old)
+        return old
+    }
+
+    override fun remove(element: String): Boolean {
+        val removed = backing.remove(element)
+        if (removed) changed(element)
+        return removed
+    }
+
+    override fun removeAll(elements: Collection<String>): Boolean {
+        val toRemove = elements.toSet()
+        val removed = backing.filter(toRemove::contains)
+        backing.removeAll(toRemove)
+        removed.forEach(changed)
+        return removed.isNotEmpty()
+    }
+
+    override fun retainAll(elements: Collection<String>): Boolean {
+        val toKeep = elements.toSet()
+        val removed = backing.filterNot(toKeep::contains)
+        backing.retainAll(toKeep)
+        removed.forEach(changed)
+        return removed.isNotEmpty()
+    }
+
+    override fun clear() {
+        backing.forEach(changed)
+        backing.clear()
+    }
+
+    override fun contains(element: String): Boolean = backing.contains(element)
+
+    override fun indexOf(element: String): Int = backing.indexOf(element)
+
+    // Snapshot iterators, same as the copy-on-write lists these replace. Removal goes through the index based methods
+    override fun iterator(): MutableIterator<String> = backing.iterator()
+
+    override fun listIterator(): MutableListIterator<String> = backing.listIterator()
+
+    override fun listIterator(index: Int): MutableListIterator<String> = backing.listIterator(index)
+}
@@ -0,0 +1,9 @@
+package org.dreamexposure.discal.core.`object`.event
+
+import org.dreamexposure.discal.core.enums.event.RsvpStatus
+
+data class RsvpMember(
+    val userId: String,
+    val status: RsvpStatus,
+    val position: Long,
+)
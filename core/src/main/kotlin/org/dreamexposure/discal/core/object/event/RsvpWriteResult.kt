@@ -0,0 +1,12 @@
+package org.dreamexposure.discal.core.`object`.event
+
+/**
+ * How saving an rsvp went.
+ *
+ * @property waitlisted Users that were added as going, but found the event full when saved and were moved to the
+ * waitlist instead.
+ */
+data class RsvpWriteResult(
+    val saved: Boolean,
+    val waitlisted: Set<String> = emptySet(),
+)
@@ -4,6 +4,10 @@ import discord4j.core.GatewayDiscordClient
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 import org.dreamexposure.discal.Application
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.EventMirror
+import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.wrapper.google.GoogleTransport
 import reactor.core.publisher.Mono
 
 @Suppress("DataClassPrivateConstructor")
@@ -19,6 +23,14 @@ data class BotInstanceData private constructor(
         val shardCount: Int,
 
         val guilds: Int = 0,
+
+        @SerialName("db_pool")
+        val dbPool: DatabasePoolData = DatabasePoolData(),
+
+        val caches: Map<String, CacheRegionData> = emptyMap(),
+
+        @SerialName("google_http")
+        val googleHttp: GoogleHttpData = GoogleHttpData(),
 ) {
     companion object {
         fun load(client: GatewayDiscordClient?): Mono<BotInstanceData> {
@@ -31,7 +43,10 @@ data class BotInstanceData private constructor(
                                 instanceData = InstanceData(),
                                 shardIndex = Application.getShardIndex().toInt(),
                                 shardCount = Application.getShardCount(),
-                                guilds = guildCount
+                                guilds = guildCount,
+                                dbPool = DatabaseManager.getPoolData(),
+                                caches = DiscalCache.getData() + ("event_mirrors" to EventMirror.getData()),
+                                googleHttp = GoogleTransport.getData(),
                         )
                     }
         }
@@ -0,0 +1,39 @@
+package org.dreamexposure.discal.core.`object`.network.discal
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+@Serializable
+data class CacheRegionData(
+    val size: Int = 0,
+
+    @SerialName("max_size")
+    val maxSize: Int = 0,
+
+    val hits: Long = 0,
+
+    // Lookups answered by a cached "there is none"
+    @SerialName("negative_hits")
+    val negativeHits: Long = 0,
+
+    val misses: Long = 0,
+
+    val evictions: Long = 0,
+
+    val expirations: Long = 0,
+
+    val loads: Long = 0,
+
+    // Misses that joined a load already running instead of starting their own
+    val coalesced: Long = 0,
+
+    // coalesced / (loads + coalesced)
+    @SerialName("collapse_ratio")
+    val collapseRatio: Double = 0.0,
+
+    @SerialName("load_mean_ms")
+    val loadMeanMillis: Double = 0.0,
+
+    @SerialName("load_p95_ms")
+    val loadP95Millis: Double = 0.0,
+)
@@ -0,0 +1,41 @@
+package org.dreamexposure.discal.core.`object`.network.discal
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+@Serializable
+data class DatabaseExecutorData(
+    val calls: Long = 0,
+
+    val successes: Long = 0,
+
+    val failures: Long = 0,
+
+    val slow: Long = 0,
+
+    // Refused because the class's bulkhead was full
+    val rejected: Long = 0,
+
+    // Refused because the circuit breaker was open
+    @SerialName("short_circuited")
+    val shortCircuited: Long = 0,
+
+    val retries: Long = 0,
+
+    @SerialName("retries_denied")
+    val retriesDenied: Long = 0,
+
+    @SerialName("in_flight")
+    val inFlight: Int = 0,
+
+    val limit: Int = 0,
+
+    @SerialName("latency_p50_ms")
+    val latencyP50Millis: Double = 0.0,
+
+    @SerialName("latency_p95_ms")
+    val latencyP95Millis: Double = 0.0,
+
+    @SerialName("latency_p99_ms")
+    val latencyP99Millis: Double = 0.0,
+)
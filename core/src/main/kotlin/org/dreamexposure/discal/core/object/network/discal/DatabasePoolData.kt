@@ -0,0 +1,52 @@
+package org.dreamexposure.discal.core.`object`.network.discal
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+@Serializable
+data class DatabasePoolData(
+    val acquired: Int = 0,
+
+    val allocated: Int = 0,
+
+    val idle: Int = 0,
+
+    @SerialName("pending_acquire")
+    val pendingAcquire: Int = 0,
+
+    @SerialName("max_allocated")
+    val maxAllocated: Int = 0,
+
+    @SerialName("acquire_count")
+    val acquireCount: Long = 0,
+
+    @SerialName("acquire_mean_ms")
+    val acquireMeanMillis: Double = 0.0,
+
+    @SerialName("acquire_p50_ms")
+    val acquireP50Millis: Double = 0.0,
+
+    @SerialName("acquire_p95_ms")
+    val acquireP95Millis: Double = 0.0,
+
+    @SerialName("acquire_p99_ms")
+    val acquireP99Millis: Double = 0.0,
+
+    @SerialName("acquire_max_ms")
+    val acquireMaxMillis: Double = 0.0,
+
+    @SerialName("acquire_histogram")
+    val acquireHistogram: Map<String, Long> = emptyMap(),
+
+    val replica: DatabasePoolData? = null,
+
+    // -1 when there is no replica or it has not been measured yet
+    @SerialName("replica_lag_ms")
+    val replicaLagMillis: Long = -1,
+
+    // Per query class, see DatabaseExecutor. Only set on the primary
+    val executors: Map<String, DatabaseExecutorData> = emptyMap(),
+
+    @SerialName("circuit_state")
+    val circuitState: String = "closed",
+)
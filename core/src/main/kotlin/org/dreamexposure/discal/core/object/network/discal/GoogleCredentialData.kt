@@ -0,0 +1,24 @@
+package org.dreamexposure.discal.core.`object`.network.discal
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+@Serializable
+data class GoogleCredentialData(
+    val id: Int = 0,
+
+    val requests: Long = 0,
+
+    // Quota errors, 429 or a 403 with a quota reason
+    @SerialName("rate_limited")
+    val rateLimited: Long = 0,
+
+    @SerialName("per_second")
+    val perSecond: Double = 0.0,
+
+    @SerialName("latency_p95_ms")
+    val latencyP95Millis: Double = 0.0,
+
+    @SerialName("backing_off")
+    val backingOff: Boolean = false,
+)
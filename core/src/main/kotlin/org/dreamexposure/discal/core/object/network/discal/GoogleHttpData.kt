@@ -0,0 +1,58 @@
+package org.dreamexposure.discal.core.`object`.network.discal
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+@Serializable
+data class GoogleHttpData(
+    val leased: Int = 0,
+
+    val available: Int = 0,
+
+    val pending: Int = 0,
+
+    val max: Int = 0,
+
+    // New connections, each is a TLS handshake
+    val handshakes: Long = 0,
+
+    @SerialName("handshakes_last_minute")
+    val handshakesLastMinute: Long = 0,
+
+    @SerialName("handshake_p95_ms")
+    val handshakeP95Millis: Double = 0.0,
+
+    val requests: Long = 0,
+
+    @SerialName("latency_p50_ms")
+    val latencyP50Millis: Double = 0.0,
+
+    @SerialName("latency_p95_ms")
+    val latencyP95Millis: Double = 0.0,
+
+    @SerialName("latency_p99_ms")
+    val latencyP99Millis: Double = 0.0,
+
+    val batches: Long = 0,
+
+    @SerialName("batched_requests")
+    val batchedRequests: Long = 0,
+
+    // HTTP requests batching saved, over the last minute
+    @SerialName("batch_saved_per_second")
+    val batchSavedPerSecond: Double = 0.0,
+
+    // Calls that waited for their credential's or guild's limit
+    @SerialName("quota_throttled")
+    val quotaThrottled: Long = 0,
+
+    // Event listings sent with another credential than their calendar's
+    @SerialName("quota_overflowed")
+    val quotaOverflowed: Long = 0,
+
+    // Calls dropped because they would have waited longer than allowed for their turn
+    @SerialName("quota_shed")
+    val quotaShed: Long = 0,
+
+    val credentials: List<GoogleCredentialData> = emptyList(),
+)
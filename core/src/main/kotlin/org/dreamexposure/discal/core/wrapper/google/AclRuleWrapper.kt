@@ -9,14 +9,17 @@ import reactor.core.scheduler.Schedulers
 
 object AclRuleWrapper {
     fun insertRule(rule: AclRule, calData: CalendarData): Mono<AclRule> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) GoogleCalendarClient.insertAclRule(rule, calData)
+        else GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
             Mono.fromCallable {
                 service.acl()
                         .insert(calData.calendarId, rule)
                         .setQuotaUser(calData.guildId.asString())
                         .execute()
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] ACLRule insert failure", it)
 
         }.onErrorResume { Mono.empty() }
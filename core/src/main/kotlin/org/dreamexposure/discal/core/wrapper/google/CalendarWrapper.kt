@@ -11,27 +11,33 @@ import reactor.core.scheduler.Schedulers
 
 object CalendarWrapper {
     fun createCalendar(calendar: Calendar, credId: Int, guildId: Snowflake): Mono<Calendar> {
-        return GoogleAuthWrapper.getCalendarService(credId).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) GoogleCalendarClient.insertCalendar(calendar, credId, guildId)
+        else GoogleAuthWrapper.getCalendarService(credId).flatMap { service ->
             Mono.fromCallable {
                 service.calendars()
                         .insert(calendar)
                         .setQuotaUser(guildId.asString())
                         .execute()
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Calendar create failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun patchCalendar(calendar: Calendar, calData: CalendarData): Mono<Calendar> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) GoogleCalendarClient.patchCalendar(calendar, calData)
+        else GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
             Mono.fromCallable {
                 service.calendars()
                         .patch(calendar.id, calendar)
                         .setQuotaUser(calData.guildId.asString())
                         .execute()
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Calendar patch failure", it)
         }.onErrorResume { Mono.empty() }
     }
@@ -50,14 +56,17 @@ object CalendarWrapper {
     }
 
     fun getCalendar(calData: CalendarData): Mono<Calendar> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) GoogleCalendarClient.getCalendar(calData)
+        else GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
             Mono.fromCallable {
                 service.calendars()
                         .get(calData.calendarAddress)
                         .setQuotaUser(calData.guildId.asString())
                         .execute()
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Calendar get failure", it)
         }.onErrorResume { Mono.empty() }
     }
@@ -66,14 +75,16 @@ object CalendarWrapper {
         return Mono.just(calData)
                 .filter { !it.external }
                 .filter { !it.calendarAddress.equals("primary", true) }
-                .flatMap { GoogleAuthWrapper.getCalendarService(calData) }
-                .flatMap { service ->
-                    Mono.fromCallable {
-                        service.calendars()
-                                .delete(calData.calendarAddress)
-                                .setQuotaUser(calData.guildId.asString())
-                                .execute()
-                    }.subscribeOn(Schedulers.boundedElastic())
+                .flatMap {
+                    if (GoogleCalendarClient.enabled) GoogleCalendarClient.deleteCalendar(calData)
+                    else GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                        Mono.fromCallable {
+                            service.calendars()
+                                    .delete(calData.calendarAddress)
+                                    .setQuotaUser(calData.guildId.asString())
+                                    .execute()
+                        }.subscribeOn(Schedulers.boundedElastic())
+                    }
                 }.thenReturn(true)
                 .doOnError {
                     LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Calendar delete failure", it)
@@ -0,0 +1,289 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.network.discal.GoogleCredentialData
+import org.dreamexposure.discal.core.cache.CacheRegion
+import org.dreamexposure.discal.core.database.LatencyHistogram
+import org.dreamexposure.discal.core.exceptions.google.GoogleQuotaExceededException
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.exp
+
+/**
+ * Decides which of DisCal's own credentials a Google call is sent with, and when.
+ *
+ * Every credential's traffic is tracked: requests per second (decaying over about a minute), latency, and responses
+ * that mean it is over its quota (429, or 403 with a rate limit or quota reason, see [isQuotaError]). A credential that
+ * got one of those is avoided for `GOOGLE_RATE_LIMIT_BACKOFF` seconds. New calendars go to the least loaded credential, rather than a random one.
+ *
+ * Opt-in with `GOOGLE_QUOTA_SCHEDULER`, calls are also throttled:
+ * - Each credential sends at most `GOOGLE_CREDENTIAL_RATE` requests per second, with bursts of twice that.
+ * - Each guild (the `quotaUser` of its calls) sends at most `GOOGLE_QUOTA_USER_RATE` requests per second, so one busy
+ * guild can't use up a credential it shares with many others. A guild whose call got a quota error waits for a refill.
+ *
+ * Calls over a limit wait for their turn instead of failing. Event listings are the exception: when their calendar's
+ * credential is out of requests or backing off, they go out with the least loaded credential that has some left.
+ * That works because DisCal makes its calendars publicly readable. A rate of 0 turns that limit off.
+ *
+ * Waits are capped at `GOOGLE_QUOTA_MAX_WAIT_MS`. A call whose turn would come later than that isn't queued at all, it
+ * fails with [GoogleQuotaExceededException], so a flood can't pile up calls that would only time out anyway.
+ *
+ * External calendars use their owner's credential, only the guild's limit applies to them.
+ */
+internal object CredentialScheduler {
+    private val throttle = BotSettings.GOOGLE_QUOTA_SCHEDULER.getOrDefault("false").toBoolean()
+    private val credentialRate = BotSettings.GOOGLE_CREDENTIAL_RATE.getOrDefault("10").toDouble()
+    private val quotaUserRate = BotSettings.GOOGLE_QUOTA_USER_RATE.getOrDefault("2").toDouble()
+    private val backoffNanos = Duration.ofSeconds(BotSettings.GOOGLE_RATE_LIMIT_BACKOFF.getOrDefault("30").toLong()).toNanos()
+    private val maxWaitNanos = Duration.ofMillis(BotSettings.GOOGLE_QUOTA_MAX_WAIT_MS.getOrDefault("5000").toLong()).toNanos()
+
+    // The reasons a 403 is about quota. Any other 403 is a plain permission error, backing off wouldn't help
+    private val quotaReasons = setOf("rateLimitExceeded", "userRateLimitExceeded", "quotaExceeded")
+
+    private val credentials = List(BotSettings.CREDENTIALS_COUNT.get().toInt()) { Load(it) }
+
+    // Guild -> its bucket. Those of guilds that were quiet for a while are full again anyway, so they can just expire
+    private val quotaUsers = CacheRegion<Snowflake, TokenBucket>(ttl = Duration.ofMinutes(10), maxSize = 100_000)
+
+    private val throttled = AtomicLong()
+    private val overflowed = AtomicLong()
+    private val shed = AtomicLong()
+
+    /**
+     * The credential a new calendar should be created with: the one with the fewest requests lately among those not
+     * backing off, then the fastest. Ties, like right after startup, are broken randomly.
+     */
+    fun credentialForNewCalendar(): Int {
+        return credentials.filterNot(Load::backingOff).ifEmpty { credentials }
+                .shuffled()
+                .minWithOrNull(compareBy(Load::perSecond).thenBy(Load::latencyMillis))
+                ?.id ?: 0
+    }
+
+    /**
+     * Waits until the call may be sent, if throttling is on.
+     *
+     * @param overflow Whether the call may go out with another credential, only for reads of public calendars.
+     * @return The calendar to send the call for, with the credential to send it with. Errors with
+     * [GoogleQuotaExceededException] when the call would wait longer than allowed.
+     */
+    fun schedule(calData: CalendarData, overflow: Boolean = false): Mono<CalendarData> {
+        if (!throttle) return Mono.just(calData)
+
+        return Mono.defer {
+            val guild = quotaUser(calData.guildId)
+            val guildWait = guild.reserve(maxWaitNanos) ?: return@defer shed("guild ${calData.guildId.asString()}")
+            val own = credentials.getOrNull(calData.credentialId)
+            if (calData.external || own == null) return@defer delay(guildWait, calData)
+
+            val other = if (overflow && (own.backingOff() || !own.bucket.hasToken())) {
+                credentials.filter { it !== own && !it.backingOff() }
+                        .sortedBy(Load::perSecond)
+                        .firstOrNull { it.bucket.tryTake() }
+            } else null
+
+            if (other != null) {
+                overflowed.incrementAndGet()
+                return@defer delay(guildWait, calData.copy(credentialId = other.id))
+            }
+
+            val ownWait = own.bucket.reserve(maxWaitNanos)
+            if (ownWait == null) {
+                // Not sent, so it doesn't count against the guild either
+                guild.refund()
+                shed("credential ${own.id}")
+            } else delay(maxOf(guildWait, ownWait), calData)
+        }
+    }
+
+    /**
+     * Records the response to a call sent with one of DisCal's credentials.
+     *
+     * @param quotaError Whether the response says the credential is over its quota, see [isQuotaError].
+     */
+    fun record(credentialId: Int, quotaError: Boolean, nanos: Long) {
+        credentials.getOrNull(credentialId)?.record(quotaError, nanos)
+    }
+
+    /**
+     * Records a quota error against the guild a call was made for, its `quotaUser`: the guild's calls wait until its
+     * bucket refills. Google limits requests per `quotaUser` too, so this guild is the one to slow down.
+     */
+    fun recordQuotaUser(guildId: Snowflake, quotaError: Boolean) {
+        if (quotaError && throttle) quotaUser(guildId).drain()
+    }
+
+    /**
+     * @param reasons The `reason` of each of the error's `errors`, as Google sent them.
+     * @return Whether a response with [status] means the credential is over its quota.
+     */
+    fun isQuotaError(status: Int, reasons: Collection<String?>): Boolean {
+        return status == 429 || status == 403 && reasons.any { it in quotaReasons }
+    }
+
+    val throttledCount: Long
+        get() = throttled.get()
+
+    val overflowedCount: Long
+        get() = overflowed.get()
+
+    val shedCount: Long
+        get() = shed.get()
+
+    fun getData(): List<GoogleCredentialData> = credentials.map(Load::getData)
+
+    private fun quotaUser(guildId: Snowflake): TokenBucket {
+        lateinit var bucket: TokenBucket
+        // Also pushes the expiry back, so only buckets of guilds that went quiet expire
+        quotaUsers.compute(guildId) { (it ?: TokenBucket(quotaUserRate)).also { found -> bucket = found } }
+        return bucket
+    }
+
+    private fun delay(nanos: Long, calData: CalendarData): Mono<CalendarData> {
+        if (nanos <= 0) return Mono.just(calData)
+
+        throttled.incrementAndGet()
+        return Mono.delay(Duration.ofNanos(nanos)).thenReturn(calData)
+    }
+
+    private fun <T> shed(limit: String): Mono<T> {
+        shed.incrementAndGet()
+        return Mono.error(GoogleQuotaExceededException("Google quota of $limit is booked up for longer than allowed"))
+    }
+
+    private class Load(val id: Int) {
+        val bucket = TokenBucket(credentialRate)
+
+        private val requests = AtomicLong()
+        private val rateLimited = AtomicLong()
+        private val latency = LatencyHistogram()
+        private val recent = DecayingRate()
+
+        @Volatile
+        private var backoffUntil = System.nanoTime()
+
+        @Volatile
+        var latencyMillis = 0.0
+            private set
+
+        fun perSecond() = recent.perSecond()
+
+        fun backingOff() = backoffUntil - System.nanoTime() > 0
+
+        fun record(quotaError: Boolean, nanos: Long) {
+            requests.incrementAndGet()
+            recent.increment()
+            latency.record(nanos)
+            // Smoothed, the histogram never forgets
+            latencyMillis = latencyMillis * 0.9 + nanos / 1_000_000.0 * 0.1
+
+            if (quotaError) {
+                rateLimited.incrementAndGet()
+                backoffUntil = System.nanoTime() + backoffNanos
+            }
+        }
+
+        fun getData() = GoogleCredentialData(
+                id = id,
+                requests = requests.get(),
+                rateLimited = rateLimited.get(),
+                perSecond = perSecond(),
+                latencyP95Millis = latency.snapshot().p95Millis,
+                backingOff = backingOff(),
+        )
+    }
+
+    /**
+     * Holds up to twice [rate] tokens, and refills [rate] per second.
+     */
+    private class TokenBucket(private val rate: Double) {
+        private val capacity = rate * 2
+        private var tokens = capacity
+        private var refilledAt = System.nanoTime()
+
+        @Synchronized
+        fun hasToken(): Boolean {
+            refill()
+            return rate <= 0 || tokens >= 1
+        }
+
+        @Synchronized
+        fun tryTake(): Boolean {
+            if (!hasToken()) return false
+            tokens--
+            return true
+        }
+
+        /**
+         * Takes a token even if there is none yet, callers after this one then wait longer. How far ahead tokens can be
+         * taken is bounded by [maxWait], so the wait can't grow without end.
+         *
+         * @return How long to wait until the token is there, in nanoseconds, or null when that would be longer than
+         * [maxWait] and no token was taken.
+         */
+        @Synchronized
+        fun reserve(maxWait: Long): Long? {
+            if (rate <= 0) return 0
+            refill()
+            val wait = if (tokens >= 1) 0 else ((1 - tokens) / rate * 1_000_000_000).toLong()
+            if (wait > maxWait) return null
+
+            tokens--
+            return wait
+        }
+
+        /**
+         * Takes every token left, so the next call waits for a refill.
+         */
+        @Synchronized
+        fun drain() {
+            if (rate <= 0) return
+            refill()
+            tokens = minOf(tokens, 0.0)
+        }
+
+        /**
+         * Gives back a token taken with [reserve] for a call that wasn't sent after all.
+         */
+        @Synchronized
+        fun refund() {
+            if (rate <= 0) return
+            tokens = minOf(capacity, tokens + 1)
+        }
+
+        private fun refill() {
+            val now = System.nanoTime()
+            tokens = minOf(capacity, tokens + (now - refilledAt) / 1_000_000_000.0 * rate)
+            refilledAt = now
+        }
+    }
+
+    /**
+     * Events per second, where each event counts for less the longer ago it was, down to about a third after a minute.
+     */
+    private class DecayingRate {
+        private var value = 0.0
+        private var at = System.nanoTime()
+
+        @Synchronized
+        fun increment() {
+            decay()
+            value++
+        }
+
+        @Synchronized
+        fun perSecond(): Double {
+            decay()
+            return value / 60
+        }
+
+        private fun decay() {
+            val now = System.nanoTime()
+            value *= exp(-(now - at) / 60_000_000_000.0)
+            at = now
+        }
+    }
+}
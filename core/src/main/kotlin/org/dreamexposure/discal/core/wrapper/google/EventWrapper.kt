@@ -4,6 +4,7 @@ import com.google.api.client.googleapis.json.GoogleJsonResponseException
 import com.google.api.client.util.DateTime
 import com.google.api.services.calendar.Calendar
 import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.Events
 import org.apache.http.HttpStatus
 import org.dreamexposure.discal.core.`object`.calendar.CalendarData
 import org.dreamexposure.discal.core.database.DatabaseManager
@@ -11,31 +12,45 @@ import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal
 import reactor.core.publisher.Mono
 import reactor.core.scheduler.Schedulers
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.Predicate
 
 object EventWrapper {
     fun createEvent(calData: CalendarData, event: Event): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) GoogleCalendarClient.insertEvent(calData, event)
+        else GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
             Mono.fromCallable {
                 service.events()
                         .insert(calData.calendarId, event)
                         .setQuotaUser(calData.guildId.asString())
                         .execute()
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event create failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun patchEvent(calData: CalendarData, event: Event): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
+        val call = when {
+            GoogleBatch.enabled -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                GoogleBatch.queue(calData, service, service.events()
                         .patch(calData.calendarId, event.id, event)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+                        .setQuotaUser(calData.guildId.asString()))
+            }
+            GoogleCalendarClient.enabled -> GoogleCalendarClient.patchEvent(calData, event)
+            else -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                Mono.fromCallable {
+                    service.events()
+                            .patch(calData.calendarId, event.id, event)
+                            .setQuotaUser(calData.guildId.asString())
+                            .execute()
+                }.subscribeOn(Schedulers.boundedElastic())
+            }
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event patch failure", it)
         }.onErrorResume { Mono.empty() }
     }
@@ -54,23 +69,33 @@ object EventWrapper {
     }
 
     fun getEvent(calData: CalendarData, id: String): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
+        val call = when {
+            GoogleBatch.enabled -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                GoogleBatch.queue(calData, service, service.events()
                         .get(calData.calendarId, id)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.filterWhen {
-                /*
-                Don't show "deleted" events
-
-                See "status" flag: https://developers.google.com/calendar/api/v3/reference/events#resource
-                 */
-                if (it.status.equals("cancelled", true)) {
-                    // Delete any announcements tied to it.
-                    DatabaseManager.deleteAnnouncementsForEvent(calData.guildId, id).thenReturn(false)
-                } else Mono.just(true)
-            }.subscribeOn(Schedulers.boundedElastic())
+                        .setQuotaUser(calData.guildId.asString()))
+            }
+            GoogleCalendarClient.enabled -> GoogleCalendarClient.getEvent(calData, id)
+            else -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                Mono.fromCallable {
+                    service.events()
+                            .get(calData.calendarId, id)
+                            .setQuotaUser(calData.guildId.asString())
+                            .execute()
+                }.subscribeOn(Schedulers.boundedElastic())
+            }
+        }
+
+        return call.filterWhen {
+            /*
+            Don't show "deleted" events
+
+            See "status" flag: https://developers.google.com/calendar/api/v3/reference/events#resource
+             */
+            if (it.status.equals("cancelled", true)) {
+                // Delete any announcements tied to it.
+                DatabaseManager.deleteAnnouncementsForEvent(calData.guildId, id).thenReturn(false)
+            } else Mono.just(true)
         }.onErrorResume(GoogleJsonResponseException::class.java) {
             return@onErrorResume when (it.statusCode) {
                 HttpStatus.SC_GONE -> {
@@ -90,7 +115,11 @@ object EventWrapper {
     }
 
     fun getEvents(calData: CalendarData, amount: Int, start: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+        val call = if (GoogleCalendarClient.enabled) listEvents(calData, mapOf(
+                "maxResults" to amount.toString(),
+                "timeMin" to DateTime(start).toStringRfc3339(),
+        ))
+        else GoogleAuthWrapper.getCalendarService(calData, overflow = true).flatMap { service ->
             Mono.fromCallable {
                 service.events()
                         .list(calData.calendarId)
@@ -103,13 +132,20 @@ object EventWrapper {
                         .execute()
                         .items
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(1) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun getEvents(calData: CalendarData, amount: Int, start: Long, end: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
+        val call = if (GoogleCalendarClient.enabled) listEvents(calData, mapOf(
+                "maxResults" to amount.toString(),
+                "timeMin" to DateTime(start).toStringRfc3339(),
+                "timeMax" to DateTime(end).toStringRfc3339(),
+        ))
+        else GoogleAuthWrapper.getCalendarService(calData, overflow = true).flatMap { service: Calendar ->
             Mono.fromCallable {
                 service.events()
                         .list(calData.calendarId)
@@ -122,13 +158,19 @@ object EventWrapper {
                         .setQuotaUser(calData.guildId.asString())
                         .execute().items
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(3) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun getEvents(calData: CalendarData, start: Long, end: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
+        val call = if (GoogleCalendarClient.enabled) listEvents(calData, mapOf(
+                "timeMin" to DateTime(start).toStringRfc3339(),
+                "timeMax" to DateTime(end).toStringRfc3339(),
+        ))
+        else GoogleAuthWrapper.getCalendarService(calData, overflow = true).flatMap { service: Calendar ->
             Mono.fromCallable {
                 service.events()
                         .list(calData.calendarId)
@@ -140,36 +182,130 @@ object EventWrapper {
                         .setQuotaUser(calData.guildId.asString())
                         .execute().items
             }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        }
+
+        return call.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(4) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
-    fun deleteEvent(calData: CalendarData, id: String?): Mono<Boolean> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
+    /**
+     * Lists the event instances of the calendar that end after [start] and start before [end], following all pages.
+     * With a [syncToken] from an earlier listing, only what changed since then is listed, including cancelled (deleted)
+     * instances. Google doesn't take a time window together with a token, so those changes can be anywhere in time.
+     *
+     * Unlike the other calls, errors are emitted, a failed sync must not look like nothing changed. Google answers
+     * 410 when the token is too old to continue from, and a full listing is needed instead.
+     *
+     * @param maxEvents Stops listing once more than this many instances are in, the result is then incomplete and
+     * has no [Events.nextSyncToken].
+     */
+    fun syncEvents(calData: CalendarData, syncToken: String?, maxEvents: Int, start: Long, end: Long): Mono<Events> {
+        if (GoogleCalendarClient.enabled) return syncEventsReactive(calData, syncToken, maxEvents, start, end)
+
+        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
             Mono.fromCallable {
-                val response = service.events()
+                val items = mutableListOf<Event>()
+                var pageToken: String? = null
+                var page: Events
+
+                do {
+                    val request = service.events()
+                            .list(calData.calendarId)
+                            .setMaxResults(2500)
+                            .setSingleEvents(true)
+                            .setPageToken(pageToken)
+                            .setQuotaUser(calData.guildId.asString())
+                    if (syncToken != null) request.syncToken = syncToken
+                    else {
+                        request.showDeleted = false
+                        request.timeMin = DateTime(start)
+                        request.timeMax = DateTime(end)
+                    }
+
+                    page = request.execute()
+                    items += page.items.orEmpty()
+                    pageToken = page.nextPageToken
+                } while (pageToken != null && items.size <= maxEvents)
+
+                Events().setItems(items).setNextSyncToken(if (pageToken == null) page.nextSyncToken else null)
+            }.subscribeOn(Schedulers.boundedElastic())
+        }
+    }
+
+    private fun syncEventsReactive(calData: CalendarData, syncToken: String?, maxEvents: Int, start: Long, end: Long): Mono<Events> {
+        val query = mapOf("maxResults" to "2500", "singleEvents" to "true") +
+                if (syncToken != null) mapOf("syncToken" to syncToken)
+                else mapOf(
+                        "showDeleted" to "false",
+                        "timeMin" to DateTime(start).toStringRfc3339(),
+                        "timeMax" to DateTime(end).toStringRfc3339(),
+                )
+        val listed = AtomicInteger()
+
+        return GoogleCalendarClient.listEvents(calData, query).expand { page ->
+            if (page.nextPageToken != null && listed.addAndGet(page.items.orEmpty().size) <= maxEvents)
+                GoogleCalendarClient.listEvents(calData, query + ("pageToken" to page.nextPageToken))
+            else Mono.empty()
+        }.collectList().map { pages ->
+            val last = pages.last()
+            Events().setItems(pages.flatMap { it.items.orEmpty() })
+                    .setNextSyncToken(if (last.nextPageToken == null) last.nextSyncToken else null)
+        }
+    }
+
+    /**
+     * The reactive client's version of the listings above, ordered by start time with single instances, and without
+     * deleted events. Like those, they may overflow to another credential.
+     */
+    private fun listEvents(calData: CalendarData, query: Map<String, String>): Mono<List<Event>> {
+        return GoogleCalendarClient.listEvents(calData, query + mapOf(
+                "orderBy" to "startTime",
+                "singleEvents" to "true",
+                "showDeleted" to "false",
+        ), overflow = true).flatMap { Mono.justOrEmpty(it.items) }
+    }
+
+    fun deleteEvent(calData: CalendarData, id: String?): Mono<Boolean> {
+        val call = when {
+            GoogleBatch.enabled -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
+                GoogleBatch.queue(calData, service, service.events()
                         .delete(calData.calendarAddress, id)
                         .setQuotaUser(calData.guildId.asString())
-                        .executeUnparsed()
+                ).thenReturn(true).onErrorResume(GoogleJsonResponseException::class.java) {
+                    // Same as below, not found is not an error
+                    if (it.statusCode == 404 || it.statusCode == 410) Mono.just(false)
+                    else Mono.error(it)
+                }
+            }
+            GoogleCalendarClient.enabled -> GoogleCalendarClient.deleteEvent(calData, id)
+            else -> GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
+                Mono.fromCallable {
+                    val response = service.events()
+                            .delete(calData.calendarAddress, id)
+                            .setQuotaUser(calData.guildId.asString())
+                            .executeUnparsed()
 
-                //Google sends 4 possible status codes, 200, 204, 404, 410.
-                // First 2 should be treated as successful, and the other 2 as not found.
-                when (response.statusCode) {
-                    200, 204 -> {
-                        return@fromCallable true
+                    //Google sends 4 possible status codes, 200, 204, 404, 410.
+                    // First 2 should be treated as successful, and the other 2 as not found.
+                    when (response.statusCode) {
+                        200, 204 -> {
+                            return@fromCallable true
+                        }
+                        404, 410 -> {
+                            return@fromCallable false
+                        }
+                        else -> {
+                            //Log response data and return false as google sent an unexpected response code.
+                            LOGGER.debug(GlobalVal.DEFAULT, "Event delete error | ${response.statusCode} | ${response.statusMessage}")
+                            return@fromCallable false
+                        }
                     }
-                    404, 410 -> {
-                        return@fromCallable false
-                    }
-                    else -> {
-                        //Log response data and return false as google sent an unexpected response code.
-                        LOGGER.debug(GlobalVal.DEFAULT, "Event delete error | ${response.statusCode} | ${response.statusMessage}")
-                        return@fromCallable false
-                    }
-                }
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError(GoogleJsonResponseException::class.java) {
+                }.subscribeOn(Schedulers.boundedElastic())
+            }
+        }
+
+        return call.doOnError(GoogleJsonResponseException::class.java) {
             if (it.statusCode != 410 || it.statusCode != 404) {
                 LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event delete failure", it)
             }
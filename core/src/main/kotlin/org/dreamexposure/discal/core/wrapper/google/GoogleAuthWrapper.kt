@@ -1,9 +1,6 @@
 package org.dreamexposure.discal.core.wrapper.google
 
-import com.google.api.client.auth.oauth2.Credential
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential
 import com.google.api.client.http.HttpStatusCodes
-import com.google.api.client.http.javanet.NetHttpTransport
 import com.google.api.client.json.gson.GsonFactory
 import com.google.api.services.calendar.CalendarScopes
 import discord4j.common.util.Snowflake
@@ -29,7 +26,6 @@ import reactor.core.publisher.Mono
 import reactor.core.scheduler.Schedulers
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
-import kotlin.random.Random
 import com.google.api.services.calendar.Calendar as GoogleCalendarService
 
 @Suppress("BlockingMethodInNonBlockingContext")
@@ -39,29 +35,29 @@ object GoogleAuthWrapper {
     private val discalTokens: MutableMap<Int, CredentialData> = ConcurrentHashMap()
     private val externalTokens: MutableMap<Snowflake, CredentialData> = ConcurrentHashMap()
 
-    private fun authorize(credentialId: Int): Mono<Credential> {
-        return getAccessToken(credentialId)
-                .map(GoogleCredential()::setAccessToken)
-                .ofType(Credential::class.java) //Cast down to the class it extends
-                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
-    }
+    // Where Google's APIs are, only ever changed to point tests at a fake
+    internal val rootUrl: String = BotSettings.GOOGLE_API_URL.getOrDefault("https://www.googleapis.com/")
 
-    private fun authorize(calData: CalendarData): Mono<Credential> {
-        return Mono.just(calData).filter { !"N/a".equals(calData.encryptedAccessToken, true) }
-                .flatMap(this::getAccessToken)
-                .map(GoogleCredential()::setAccessToken)
-                .ofType(Credential::class.java) //Cast down to the class it extends
-                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
-    }
+    // Built once per credential and kept, requests read the credential's current token when they are sent.
+    // They all share GoogleTransport's connections.
+    private val discalServices: MutableMap<Int, GoogleCalendarService> = ConcurrentHashMap()
+    private val externalServices: MutableMap<Snowflake, GoogleCalendarService> = ConcurrentHashMap()
 
-    private fun buildService(credential: Credential): GoogleCalendarService {
+    private fun buildService(accessToken: () -> String, onResponse: ((Boolean, Long) -> Unit)? = null): GoogleCalendarService {
+        return GoogleCalendarService.Builder(GoogleTransport.transport, GsonFactory.getDefaultInstance()) {
+            GoogleTransport.initialize(it, accessToken, onResponse)
+        }.setRootUrl(rootUrl).setApplicationName("DisCal").build()
+    }
 
-        return GoogleCalendarService.Builder(NetHttpTransport(), GsonFactory.getDefaultInstance(), credential)
-                .setApplicationName("DisCal")
-                .build()
+    private fun discalService(credentialId: Int): GoogleCalendarService {
+        return discalServices.computeIfAbsent(credentialId) { id ->
+            buildService({ discalTokens[id]?.accessToken.orEmpty() }) { quotaError, nanos ->
+                CredentialScheduler.record(id, quotaError, nanos)
+            }
+        }
     }
 
-    private fun getAccessToken(credentialId: Int): Mono<String> {
+    private fun getDiscalAccessToken(credentialId: Int): Mono<String> {
         val token = discalTokens[credentialId]
         if (token != null && !token.isExpired()) {
             return Mono.just(token.accessToken)
@@ -102,7 +98,7 @@ object GoogleAuthWrapper {
         }
     }
 
-    private fun getAccessToken(calData: CalendarData): Mono<String> {
+    private fun getExternalAccessToken(calData: CalendarData): Mono<String> {
         val token = externalTokens[calData.guildId]
         if (token != null && !token.isExpired()) {
             return Mono.just(token.accessToken)
@@ -152,24 +148,46 @@ object GoogleAuthWrapper {
         }
     }
 
-    fun getCalendarService(calData: CalendarData): Mono<GoogleCalendarService> {
+    /**
+     * The service to call Google with for the calendar, once [CredentialScheduler] lets the call through.
+     *
+     * @param overflow Whether the call may be sent with another of DisCal's credentials, see [CredentialScheduler].
+     */
+    fun getCalendarService(calData: CalendarData, overflow: Boolean = false): Mono<GoogleCalendarService> {
+        return CredentialScheduler.schedule(calData, overflow).flatMap { scheduled ->
+            // Fetched first so the token is fresh, the service reads it from the map with every request
+            getAccessToken(scheduled).map {
+                if (scheduled.external) {
+                    externalServices.computeIfAbsent(scheduled.guildId) { guildId ->
+                        buildService({ externalTokens[guildId]?.accessToken.orEmpty() })
+                    }
+                } else discalService(scheduled.credentialId)
+            }
+        }
+    }
+
+    fun getCalendarService(credentialId: Int): Mono<GoogleCalendarService> {
+        return getAccessToken(credentialId).map { discalService(credentialId) }
+    }
+
+    /**
+     * The calendar's current access token, fetching a new one when needed.
+     */
+    fun getAccessToken(calData: CalendarData): Mono<String> {
         return Mono.defer {
             if (calData.external) {
-                authorize(calData).map(this::buildService)
+                Mono.just(calData).filter { !"N/a".equals(calData.encryptedAccessToken, true) }
+                        .flatMap(this::getExternalAccessToken)
             } else {
-                getCalendarService(calData.credentialId)
+                getDiscalAccessToken(calData.credentialId)
             }
         }.switchIfEmpty(Mono.error(EmptyNotAllowedException()))
     }
 
-    fun getCalendarService(credentialId: Int): Mono<GoogleCalendarService> {
-        return authorize(credentialId)
-                .map(this::buildService)
-                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
+    fun getAccessToken(credentialId: Int): Mono<String> {
+        return getDiscalAccessToken(credentialId).switchIfEmpty(Mono.error(EmptyNotAllowedException()))
     }
 
-    fun randomCredentialId() = Random.nextInt(BotSettings.CREDENTIALS_COUNT.get().toInt())
-
     fun requestDeviceCode(): Mono<Response> {
         return Mono.fromCallable {
             val body = FormBody.Builder()
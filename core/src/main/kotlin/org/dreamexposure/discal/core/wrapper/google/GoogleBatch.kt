@@ -0,0 +1,168 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import com.google.api.client.googleapis.batch.BatchRequest
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback
+import com.google.api.client.googleapis.json.GoogleJsonError
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import com.google.api.client.http.GenericUrl
+import com.google.api.client.http.HttpHeaders
+import com.google.api.client.http.HttpResponseException
+import com.google.api.services.calendar.CalendarRequest
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoSink
+import reactor.core.scheduler.Schedulers
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import com.google.api.services.calendar.Calendar as GoogleCalendarService
+
+/**
+ * Opt-in with `GOOGLE_BATCH`. Sends Calendar requests made around the same time with the same credential together, as
+ * one Google batch request (a multipart/mixed POST), instead of one HTTP request each.
+ *
+ * The first request queued for a credential waits up to `GOOGLE_BATCH_LINGER_MS` for others to join it. The batch is
+ * sent when that time is up, or as soon as it holds `GOOGLE_BATCH_SIZE` requests. Each caller gets its own request's
+ * result or error, as if it had been sent alone. Google still counts every request in a batch against the quota, what
+ * is saved is the round trips. So each request's own response is recorded with [CredentialScheduler], against its
+ * credential and its guild (the `quotaUser`), the same as a request sent alone. The batch itself counts as one more.
+ *
+ * Used by [EventWrapper] for the calls that come in bursts: getting the events of announcements, and patching and
+ * deleting events. It takes precedence over [GoogleCalendarClient] for those.
+ */
+internal object GoogleBatch {
+    private val batchUrl = "${GoogleAuthWrapper.rootUrl}batch/calendar/v3"
+
+    val enabled = BotSettings.GOOGLE_BATCH.getOrDefault("false").toBoolean()
+    // Google takes up to 1000, but recommends keeping Calendar batches small
+    private val maxSize = BotSettings.GOOGLE_BATCH_SIZE.getOrDefault("50").toInt().coerceIn(1, 1000)
+    private val linger = Duration.ofMillis(BotSettings.GOOGLE_BATCH_LINGER_MS.getOrDefault("10").toLong())
+
+    // One per credential, since a service is built once per credential
+    private val collectors: MutableMap<GoogleCalendarService, Collector> = ConcurrentHashMap()
+
+    private val batches = AtomicLong()
+    private val batched = AtomicLong()
+    private val savedPerMinute = GoogleTransport.MinuteCounter()
+
+    /**
+     * Queues the request into the credential's next batch.
+     *
+     * @param calData The calendar the request is for, which its response is recorded against.
+     * @param service The service the request was built with, which decides the credential.
+     * @return The result, or empty for requests without one (deletes).
+     */
+    fun <T> queue(calData: CalendarData, service: GoogleCalendarService, request: CalendarRequest<T>): Mono<T> {
+        return Mono.create { sink ->
+            collectors.computeIfAbsent(service, ::Collector).add(Queued(calData, request, sink))
+        }
+    }
+
+    val batchCount: Long
+        get() = batches.get()
+
+    val batchedRequests: Long
+        get() = batched.get()
+
+    /**
+     * HTTP requests that batching saved per second, over the last full minute.
+     */
+    val savedPerSecond: Double
+        get() = savedPerMinute.lastMinute() / 60.0
+
+    private class Collector(private val service: GoogleCalendarService) {
+        private var queued = mutableListOf<Queued<*>>()
+
+        fun add(request: Queued<*>) {
+            val full = synchronized(this) {
+                val current = queued
+                current += request
+
+                when {
+                    current.size >= maxSize -> take(current)
+                    current.size == 1 -> {
+                        Schedulers.parallel().schedule({ take(current)?.let(::send) }, linger.toMillis(), TimeUnit.MILLISECONDS)
+                        null
+                    }
+                    else -> null
+                }
+            }
+            full?.let(::send)
+        }
+
+        /**
+         * @return The batch, or null when it was already taken (and sent) for being full.
+         */
+        @Synchronized
+        private fun take(batch: MutableList<Queued<*>>): List<Queued<*>>? {
+            if (queued !== batch) return null
+            queued = mutableListOf()
+            return batch
+        }
+
+        private fun send(requests: List<Queued<*>>) {
+            Schedulers.boundedElastic().schedule {
+                if (requests.size == 1) {
+                    // Nothing to batch with, the batch envelope would only add overhead
+                    requests.first().execute()
+                    return@schedule
+                }
+
+                try {
+                    val batch = service.batch(service.requestFactory.initializer).setBatchUrl(GenericUrl(batchUrl))
+                    val start = System.nanoTime()
+                    requests.forEach { it.queue(batch, start) }
+                    batch.execute()
+
+                    batches.incrementAndGet()
+                    batched.addAndGet(requests.size.toLong())
+                    savedPerMinute.add(requests.size - 1L)
+                } catch (e: Exception) {
+                    LOGGER.error(DEFAULT, "[G.Cal] Batch of ${requests.size} failure", e)
+                    // Callers whose part was already answered ignore this
+                    requests.forEach { it.sink.error(e) }
+                }
+            }
+        }
+    }
+
+    private class Queued<T>(val calData: CalendarData, val request: CalendarRequest<T>, val sink: MonoSink<T>) {
+        fun execute() {
+            try {
+                sink.success(request.execute())
+            } catch (e: Exception) {
+                sink.error(e)
+            }
+        }
+
+        /**
+         * @param start When the batch is sent, the request's response takes as long as the whole batch.
+         */
+        fun queue(batch: BatchRequest, start: Long) {
+            fun record(quotaError: Boolean) {
+                if (!calData.external) CredentialScheduler.record(calData.credentialId, quotaError, System.nanoTime() - start)
+                CredentialScheduler.recordQuotaUser(calData.guildId, quotaError)
+            }
+
+            request.queue(batch, object : JsonBatchCallback<T>() {
+                override fun onSuccess(result: T?, responseHeaders: HttpHeaders) {
+                    record(false)
+                    sink.success(result)
+                }
+
+                override fun onFailure(e: GoogleJsonError, responseHeaders: HttpHeaders) {
+                    record(CredentialScheduler.isQuotaError(e.code, e.errors.orEmpty().map { it.reason }))
+
+                    // The same exception the request would have thrown when sent alone
+                    val builder = HttpResponseException.Builder(e.code, e.message, responseHeaders)
+                        .setMessage("${e.code} ${e.message}")
+                    sink.error(GoogleJsonResponseException(builder, e))
+                }
+            })
+        }
+    }
+}
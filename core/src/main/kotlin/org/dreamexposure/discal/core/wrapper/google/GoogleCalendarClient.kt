@@ -0,0 +1,216 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer
+import com.google.api.client.googleapis.json.GoogleJsonResponseException
+import com.google.api.client.http.HttpHeaders
+import com.google.api.client.http.HttpResponseException
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.services.calendar.model.AclRule
+import com.google.api.services.calendar.model.Calendar
+import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.Events
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.springframework.core.io.buffer.DataBuffer
+import org.springframework.core.io.buffer.DataBufferUtils
+import org.springframework.http.HttpMethod
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.client.reactive.ReactorClientHttpConnector
+import org.springframework.web.reactive.function.BodyExtractors
+import org.springframework.web.reactive.function.client.ClientResponse
+import org.springframework.web.reactive.function.client.WebClient
+import reactor.core.publisher.Mono
+import reactor.netty.http.client.HttpClient
+import reactor.netty.resources.ConnectionProvider
+import java.nio.charset.StandardCharsets
+import java.time.Duration
+
+/**
+ * A non-blocking client for the parts of the Calendar v3 API DisCal uses, on the WebClient/Reactor Netty stack.
+ * Opt-in with `GOOGLE_REACTIVE_CLIENT`, which switches [EventWrapper], [CalendarWrapper] and [AclRuleWrapper] over to
+ * it. Calls then wait on the network without holding a thread.
+ *
+ * Results are Google's own model classes, parsed with Google's JSON parser straight from the response buffers, so
+ * callers can't tell the two clients apart. Errors are [GoogleJsonResponseException]s like the blocking client's.
+ */
+internal object GoogleCalendarClient {
+    // A full page of 2500 events with long descriptions is a few MB
+    private const val MAX_BODY_BYTES = 16 * 1024 * 1024
+
+    val enabled = BotSettings.GOOGLE_REACTIVE_CLIENT.getOrDefault("false").toBoolean()
+
+    private val json = GsonFactory.getDefaultInstance()
+
+    private val client = WebClient.builder()
+        .baseUrl("${GoogleAuthWrapper.rootUrl}calendar/v3")
+        .clientConnector(ReactorClientHttpConnector(
+            HttpClient.create(
+                ConnectionProvider.builder("google-calendar")
+                    .maxConnections(BotSettings.GOOGLE_HTTP_MAX_PER_HOST.getOrDefault("100").toInt())
+                    .pendingAcquireMaxCount(-1)
+                    .maxIdleTime(Duration.ofSeconds(BotSettings.GOOGLE_HTTP_IDLE_SECONDS.getOrDefault("60").toLong()))
+                    .maxLifeTime(Duration.ofSeconds(BotSettings.GOOGLE_HTTP_CONNECTION_TTL.getOrDefault("300").toLong()))
+                    .build()
+            ).doOnConnected { GoogleTransport.countHandshake() }
+                .responseTimeout(Duration.ofSeconds(20))
+        )).build()
+
+    /* Calendars */
+
+    fun getCalendar(calData: CalendarData): Mono<Calendar> {
+        return exchange(calData, HttpMethod.GET, "/calendars/{calendarId}",
+            mapOf("calendarId" to calData.calendarAddress), read = decode(Calendar::class.java))
+    }
+
+    fun insertCalendar(calendar: Calendar, credentialId: Int, guildId: Snowflake): Mono<Calendar> {
+        // Not a calendar yet, just who creates it
+        val calData = CalendarData(guildId, host = CalendarHost.GOOGLE, credentialId = credentialId)
+
+        return exchange(calData, HttpMethod.POST, "/calendars", emptyMap(), body = calendar,
+            read = decode(Calendar::class.java))
+    }
+
+    fun patchCalendar(calendar: Calendar, calData: CalendarData): Mono<Calendar> {
+        return exchange(calData, HttpMethod.PATCH, "/calendars/{calendarId}",
+            mapOf("calendarId" to calendar.id), body = calendar, read = decode(Calendar::class.java))
+    }
+
+    fun deleteCalendar(calData: CalendarData): Mono<Void> {
+        return exchange(calData, HttpMethod.DELETE, "/calendars/{calendarId}",
+            mapOf("calendarId" to calData.calendarAddress), read = ClientResponse::releaseBody)
+    }
+
+    /* Events */
+
+    /**
+     * A single page of events.
+     *
+     * @param query Query parameters as Google expects them, dates in RFC 3339.
+     * @param overflow Whether the call may be sent with another credential, see [CredentialScheduler].
+     */
+    fun listEvents(calData: CalendarData, query: Map<String, String>, overflow: Boolean = false): Mono<Events> {
+        return exchange(calData, HttpMethod.GET, "/calendars/{calendarId}/events",
+            mapOf("calendarId" to calData.calendarId), query, overflow = overflow, read = decode(Events::class.java))
+    }
+
+    fun getEvent(calData: CalendarData, id: String): Mono<Event> {
+        return exchange(calData, HttpMethod.GET, "/calendars/{calendarId}/events/{eventId}",
+            mapOf("calendarId" to calData.calendarId, "eventId" to id), read = decode(Event::class.java))
+    }
+
+    fun insertEvent(calData: CalendarData, event: Event): Mono<Event> {
+        return exchange(calData, HttpMethod.POST, "/calendars/{calendarId}/events",
+            mapOf("calendarId" to calData.calendarId), body = event, read = decode(Event::class.java))
+    }
+
+    fun patchEvent(calData: CalendarData, event: Event): Mono<Event> {
+        return exchange(calData, HttpMethod.PATCH, "/calendars/{calendarId}/events/{eventId}",
+            mapOf("calendarId" to calData.calendarId, "eventId" to event.id), body = event,
+            read = decode(Event::class.java))
+    }
+
+    /**
+     * @return Whether the event was deleted, false if it didn't exist (anymore).
+     */
+    fun deleteEvent(calData: CalendarData, id: String?): Mono<Boolean> {
+        return exchange(calData, HttpMethod.DELETE, "/calendars/{calendarId}/events/{eventId}",
+            mapOf("calendarId" to calData.calendarAddress, "eventId" to id.orEmpty()),
+            read = { it.releaseBody().thenReturn(true) }
+        ).onErrorResume(GoogleJsonResponseException::class.java) {
+            if (it.statusCode == HttpStatus.NOT_FOUND.value() || it.statusCode == HttpStatus.GONE.value()) Mono.just(false)
+            else Mono.error(it)
+        }
+    }
+
+    /* Acl */
+
+    fun insertAclRule(rule: AclRule, calData: CalendarData): Mono<AclRule> {
+        return exchange(calData, HttpMethod.POST, "/calendars/{calendarId}/acl",
+            mapOf("calendarId" to calData.calendarId), body = rule, read = decode(AclRule::class.java))
+    }
+
+    /**
+     * Path and query values are passed as URI variables, so they are fully encoded (calendar ids contain `@` and `#`,
+     * sync tokens can contain `+` and `=`).
+     */
+    private fun <T> exchange(
+        calData: CalendarData,
+        method: HttpMethod,
+        path: String,
+        pathVariables: Map<String, String>,
+        query: Map<String, String> = emptyMap(),
+        body: Any? = null,
+        overflow: Boolean = false,
+        read: (ClientResponse) -> Mono<T>,
+    ): Mono<T> {
+        return CredentialScheduler.schedule(calData, overflow).flatMap { scheduled ->
+            GoogleAuthWrapper.getAccessToken(scheduled).map { scheduled to it }
+        }.flatMap { (scheduled, token) ->
+            val request = client.method(method)
+                .uri { uri ->
+                    uri.path(path)
+                    query.keys.forEach { uri.queryParam(it, "{$it}") }
+                    uri.queryParam("quotaUser", "{quotaUser}")
+                    uri.build(pathVariables + query + ("quotaUser" to scheduled.guildId.asString()))
+                }.headers { it.setBearerAuth(token) }
+
+            val withBody = if (body != null) {
+                request.contentType(MediaType.APPLICATION_JSON).bodyValue(json.toByteArray(body))
+            } else request
+
+            val start = System.nanoTime()
+            withBody.exchangeToMono { response ->
+                val nanos = System.nanoTime() - start
+                GoogleTransport.recordCall(nanos)
+
+                if (response.rawStatusCode() in 200..299) {
+                    if (!scheduled.external) CredentialScheduler.record(scheduled.credentialId, false, nanos)
+                    read(response)
+                } else error<T>(response).doOnError(GoogleJsonResponseException::class.java) {
+                    // Only Google's error body says whether a 403 is about quota
+                    val reasons = it.details?.errors?.map { e -> e.reason }.orEmpty()
+                    val quotaError = CredentialScheduler.isQuotaError(it.statusCode, reasons)
+
+                    if (!scheduled.external) CredentialScheduler.record(scheduled.credentialId, quotaError, nanos)
+                    CredentialScheduler.recordQuotaUser(scheduled.guildId, quotaError)
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the whole body, then parses it. Google's model classes can only be filled in by Google's own parser,
+     * and that one pulls from a stream, it can't be fed buffers as they arrive. Pulling from a stream of buffers still
+     * in flight would block the event loop, so the body is gathered first. No thread waits for it meanwhile, and the
+     * buffers are read in place, not copied into a string.
+     *
+     * A body is one page of results, so it stays small. Anything over [MAX_BODY_BYTES] fails with
+     * [org.springframework.core.io.buffer.DataBufferLimitException] instead of being held in memory.
+     */
+    private fun <T> decode(type: Class<T>): (ClientResponse) -> Mono<T> = { response ->
+        DataBufferUtils.join(response.body(BodyExtractors.toDataBuffers()), MAX_BODY_BYTES).map { parse(it, type) }
+    }
+
+    private fun <T> parse(buffer: DataBuffer, type: Class<T>): T {
+        // Releases the buffer when the parser closes it
+        return json.createJsonParser(buffer.asInputStream(true), StandardCharsets.UTF_8).parseAndClose(type)
+    }
+
+    private fun <T> error(response: ClientResponse): Mono<T> {
+        val status = response.rawStatusCode()
+        val builder = {
+            // Not every status Google sends is one Spring knows
+            HttpResponseException.Builder(status, HttpStatus.resolve(status)?.reasonPhrase, HttpHeaders())
+        }
+
+        return DataBufferUtils.join(response.body(BodyExtractors.toDataBuffers()), MAX_BODY_BYTES)
+            .flatMap { Mono.justOrEmpty(parse(it, GoogleJsonErrorContainer::class.java).error) }
+            .onErrorResume { Mono.empty() } // Not Google's error format, the status says enough
+            .map { GoogleJsonResponseException(builder().setMessage("$status ${it.message}"), it) }
+            .defaultIfEmpty(GoogleJsonResponseException(builder().setMessage("$status"), null))
+            .flatMap { Mono.error<T>(it) }
+    }
+}
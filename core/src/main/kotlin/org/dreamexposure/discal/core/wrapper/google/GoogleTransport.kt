@@ -0,0 +1,207 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer
+import com.google.api.client.http.HttpExecuteInterceptor
+import com.google.api.client.http.HttpRequest
+import com.google.api.client.http.HttpResponseInterceptor
+import com.google.api.client.http.apache.v2.ApacheHttpTransport
+import com.google.api.client.json.gson.GsonFactory
+import org.apache.http.HttpHost
+import org.apache.http.config.RegistryBuilder
+import org.apache.http.conn.socket.ConnectionSocketFactory
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory
+import org.apache.http.conn.socket.PlainConnectionSocketFactory
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory
+import org.apache.http.entity.BufferedHttpEntity
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
+import org.apache.http.protocol.HttpContext
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.network.discal.GoogleHttpData
+import org.dreamexposure.discal.core.database.LatencyHistogram
+import java.io.InputStream
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import org.apache.http.HttpResponseInterceptor as ApacheResponseInterceptor
+
+/**
+ * The one HTTP transport every Google Calendar call goes through.
+ *
+ * Connections are pooled and kept alive between calls, so a call usually reuses a connection that already did its TLS
+ * handshake instead of doing a new one. Limits are set with `GOOGLE_HTTP_MAX_CONNECTIONS` in total and
+ * `GOOGLE_HTTP_MAX_PER_HOST` per host. Idle connections are closed after `GOOGLE_HTTP_IDLE_SECONDS`, and every
+ * connection is replaced after `GOOGLE_HTTP_CONNECTION_TTL` seconds so load still spreads over Google's frontends.
+ *
+ * New connections (handshakes) and the latency of every call are counted, see [getData]. [GoogleCalendarClient] has
+ * its own connections, but reports into the same numbers.
+ */
+internal object GoogleTransport {
+    // Google's client hands its response interceptors only the status, and reads an error's body once, when it builds
+    // the exception. So 403 bodies are buffered on the way in, where they can be read twice, and their reasons are
+    // passed along as this header.
+    private const val ERROR_REASONS_HEADER = "X-DisCal-Error-Reasons"
+
+    private val connections = PoolingHttpClientConnectionManager(
+        RegistryBuilder.create<ConnectionSocketFactory>()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", CountingSocketFactory(SSLConnectionSocketFactory.getSystemSocketFactory()))
+            .build(),
+        null, null, null,
+        BotSettings.GOOGLE_HTTP_CONNECTION_TTL.getOrDefault("300").toLong(), TimeUnit.SECONDS,
+    ).apply {
+        maxTotal = BotSettings.GOOGLE_HTTP_MAX_CONNECTIONS.getOrDefault("200").toInt()
+        defaultMaxPerRoute = BotSettings.GOOGLE_HTTP_MAX_PER_HOST.getOrDefault("100").toInt()
+        // Google closes idle connections on its end too, check those that sat for a bit before handing them out
+        validateAfterInactivity = 2000
+    }
+
+    val transport = ApacheHttpTransport(
+        ApacheHttpTransport.newDefaultHttpClientBuilder()
+            .setConnectionManager(connections)
+            .evictIdleConnections(BotSettings.GOOGLE_HTTP_IDLE_SECONDS.getOrDefault("60").toLong(), TimeUnit.SECONDS)
+            .addInterceptorLast(ApacheResponseInterceptor { response, _ ->
+                if (response.statusLine.statusCode == 403 && response.entity != null) {
+                    response.entity = BufferedHttpEntity(response.entity)
+                    response.addHeader(ERROR_REASONS_HEADER, errorReasons(response.entity.content).joinToString(","))
+                }
+            })
+            .build()
+    )
+
+    private val handshakes = AtomicLong()
+    private val handshakesPerMinute = MinuteCounter()
+    private val handshakeLatency = LatencyHistogram()
+
+    private val requests = AtomicLong()
+    private val latency = LatencyHistogram()
+
+    /**
+     * Sets the access token on the request when it is sent, and times it.
+     *
+     * @param accessToken Read for every request, so a refreshed token is picked up without building anything again.
+     * @param onResponse Gets whether every response is a quota error (see [CredentialScheduler.isQuotaError]) and its
+     * time.
+     */
+    fun initialize(request: HttpRequest, accessToken: () -> String, onResponse: ((Boolean, Long) -> Unit)? = null) {
+        var start = 0L
+        request.interceptor = HttpExecuteInterceptor {
+            it.headers.authorization = "Bearer ${accessToken()}"
+            start = System.nanoTime()
+        }
+        request.responseInterceptor = HttpResponseInterceptor {
+            val nanos = System.nanoTime() - start
+            recordCall(nanos)
+
+            val reasons = it.headers.getFirstHeaderStringValue(ERROR_REASONS_HEADER)?.split(",").orEmpty()
+            onResponse?.invoke(CredentialScheduler.isQuotaError(it.statusCode, reasons), nanos)
+        }
+    }
+
+    /**
+     * @return The `reason` of each of the errors in a Google error [body], none if it isn't Google's error format.
+     */
+    fun errorReasons(body: InputStream): List<String?> {
+        return try {
+            GsonFactory.getDefaultInstance().createJsonParser(body).parseAndClose(GoogleJsonErrorContainer::class.java)
+                .error?.errors?.map { it.reason }.orEmpty()
+        } catch (e: Exception) {
+            emptyList()
+        }
+    }
+
+    /**
+     * For calls that don't go through [transport], so they are still in [getData].
+     */
+    fun recordCall(nanos: Long) {
+        requests.incrementAndGet()
+        latency.record(nanos)
+    }
+
+    fun countHandshake() {
+        handshakes.incrementAndGet()
+        handshakesPerMinute.increment()
+    }
+
+    fun getData(): GoogleHttpData {
+        val pool = connections.totalStats
+        val handshake = handshakeLatency.snapshot()
+        val calls = latency.snapshot()
+
+        return GoogleHttpData(
+            leased = pool.leased,
+            available = pool.available,
+            pending = pool.pending,
+            max = pool.max,
+            handshakes = handshakes.get(),
+            handshakesLastMinute = handshakesPerMinute.lastMinute(),
+            handshakeP95Millis = handshake.p95Millis,
+            requests = requests.get(),
+            latencyP50Millis = calls.p50Millis,
+            latencyP95Millis = calls.p95Millis,
+            latencyP99Millis = calls.p99Millis,
+            batches = GoogleBatch.batchCount,
+            batchedRequests = GoogleBatch.batchedRequests,
+            batchSavedPerSecond = GoogleBatch.savedPerSecond,
+            quotaThrottled = CredentialScheduler.throttledCount,
+            quotaOverflowed = CredentialScheduler.overflowedCount,
+            quotaShed = CredentialScheduler.shedCount,
+            credentials = CredentialScheduler.getData(),
+        )
+    }
+
+    /**
+     * Counts and times every new connection, which is a TCP connect plus the TLS handshake.
+     */
+    private class CountingSocketFactory(
+        private val delegate: LayeredConnectionSocketFactory,
+    ) : LayeredConnectionSocketFactory by delegate {
+        override fun connectSocket(
+            connectTimeout: Int,
+            sock: Socket?,
+            host: HttpHost,
+            remoteAddress: InetSocketAddress,
+            localAddress: InetSocketAddress?,
+            context: HttpContext,
+        ): Socket {
+            val start = System.nanoTime()
+            val socket = delegate.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context)
+
+            handshakeLatency.record(System.nanoTime() - start)
+            countHandshake()
+            return socket
+        }
+    }
+
+    /**
+     * Counts per wall clock minute, reporting the last full one.
+     */
+    internal class MinuteCounter {
+        private var minute = 0L
+        private var current = 0L
+        private var previous = 0L
+
+        fun increment() = add(1)
+
+        @Synchronized
+        fun add(count: Long) {
+            roll()
+            current += count
+        }
+
+        @Synchronized
+        fun lastMinute(): Long {
+            roll()
+            return previous
+        }
+
+        private fun roll() {
+            val now = System.currentTimeMillis() / 60_000
+            if (now == minute) return
+
+            previous = if (now == minute + 1) current else 0
+            current = 0
+            minute = now
+        }
+    }
+}
@@ -0,0 +1,15 @@
+# noinspection SqlResolveForFile
+
+# Stored, indexed bucket of the guild's snowflake so shard-local reads can use an index instead of MOD() on every row.
+# The bucket is the shifted id modulo the bucket count, with its bits reversed. That way the low bits of the id, which
+# decide the shard, are the high bits of the bucket, and a shard's guilds are one range of buckets for any power of two
+# shard count. The range is derived at query time, so changing the shard count needs no rewrite.
+ALTER TABLE announcements
+    ADD COLUMN shard_bucket SMALLINT UNSIGNED AS (CAST(CONV(REVERSE(LPAD(BIN(MOD(guild_id >> 22, ${shard_buckets})),
+        ${shard_bucket_bits}, '0')), 2, 10) AS UNSIGNED)) STORED,
+    ADD INDEX announcements_shard_bucket_index (shard_bucket);
+
+ALTER TABLE static_messages
+    ADD COLUMN shard_bucket SMALLINT UNSIGNED AS (CAST(CONV(REVERSE(LPAD(BIN(MOD(guild_id >> 22, ${shard_buckets})),
+        ${shard_bucket_bits}, '0')), 2, 10) AS UNSIGNED)) STORED,
+    ADD INDEX static_messages_shard_bucket_index (shard_bucket);
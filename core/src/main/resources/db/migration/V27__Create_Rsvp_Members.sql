@@ -0,0 +1,60 @@
+# noinspection SqlResolveForFile
+
+# One row per user per event instead of five comma-joined lists on the rsvp row,
+# so a single user's RSVP change is a single row write.
+# Status values match RsvpStatus. Position orders users within a status (waitlist order).
+CREATE TABLE IF NOT EXISTS rsvp_members
+(
+    guild_id BIGINT       NOT NULL,
+    event_id VARCHAR(255) NOT NULL,
+    user_id  BIGINT       NOT NULL,
+    status   TINYINT      NOT NULL,
+    position BIGINT       NOT NULL,
+    PRIMARY KEY (guild_id, event_id, user_id),
+    INDEX rsvp_members_status_index (guild_id, event_id, status, position)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
+
+# Backfill from the old lists, keeping their order. A user should only ever be in one list,
+# but if not, the first list they appear in here wins.
+INSERT IGNORE INTO rsvp_members (guild_id, event_id, user_id, status, position)
+SELECT r.guild_id, r.event_id, CAST(j.user_id AS UNSIGNED), 1, j.position
+FROM rsvp r,
+     JSON_TABLE(CONCAT('["', REPLACE(r.going_on_time, ',', '","'), '"]'), '$[*]'
+                COLUMNS (position FOR ORDINALITY, user_id VARCHAR(32) PATH '$')) j
+WHERE j.user_id <> '';
+
+INSERT IGNORE INTO rsvp_members (guild_id, event_id, user_id, status, position)
+SELECT r.guild_id, r.event_id, CAST(j.user_id AS UNSIGNED), 2, j.position
+FROM rsvp r,
+     JSON_TABLE(CONCAT('["', REPLACE(r.going_late, ',', '","'), '"]'), '$[*]'
+                COLUMNS (position FOR ORDINALITY, user_id VARCHAR(32) PATH '$')) j
+WHERE j.user_id <> '';
+
+INSERT IGNORE INTO rsvp_members (guild_id, event_id, user_id, status, position)
+SELECT r.guild_id, r.event_id, CAST(j.user_id AS UNSIGNED), 3, j.position
+FROM rsvp r,
+     JSON_TABLE(CONCAT('["', REPLACE(r.not_going, ',', '","'), '"]'), '$[*]'
+                COLUMNS (position FOR ORDINALITY, user_id VARCHAR(32) PATH '$')) j
+WHERE j.user_id <> '';
+
+INSERT IGNORE INTO rsvp_members (guild_id, event_id, user_id, status, position)
+SELECT r.guild_id, r.event_id, CAST(j.user_id AS UNSIGNED), 4, j.position
+FROM rsvp r,
+     JSON_TABLE(CONCAT('["', REPLACE(r.undecided, ',', '","'), '"]'), '$[*]'
+                COLUMNS (position FOR ORDINALITY, user_id VARCHAR(32) PATH '$')) j
+WHERE j.user_id <> '';
+
+INSERT IGNORE INTO rsvp_members (guild_id, event_id, user_id, status, position)
+SELECT r.guild_id, r.event_id, CAST(j.user_id AS UNSIGNED), 5, j.position
+FROM rsvp r,
+     JSON_TABLE(CONCAT('["', REPLACE(r.waitlist, ',', '","'), '"]'), '$[*]'
+                COLUMNS (position FOR ORDINALITY, user_id VARCHAR(32) PATH '$')) j
+WHERE j.user_id <> '';
+
+ALTER TABLE rsvp
+    DROP COLUMN going_on_time,
+    DROP COLUMN going_late,
+    DROP COLUMN not_going,
+    DROP COLUMN undecided,
+    DROP COLUMN waitlist;
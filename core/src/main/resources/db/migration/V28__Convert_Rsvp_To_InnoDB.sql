@@ -0,0 +1,5 @@
+# noinspection SqlResolveForFile
+
+# Created as MyISAM back in V1, which ignores row locks and transactions. Saving users going locks the event's rsvp
+# row while counting who is already going, so writers for the same event can't both take the last spot.
+ALTER TABLE rsvp ENGINE = InnoDB;
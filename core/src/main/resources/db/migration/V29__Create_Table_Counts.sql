@@ -0,0 +1,52 @@
+# noinspection SqlResolveForFile
+
+# Row counts kept up to date by triggers, so reading how many calendars/announcements exist is a primary key lookup
+# instead of a COUNT(*) over the whole table. The triggers run inside the same statement as the insert/delete.
+# An upsert that updates an existing row only fires the update triggers, so it never double counts.
+CREATE TABLE IF NOT EXISTS table_counts
+(
+    name      VARCHAR(64) NOT NULL,
+    row_count BIGINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY (name)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
+
+INSERT IGNORE INTO table_counts (name, row_count)
+VALUES ('calendars', 0),
+       ('announcements', 0),
+       ('static_messages', 0);
+
+CREATE TRIGGER calendars_count_insert
+    AFTER INSERT
+    ON calendars
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count + 1 WHERE name = 'calendars';
+
+CREATE TRIGGER calendars_count_delete
+    AFTER DELETE
+    ON calendars
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count - 1 WHERE name = 'calendars';
+
+CREATE TRIGGER announcements_count_insert
+    AFTER INSERT
+    ON announcements
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count + 1 WHERE name = 'announcements';
+
+CREATE TRIGGER announcements_count_delete
+    AFTER DELETE
+    ON announcements
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count - 1 WHERE name = 'announcements';
+
+CREATE TRIGGER static_messages_count_insert
+    AFTER INSERT
+    ON static_messages
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count + 1 WHERE name = 'static_messages';
+
+CREATE TRIGGER static_messages_count_delete
+    AFTER DELETE
+    ON static_messages
+    FOR EACH ROW UPDATE table_counts SET row_count = row_count - 1 WHERE name = 'static_messages';
+
+# Seed with the real counts once the triggers are in place
+UPDATE table_counts SET row_count = (SELECT COUNT(*) FROM calendars) WHERE name = 'calendars';
+UPDATE table_counts SET row_count = (SELECT COUNT(*) FROM announcements) WHERE name = 'announcements';
+UPDATE table_counts SET row_count = (SELECT COUNT(*) FROM static_messages) WHERE name = 'static_messages';
@@ -0,0 +1,8 @@
+# noinspection SqlResolveForFile
+
+# Event data used to be stored with the end of the event's first instance, even for recurring events whose series goes
+# on long after that. Those rows can't be told apart from single events here, so none of them count as ended anymore.
+# The retention purge skips them, and they get their real end again the next time their event is created or edited.
+UPDATE events
+SET EVENT_END = 9223372036854775807
+WHERE EVENT_END > 0;
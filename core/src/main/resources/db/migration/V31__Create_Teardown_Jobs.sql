@@ -0,0 +1,19 @@
+# noinspection SqlResolveForFile
+
+# A row per calendar (or whole guild, calendar_number 0) being torn down.
+# Written before any data is deleted and finished in the same transaction as the final step,
+# so anything still unfinished here after a while was interrupted and can be run again.
+# A job is only finished by the instance that claimed it, and only resumed after claiming it again,
+# so two instances never run the same teardown. A calendar whose data is gone is marked finished, and the last
+# one of the guild to finish removes them all and renumbers, so numbers never shift under a teardown still running.
+CREATE TABLE IF NOT EXISTS teardown_jobs
+(
+    guild_id        BIGINT      NOT NULL,
+    calendar_number INT         NOT NULL,
+    created_at      DATETIME    NOT NULL,
+    claimed_by      VARCHAR(36) NOT NULL,
+    claimed_at      DATETIME    NOT NULL,
+    finished_at     DATETIME    NULL,
+    PRIMARY KEY (guild_id, calendar_number)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
@@ -0,0 +1,11 @@
+# noinspection SqlResolveForFile
+
+# These were created as MyISAM back in V1. MyISAM locks the whole table on every write and ignores transactions,
+# so teardowns/batched writes could neither roll back nor avoid blocking readers. Everything created since is InnoDB.
+ALTER TABLE announcements ENGINE = InnoDB;
+
+ALTER TABLE calendars ENGINE = InnoDB;
+
+ALTER TABLE events ENGINE = InnoDB;
+
+ALTER TABLE guild_settings ENGINE = InnoDB;
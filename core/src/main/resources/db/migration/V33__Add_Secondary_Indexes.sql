@@ -0,0 +1,25 @@
+# noinspection SqlResolveForFile
+
+# Indexes for the filters the bot actually queries by, so none of them scan the whole table.
+
+# Announcement event ids are Google event ids (or empty), LONGTEXT can't be indexed without a prefix
+ALTER TABLE announcements
+    MODIFY EVENT_ID VARCHAR(255) NOT NULL,
+    # GUILD_ID, GUILD_ID + ENABLED, GUILD_ID + ENABLED + ANNOUNCEMENT_TYPE
+    ADD INDEX announcements_guild_enabled_type_index (GUILD_ID, ENABLED, ANNOUNCEMENT_TYPE),
+    # ANNOUNCEMENT_TYPE, ANNOUNCEMENT_TYPE + ENABLED
+    ADD INDEX announcements_type_enabled_index (ANNOUNCEMENT_TYPE, ENABLED),
+    # Deleting the announcements of a deleted event
+    ADD INDEX announcements_guild_event_index (GUILD_ID, EVENT_ID);
+
+# Event data is deleted by event id alone
+ALTER TABLE events
+    ADD INDEX events_event_id_index (EVENT_ID);
+
+ALTER TABLE sessions
+    ADD INDEX sessions_user_id_index (user_id),
+    ADD INDEX sessions_expires_at_index (expires_at);
+
+# Accounts are looked up and updated by key alone, the primary key starts with the user id
+ALTER TABLE api
+    ADD INDEX api_api_key_index (API_KEY);
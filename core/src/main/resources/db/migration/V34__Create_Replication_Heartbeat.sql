@@ -0,0 +1,12 @@
+# noinspection SqlResolveForFile
+
+# A row per process, written to the primary and read back from the read replica (when one is configured), so replica
+# lag can be measured without needing replication privileges. Each process only compares its own heartbeats, which are
+# stamped with its own clock, so clock differences between processes can't skew the measured lag.
+CREATE TABLE IF NOT EXISTS replication_heartbeat
+(
+    id   VARCHAR(36) NOT NULL,
+    beat BIGINT      NOT NULL,
+    PRIMARY KEY (id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
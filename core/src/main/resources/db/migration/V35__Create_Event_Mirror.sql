@@ -0,0 +1,29 @@
+# noinspection SqlResolveForFile
+
+# Local copies of Google calendars' events, kept up to date with incremental sync, see EventMirror.
+# One state row per mirrored calendar, holding the sync token to continue from and the time window the mirror holds the
+# events of. The calendar id is kept so a mirror left behind for a calendar number that now points at a different
+# calendar is never mistaken for its own.
+CREATE TABLE IF NOT EXISTS event_mirror_state
+(
+    guild_id        BIGINT       NOT NULL,
+    calendar_number INT          NOT NULL,
+    calendar_id     VARCHAR(255) NOT NULL,
+    sync_token      VARCHAR(512) NOT NULL,
+    synced_at       DATETIME     NOT NULL,
+    window_start    DATETIME     NOT NULL,
+    window_end      DATETIME     NOT NULL,
+    PRIMARY KEY (guild_id, calendar_number)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
+
+# One row per event instance, as the JSON Google sent it.
+CREATE TABLE IF NOT EXISTS event_mirror
+(
+    guild_id        BIGINT       NOT NULL,
+    calendar_number INT          NOT NULL,
+    event_id        VARCHAR(255) NOT NULL,
+    payload         MEDIUMTEXT   NOT NULL,
+    PRIMARY KEY (guild_id, calendar_number, event_id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
@@ -0,0 +1,73 @@
+package org.dreamexposure.discal.core.cache
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+import java.time.Duration
+
+class CacheRegionTest {
+    private val region = CacheRegion<String, String>(Duration.ofMinutes(5), 10, negativeTtl = Duration.ofMinutes(1))
+
+    @Test
+    fun loadFillsTheRegion() {
+        assertEquals("loaded", region.getOrLoad("key") { Mono.just("loaded") }.block())
+        assertEquals("loaded", region["key"])
+    }
+
+    @Test
+    fun loadThatStartedBeforeAWriteDoesNotOverwriteIt() {
+        val database = Sinks.one<String>()
+        val loaded = region.getOrLoad("key") { database.asMono() }.toFuture()
+
+        region["key"] = "fresh"
+        database.tryEmitValue("stale")
+
+        // The caller still gets what it read, the region keeps the newer value
+        assertEquals("stale", loaded.get())
+        assertEquals("fresh", region["key"])
+    }
+
+    @Test
+    fun loadThatStartedBeforeARemoveDoesNotFill() {
+        val database = Sinks.one<String>()
+        val loaded = region.getOrLoad("key") { database.asMono() }.toFuture()
+        // Like an invalidation from another node arriving mid-load
+        region.remove("key")
+        database.tryEmitValue("stale")
+
+        assertEquals("stale", loaded.get())
+        assertNull(region["key"])
+        assertFalse(region.isAbsent("key"))
+    }
+
+    @Test
+    fun emptyLoadAfterAWriteIsNotCachedAsAbsent() {
+        val database = Sinks.empty<String>()
+        val loaded = region.getOrLoad("key") { database.asMono() }.toFuture()
+
+        region["key"] = "created"
+        database.tryEmitEmpty()
+
+        assertNull(loaded.get())
+        assertEquals("created", region["key"])
+    }
+
+    @Test
+    fun emptyLoadIsCachedAsAbsent() {
+        assertNull(region.getOrLoad("key") { Mono.empty() }.block())
+        assertTrue(region.isAbsent("key"))
+    }
+
+    @Test
+    fun writesBeforeALoadDontStopItFilling() {
+        region["key"] = "old"
+        region.remove("key")
+
+        assertEquals("loaded", region.getOrLoad("key") { Mono.just("loaded") }.block())
+        assertEquals("loaded", region["key"])
+    }
+}
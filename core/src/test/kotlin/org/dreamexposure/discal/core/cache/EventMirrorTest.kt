@@ -0,0 +1,219 @@
+package org.dreamexposure.discal.core.cache
+
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.client.util.DateTime
+import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.EventDateTime
+import com.google.api.services.calendar.model.Events
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneOffset
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Runs the mirror against a fake of Google's event listing (and CAM's token endpoint), so what it asks Google for and
+ * what it answers from its copy can both be checked.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class EventMirrorTest {
+    private val google = FakeGoogle()
+    private val guildId = Snowflake.of(854_775_807_000_000_003)
+    private val now = Instant.now()
+
+    @BeforeAll
+    fun setUp() {
+        google.start()
+
+        val properties = Properties()
+        properties["DATABASE_BACKEND"] = "memory"
+        properties["EVENT_MIRROR"] = "true"
+        properties["EVENT_MIRROR_HORIZON_DAYS"] = "180"
+        properties["GOOGLE_API_URL"] = "${google.url}/"
+        properties["CAM_URL"] = google.url
+        properties["BOT_API_TOKEN"] = "test"
+        properties["GOOGLE_CLIENT_ID"] = "test"
+        properties["GOOGLE_CLIENT_SECRET"] = "test"
+        properties["CREDENTIALS_COUNT"] = "1"
+        BotSettings.init(properties)
+    }
+
+    @AfterAll
+    fun tearDown() = google.stop()
+
+    @Test
+    fun sparseCalendarIsAnsweredFromTheMirror() {
+        val calendar = google.calendar("sparse", event("a", days = 1), event("b", days = 2))
+
+        assertEquals(listOf("a", "b"), upcoming("sparse", 5))
+        assertEquals(listOf("a", "b"), upcoming("sparse", 5))
+
+        // The listing of the window and the check past it, nothing after that
+        assertEquals(2, calendar.requests.size)
+    }
+
+    @Test
+    fun calendarWithEventsPastTheWindowGoesToGoogle() {
+        google.calendar("far", event("a", days = 1), event("c", days = 400))
+
+        assertNull(upcoming("far", 5))
+        assertEquals(listOf("a"), upcoming("far", 1))
+
+        val week = EventMirror.getEventsInTimeRange(calData("far"), ZoneOffset.UTC, now, now.plus(Duration.ofDays(7)))
+            .block()!!
+        assertEquals(listOf("a"), week.map { it.id })
+    }
+
+    @Test
+    fun changesArePickedUpIncrementally() {
+        val calendar = google.calendar("changing", event("a", days = 1), event("b", days = 2))
+        assertEquals(listOf("a", "b"), upcoming("changing", 5))
+
+        calendar.changes += event("a", days = 1).setStatus("cancelled")
+        calendar.changes += event("d", days = 3)
+        EventMirror.markStale(calData("changing"))
+
+        assertEquals(listOf("b", "d"), upcoming("changing", 5))
+        assertEquals("token1", calendar.requests.last()["syncToken"])
+    }
+
+    @Test
+    fun changePastTheWindowMakesShortAnswersGoToGoogle() {
+        val calendar = google.calendar("moved", event("a", days = 1))
+        assertEquals(listOf("a"), upcoming("moved", 5))
+
+        calendar.changes += event("e", days = 300)
+        EventMirror.markStale(calData("moved"))
+
+        assertNull(upcoming("moved", 5))
+    }
+
+    @Test
+    fun expiredSyncTokenListsTheWindowAgain() {
+        val calendar = google.calendar("expired", event("a", days = 1))
+        assertEquals(listOf("a"), upcoming("expired", 5))
+
+        calendar.expired = true
+        calendar.events.clear()
+        calendar.events += event("f", days = 4)
+        EventMirror.markStale(calData("expired"))
+
+        assertEquals(listOf("f"), upcoming("expired", 5))
+        assertNull(calendar.requests.last()["syncToken"])
+    }
+
+    private fun upcoming(calendarId: String, amount: Int): List<String>? {
+        return EventMirror.getUpcomingEvents(calData(calendarId), ZoneOffset.UTC, amount).block()?.map { it.id }
+    }
+
+    private fun calData(calendarId: String) = CalendarData(guildId, 1, CalendarHost.GOOGLE, calendarId, calendarId)
+
+    private fun event(id: String, days: Long): Event {
+        val start = now.plus(Duration.ofDays(days))
+        return Event().setId(id).setStatus("confirmed")
+            .setStart(EventDateTime().setDateTime(DateTime(start.toEpochMilli())))
+            .setEnd(EventDateTime().setDateTime(DateTime(start.plus(Duration.ofHours(1)).toEpochMilli())))
+    }
+
+    private class FakeCalendar(val events: MutableList<Event>) {
+        val changes: MutableList<Event> = CopyOnWriteArrayList()
+        val requests: MutableList<Map<String, String>> = CopyOnWriteArrayList()
+
+        @Volatile
+        var expired = false
+        private var tokens = 0
+
+        @Synchronized
+        fun list(query: Map<String, String>): Pair<Int, String> {
+            requests += query
+
+            if (query["syncToken"] != null) {
+                if (expired) return 410 to """{"error": {"code": 410, "message": "Sync token is no longer valid",
+                    "errors": [{"reason": "fullSyncRequired", "message": "Sync token is no longer valid"}]}}"""
+
+                val page = Events().setItems(changes.toList()).setNextSyncToken("token${++tokens}")
+                changes.clear()
+                return 200 to json.toString(page)
+            }
+
+            expired = false
+            val min = query["timeMin"]?.let { DateTime.parseRfc3339(it).value } ?: Long.MIN_VALUE
+            val max = query["timeMax"]?.let { DateTime.parseRfc3339(it).value } ?: Long.MAX_VALUE
+            val matching = events
+                .filter { it.end.dateTime.value > min && it.start.dateTime.value < max }
+                .sortedBy { it.start.dateTime.value }
+                .take(query["maxResults"]?.toInt() ?: Int.MAX_VALUE)
+
+            // Only full listings of a window hand out a sync token, Google won't for ordered ones
+            val page = Events().setItems(matching)
+            if (query["timeMax"] != null) page.nextSyncToken = "token${++tokens}"
+            return 200 to json.toString(page)
+        }
+    }
+
+    private class FakeGoogle {
+        private val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        private val calendars = ConcurrentHashMap<String, FakeCalendar>()
+
+        val url: String
+            get() = "http://localhost:${server.address.port}"
+
+        fun calendar(id: String, vararg events: Event): FakeCalendar {
+            return FakeCalendar(CopyOnWriteArrayList(events.toList())).also { calendars[id] = it }
+        }
+
+        fun start() {
+            server.createContext("/v1/token") {
+                val valid = Instant.now().plus(Duration.ofHours(1))
+                respond(it, 200, """{"access_token": "token", "valid_until": "$valid"}""")
+            }
+            server.createContext("/calendar/v3/calendars/") {
+                val calendarId = it.requestURI.path.removePrefix("/calendar/v3/calendars/").removeSuffix("/events")
+                val calendar = calendars[calendarId]
+
+                if (calendar == null) respond(it, 404, """{"error": {"code": 404, "message": "Not Found"}}""")
+                else {
+                    val (status, body) = calendar.list(query(it))
+                    respond(it, status, body)
+                }
+            }
+            server.start()
+        }
+
+        fun stop() = server.stop(0)
+
+        private fun query(exchange: HttpExchange): Map<String, String> {
+            return exchange.requestURI.rawQuery.orEmpty().split("&").filter(String::isNotEmpty).associate {
+                val (key, value) = it.split("=", limit = 2)
+                URLDecoder.decode(key, StandardCharsets.UTF_8) to URLDecoder.decode(value, StandardCharsets.UTF_8)
+            }
+        }
+
+        private fun respond(exchange: HttpExchange, status: Int, body: String) {
+            val bytes = body.toByteArray()
+            exchange.responseHeaders.add("Content-Type", "application/json; charset=UTF-8")
+            exchange.sendResponseHeaders(status, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+    }
+
+    private companion object {
+        val json: GsonFactory = GsonFactory.getDefaultInstance()
+    }
+}
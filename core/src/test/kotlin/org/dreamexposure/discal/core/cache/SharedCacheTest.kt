@@ -0,0 +1,95 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import io.lettuce.core.RedisClient
+import io.lettuce.core.api.sync.RedisCommands
+import org.dreamexposure.discal.Application
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.testcontainers.containers.GenericContainer
+import org.testcontainers.junit.jupiter.Testcontainers
+import org.testcontainers.utility.DockerImageName
+import java.util.Properties
+
+/**
+ * Runs the shared tier against a real Redis, with this process as one node and a plain client standing in for the
+ * others.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SharedCacheTest {
+    private val redis = GenericContainer<Nothing>(DockerImageName.parse("redis:6.2-alpine")).apply {
+        withExposedPorts(6379)
+    }
+    private lateinit var otherNode: RedisCommands<String, String>
+
+    @BeforeAll
+    fun setUp() {
+        redis.start()
+
+        val properties = Properties()
+        properties["CACHE_USE_REDIS"] = "true"
+        properties["REDIS_HOSTNAME"] = redis.host
+        properties["REDIS_PORT"] = redis.firstMappedPort.toString()
+        properties["REDIS_USE_PASSWORD"] = "false"
+        properties["REDIS_PASSWORD"] = ""
+        BotSettings.init(properties)
+
+        SharedCache.connect()
+        otherNode = RedisClient.create("redis://${redis.host}:${redis.firstMappedPort}").connect().sync()
+    }
+
+    @AfterAll
+    fun tearDown() = redis.stop()
+
+    @Test
+    fun fillDoesNotOverwriteAnUpdate() {
+        val guildId = Snowflake.of(854_775_807_000_000_010)
+
+        SharedCache.updateSettings(GuildSettings(guildId, prefix = "new")).block()
+        // A fill of settings loaded before the update
+        SharedCache.putSettings(GuildSettings(guildId, prefix = "old")).block()
+
+        assertEquals("new", SharedCache.getSettings(guildId).block()!!.prefix)
+    }
+
+    @Test
+    fun fillIsServedToOtherNodes() {
+        val guildId = Snowflake.of(854_775_807_000_000_011)
+
+        SharedCache.putSettings(GuildSettings(guildId, prefix = "filled")).block()
+
+        assertEquals("filled", SharedCache.getSettings(guildId).block()!!.prefix)
+        assertNotNull(otherNode.get("discal:cache:settings:${guildId.asString()}"))
+    }
+
+    @Test
+    fun invalidationFromAnotherNodeDropsTheLocalCopy() {
+        val own = Snowflake.of(854_775_807_000_000_012)
+        val other = Snowflake.of(854_775_807_000_000_013)
+        DiscalCache.guildSettings[own] = GuildSettings(own)
+        DiscalCache.guildSettings[other] = GuildSettings(other)
+
+        // This node's own invalidations come back to it too, and must be ignored
+        otherNode.publish("discal:cache:invalidate", "SETTINGS ${own.asString()} ${Application.instanceId}")
+        otherNode.publish("discal:cache:invalidate", "SETTINGS ${other.asString()} another-node")
+
+        // Messages arrive in order, once the second is handled the first has been
+        awaitRemoved(other)
+        assertNotNull(DiscalCache.guildSettings[own])
+    }
+
+    private fun awaitRemoved(guildId: Snowflake) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (DiscalCache.guildSettings[guildId] != null) {
+            check(System.currentTimeMillis() < deadline) { "Local copy of $guildId was never dropped" }
+            Thread.sleep(10)
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.dreamexposure.discal.core.database
+
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.testcontainers.junit.jupiter.Testcontainers
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+import java.sql.SQLException
+import java.sql.Timestamp
+import java.time.Instant
+
+/**
+ * EXPLAINs every query in [Queries] against tables seeded with a few thousand rows, and fails on any that reads a
+ * whole table or a whole index. A query added without an index to back it shows up here, not in production.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryPlanTest {
+    private val rows = 5000
+
+    // Scans that are fine, and why
+    private val allowedScans = mapOf(
+        "SELECT_ALL_ANNOUNCEMENTS" to "Loads every announcement on purpose",
+        "SELECT_ALL_ENABLED_ANNOUNCEMENTS" to "Most announcements are enabled, reading them all is a scan either way",
+        "SELECT_TEARDOWN_JOBS" to "Only holds teardowns in progress",
+        "DELETE_STALE_HEARTBEATS" to "One row per running process",
+    )
+
+    @BeforeAll
+    fun setUp() = seed()
+
+    @Test
+    fun noQueryScansAWholeTable() {
+        val queries = queries()
+        val failures = queries.flatMap { (name, sql) ->
+            if (name.substringBefore('(') in allowedScans) emptyList() else scans(sql).map { "$name: $it\n$sql" }
+        }
+
+        assertTrue(queries.size > 50) { "Only found ${queries.size} queries" }
+        assertTrue(failures.isEmpty()) { failures.joinToString("\n\n") }
+    }
+
+    @Test
+    fun allowedScansStillExist() {
+        val names = queries().map { it.first.substringBefore('(') }.toSet()
+
+        assertTrue(names.containsAll(allowedScans.keys)) { "Stale entries: ${allowedScans.keys - names}" }
+    }
+
+    /**
+     * Every query that can be EXPLAINed, by name. Functions are called with small counts, both flags, and each table
+     * they work on. Plain inserts (nothing to plan), multi-statement strings and data dictionary reads are left out.
+     */
+    private fun queries(): List<Pair<String, String>> {
+        val fields = Queries::class.java.declaredFields
+            .filter { Modifier.isStatic(it.modifiers) && it.type == String::class.java }
+            .map { field -> field.name to field.apply { isAccessible = true }.get(null) as String }
+
+        val functions = Queries::class.java.declaredMethods
+            .filter { Modifier.isPublic(it.modifiers) && it.returnType == String::class.java && it.parameterCount > 0 }
+            .flatMap(::calls)
+
+        return (fields + functions).filter { (_, sql) ->
+            val insert = sql.trimStart().startsWith("INSERT") || sql.trimStart().startsWith("REPLACE")
+            !(insert && "SELECT" !in sql) && ";" !in sql && "information_schema" !in sql
+        }
+    }
+
+    private fun calls(method: Method): List<Pair<String, String>> {
+        val types = method.parameterTypes.toList()
+        val argLists = if (types.size == 2 && types.all { it == Int::class.java }) {
+            // Shard functions, a count and an index
+            listOf(listOf<Any>(16, 3))
+        } else {
+            types.fold(listOf(emptyList<Any>())) { lists, type ->
+                val options = when (type) {
+                    Int::class.java -> listOf(1)
+                    Boolean::class.java -> listOf(false, true)
+                    String::class.java -> tables()
+                    else -> error("Can't call ${method.name} with a ${type.name}")
+                }
+                lists.flatMap { list -> options.map { list + it } }
+            }
+        }
+
+        val calls = argLists.map { args ->
+            "${method.name}(${args.joinToString()})" to method.invoke(Queries, *args.toTypedArray()) as String
+        }
+
+        // A table function is only meant for the tables that have its columns
+        return if (String::class.java in types) {
+            calls.filter { (_, sql) -> applies(sql) }.also {
+                assertTrue(it.isNotEmpty()) { "${method.name} works on none of the tables" }
+            }
+        } else calls
+    }
+
+    private fun tables(): List<String> {
+        return Tables::class.java.declaredFields
+            .filter { Modifier.isStatic(it.modifiers) && it.type == String::class.java }
+            .map { it.get(null) as String }
+    }
+
+    private fun applies(sql: String): Boolean {
+        return try {
+            explain(sql)
+            true
+        } catch (e: SQLException) {
+            // Unknown column
+            if (e.errorCode == 1054) false else throw e
+        }
+    }
+
+    /**
+     * @return The tables [sql] reads in full, with how.
+     */
+    private fun scans(sql: String): List<String> {
+        return explain(sql)
+            // Derived tables and materialized subqueries are built by the query itself
+            .filter { (it["table"] as String?)?.startsWith("<") == false }
+            .filter { it["type"] == "ALL" || it["type"] == "index" }
+            .map { "${it["type"]} on ${it["table"]}" }
+    }
+
+    private fun explain(sql: String) = TestDatabase.query("EXPLAIN $sql", *bindings(sql).toTypedArray())
+
+    /**
+     * A value for each `?` that is the right kind for where it is: counts after LIMIT and OFFSET, times for the
+     * `_at` columns, and strings everywhere else, which MySQL converts for numeric columns without losing the index.
+     */
+    private fun bindings(sql: String): List<Any> {
+        return Regex("\\?").findAll(sql).map { placeholder ->
+            val before = sql.substring(0, placeholder.range.first)
+            val column = Regex("(\\w+)\\s*[<>=]+\\s*$").find(before)?.groupValues?.get(1)
+
+            when {
+                Regex("(?i)(LIMIT|OFFSET)\\s*$").containsMatchIn(before) -> 10
+                column != null && column.endsWith("_at", ignoreCase = true) -> Timestamp.from(Instant.now())
+                else -> "1"
+            }
+        }.toList()
+    }
+
+    /**
+     * Fills every table with [rows] rows of distinct keys straight from the schema, so the optimizer sees tables
+     * big enough that an index pays off, then has it refresh its statistics.
+     */
+    private fun seed() {
+        val columns = TestDatabase.query("""SELECT TABLE_NAME, COLUMN_NAME, DATA_TYPE, EXTRA FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME <> 'schema_history'
+            ORDER BY TABLE_NAME, ORDINAL_POSITION""")
+            .filter { "GENERATED" !in (it["EXTRA"] as String).uppercase() && "auto_increment" !in it["EXTRA"] as String }
+            .groupBy { it["TABLE_NAME"] as String }
+
+        val digits = (0..9).joinToString(" UNION ALL ") { "SELECT $it AS d" }
+        val numbers = "SELECT a.d + 10 * b.d + 100 * c.d + 1000 * e.d AS n " +
+            "FROM ($digits) a, ($digits) b, ($digits) c, ($digits) e"
+
+        val inserts = columns.map { (table, tableColumns) ->
+            val names = tableColumns.joinToString(", ") { "`${it["COLUMN_NAME"]}`" }
+            val values = tableColumns.joinToString(", ") { value(it["DATA_TYPE"] as String) }
+
+            "INSERT IGNORE INTO `$table` ($names) SELECT $values FROM ($numbers) numbers WHERE n < $rows"
+        }
+
+        TestDatabase.execute(*inserts.toTypedArray())
+        TestDatabase.execute(*columns.keys.map { "ANALYZE TABLE `$it`" }.toTypedArray())
+    }
+
+    private fun value(type: String) = when (type.lowercase()) {
+        "tinyint", "bit" -> "n % 2"
+        "smallint" -> "n % 100"
+        // Spread like snowflakes, so guilds land on every shard
+        "bigint" -> "(n << 22) + n"
+        "int", "mediumint", "decimal", "float", "double" -> "n"
+        "datetime", "timestamp" -> "NOW() - INTERVAL n MINUTE"
+        "date" -> "CURDATE()"
+        "json" -> "JSON_OBJECT()"
+        else -> "CONCAT('v', n)"
+    }
+}
@@ -0,0 +1,82 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.testcontainers.junit.jupiter.Testcontainers
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.core.scheduler.Schedulers
+
+/**
+ * Users going are checked against the stored limit when saved. Nobody already going may be moved to the waitlist by
+ * saving them again, and racing writers may never get more users in than the limit allows. Whoever doesn't fit must
+ * be told so by the write itself.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RsvpLimitTest {
+    private val guildId = Snowflake.of(854_775_807_000_000_004)
+
+    @BeforeAll
+    fun setUp() {
+        TestDatabase.execute("DELETE FROM rsvp", "DELETE FROM rsvp_members")
+    }
+
+    @Test
+    fun goingUserSavedAgainInAFullEventStaysGoing() {
+        val first = RsvpData(guildId, "full").apply { limit = 1 }
+        first.goingOnTime.add("1")
+        assertTrue(DatabaseManager.updateRsvpDataNow(first).block()!!.waitlisted.isEmpty())
+
+        // Another copy moving the same user from on time to late, while the event is full with just them
+        val second = DatabaseManager.getRsvpData(guildId, "full").block()!!
+        second.goingOnTime.remove("1")
+        second.goingLate.add("1")
+        val result = DatabaseManager.updateRsvpDataNow(second).block()!!
+
+        assertTrue(result.saved)
+        assertTrue(result.waitlisted.isEmpty())
+        assertEquals(listOf("1"), second.goingLate)
+        assertEquals(mapOf("1" to 2), statuses("full"))
+    }
+
+    @Test
+    fun racingUsersPastTheLimitAreWaitlisted() {
+        val limit = 3
+        val users = 12
+        DatabaseManager.updateRsvpDataNow(RsvpData(guildId, "raced").apply { this.limit = limit }).block()
+
+        // Every user joins through their own copy, the way separate commands would
+        val results = Flux.range(1, users).flatMap({ i ->
+            Mono.defer {
+                DatabaseManager.getRsvpData(guildId, "raced").flatMap { data ->
+                    data.goingOnTime.add("$i")
+                    DatabaseManager.updateRsvpDataNow(data)
+                }
+            }.subscribeOn(Schedulers.parallel())
+        }, users).collectList().block()!!
+
+        val stored = statuses("raced")
+        val waitlisted = results.flatMap { it.waitlisted }.toSet()
+
+        assertTrue(results.all { it.saved })
+        assertEquals(limit, stored.values.count { it == 1 })
+        assertEquals(stored.filterValues { it == 5 }.keys, waitlisted)
+        assertEquals(users - limit, waitlisted.size)
+    }
+
+    /**
+     * @return Each stored user's status value.
+     */
+    private fun statuses(eventId: String): Map<String, Int> {
+        return TestDatabase.query(
+            "SELECT user_id, status FROM rsvp_members WHERE guild_id = ? AND event_id = ?",
+            guildId.asLong(), eventId,
+        ).associate { "${it["user_id"]}" to (it["status"] as Number).toInt() }
+    }
+}
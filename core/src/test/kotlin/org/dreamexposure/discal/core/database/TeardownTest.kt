@@ -0,0 +1,82 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.testcontainers.junit.jupiter.Testcontainers
+import reactor.core.publisher.Flux
+import java.time.Instant
+
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TeardownTest {
+    private val guildA = Snowflake.of(854_775_807_000_000_001)
+    private val guildB = Snowflake.of(854_775_807_000_000_002)
+
+    @BeforeAll
+    fun setUp() {
+        TestDatabase.execute("DELETE FROM calendars", "DELETE FROM events", "DELETE FROM teardown_jobs")
+    }
+
+    @Test
+    fun guildTeardownTakesOverPendingCalendarJob() {
+        seed(guildA, 2)
+        pendingJob(guildA, 1, claimedAt = "NOW()")
+
+        assertTrue(DatabaseManager.deleteAllDataForGuild(guildA).block()!!)
+
+        assertEquals(0, count("SELECT COUNT(*) FROM teardown_jobs WHERE guild_id = ?", guildA))
+        assertEquals(0, count("SELECT COUNT(*) FROM calendars WHERE GUILD_ID = ?", guildA))
+        assertEquals(0, count("SELECT COUNT(*) FROM events WHERE GUILD_ID = ?", guildA))
+    }
+
+    @Test
+    fun calendarsTornDownSideBySideRenumberOnceBothAreDone() {
+        seed(guildB, 4)
+        // Calendar 2 is being torn down elsewhere, and has been for long enough to count as abandoned
+        pendingJob(guildB, 2, claimedAt = "NOW() - INTERVAL 2 HOUR")
+
+        assertTrue(DatabaseManager.deleteCalendarAndRelatedData(CalendarData(guildB, 3, CalendarHost.GOOGLE)).block()!!)
+
+        // Numbers stay put while calendar 2's teardown is still running
+        assertEquals(listOf("cal1", "cal2", "cal3", "cal4"), calendarIds(guildB))
+        assertEquals(0, count("SELECT COUNT(*) FROM events WHERE GUILD_ID = ? AND CALENDAR_NUMBER = 3", guildB))
+
+        assertEquals(1, DatabaseManager.resumeTeardowns(Instant.now().minusSeconds(3600)).block()!!)
+
+        assertEquals(listOf("cal1", "cal4"), calendarIds(guildB))
+        val events = TestDatabase.query(
+            "SELECT EVENT_ID, CALENDAR_NUMBER FROM events WHERE GUILD_ID = ? ORDER BY EVENT_ID", guildB.asLong()
+        ).map { it["EVENT_ID"] to (it["CALENDAR_NUMBER"] as Number).toInt() }
+        assertEquals(listOf("event1" to 1, "event4" to 2), events)
+        assertEquals(0, count("SELECT COUNT(*) FROM teardown_jobs WHERE guild_id = ?", guildB))
+    }
+
+    private fun seed(guildId: Snowflake, calendars: Int) {
+        Flux.range(1, calendars).concatMap { number ->
+            DatabaseManager.updateCalendar(CalendarData(guildId, number, CalendarHost.GOOGLE, "cal$number", "cal$number"))
+                .then(DatabaseManager.updateEventData(EventData(guildId, "event$number", number, 1, "image")))
+        }.blockLast()
+    }
+
+    private fun pendingJob(guildId: Snowflake, calendarNumber: Int, claimedAt: String) {
+        TestDatabase.execute("""INSERT INTO teardown_jobs (guild_id, calendar_number, created_at, claimed_by, claimed_at)
+            VALUES (${guildId.asLong()}, $calendarNumber, NOW(), 'elsewhere', $claimedAt)""")
+    }
+
+    private fun calendarIds(guildId: Snowflake): List<Any?> {
+        return TestDatabase.query(
+            "SELECT CALENDAR_ID FROM calendars WHERE GUILD_ID = ? ORDER BY CALENDAR_NUMBER", guildId.asLong()
+        ).map { it["CALENDAR_ID"] }
+    }
+
+    private fun count(sql: String, guildId: Snowflake): Int {
+        return (TestDatabase.query(sql, guildId.asLong()).single().values.single() as Number).toInt()
+    }
+}
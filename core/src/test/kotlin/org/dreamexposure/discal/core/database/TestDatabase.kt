@@ -0,0 +1,80 @@
+package org.dreamexposure.discal.core.database
+
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.flywaydb.core.Flyway
+import org.testcontainers.containers.MySQLContainer
+import org.testcontainers.utility.DockerImageName
+import java.sql.Connection
+import java.sql.DriverManager
+import java.util.Properties
+
+/**
+ * A MySQL container with every migration applied, and the settings pointed at it. Started on first use, once per JVM,
+ * which is once per test class (see `forkEvery` in the build).
+ *
+ * [DatabaseManager] reads its settings when it is first touched, so touch this first.
+ */
+internal object TestDatabase {
+    const val SHARD_BUCKETS = 1024
+
+    private val container = MySQLContainer<Nothing>(DockerImageName.parse("mysql:8.0.27")).apply {
+        withDatabaseName("discal")
+        // The table count triggers are created by a user without SUPER
+        withCommand("--log-bin-trust-function-creators=1")
+        start()
+    }
+
+    init {
+        Flyway.configure()
+            .dataSource(container.jdbcUrl, container.username, container.password)
+            .table("schema_history")
+            .placeholders(mapOf(
+                "prefix" to "",
+                "shard_buckets" to SHARD_BUCKETS.toString(),
+                "shard_bucket_bits" to Integer.numberOfTrailingZeros(SHARD_BUCKETS).toString(),
+            ))
+            .load()
+            .migrate()
+
+        val properties = Properties()
+        properties["SQL_HOST"] = container.host
+        properties["SQL_PORT"] = container.getMappedPort(MySQLContainer.MYSQL_PORT).toString()
+        properties["SQL_USER"] = container.username
+        properties["SQL_PASS"] = container.password
+        properties["SQL_DB"] = container.databaseName
+        properties["SQL_PREFIX"] = ""
+        properties["SQL_SHARD_BUCKETS"] = SHARD_BUCKETS.toString()
+        properties["CREDENTIALS_COUNT"] = "1"
+        BotSettings.init(properties)
+    }
+
+    /**
+     * Runs [block] on a plain JDBC connection, for checking what is actually stored without going through the code
+     * under test.
+     */
+    fun <T> jdbc(block: (Connection) -> T): T = connection().use(block)
+
+    /**
+     * A plain JDBC connection the caller closes, for benchmarks that keep one open across invocations.
+     */
+    fun connection(): Connection {
+        return DriverManager.getConnection(container.jdbcUrl, container.username, container.password)
+    }
+
+    /**
+     * @return The rows [sql] selects, each as column label -> value.
+     */
+    fun query(sql: String, vararg args: Any): List<Map<String, Any?>> = jdbc { c ->
+        c.prepareStatement(sql).use { statement ->
+            args.forEachIndexed { i, arg -> statement.setObject(i + 1, arg) }
+            statement.executeQuery().use { rs ->
+                val columns = (1..rs.metaData.columnCount).map(rs.metaData::getColumnLabel)
+                generateSequence { if (rs.next()) columns.associateWith(rs::getObject) else null }.toList()
+            }
+        }
+    }
+
+    fun execute(vararg sql: String) = jdbc { c ->
+        c.createStatement().use { statement -> sql.forEach(statement::execute) }
+    }
+}
@@ -0,0 +1,157 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.dreamexposure.discal.core.`object`.google.GoogleCredentialData
+import org.dreamexposure.discal.core.`object`.web.UserAPIAccount
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.testcontainers.junit.jupiter.Testcontainers
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.core.scheduler.Schedulers
+import java.time.Instant
+
+/**
+ * Every write is a single upsert. Many writers racing on the same key must leave exactly one row behind, holding what
+ * one of them wrote, and every writer must be told it succeeded.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UpsertRegressionTest {
+    private val writers = 16
+    private val guildId = Snowflake.of(854_775_807_000_000_000)
+
+    @BeforeAll
+    fun setUp() {
+        TestDatabase.execute("DELETE FROM guild_settings", "DELETE FROM calendars", "DELETE FROM announcements",
+            "DELETE FROM events", "DELETE FROM rsvp", "DELETE FROM credentials", "DELETE FROM api")
+    }
+
+    @Test
+    fun concurrentSettingsWritesLeaveOneRow() {
+        race { i -> DatabaseManager.updateSettings(GuildSettings(guildId, prefix = "p$i")) }
+
+        val rows = TestDatabase.query("SELECT PREFIX FROM guild_settings WHERE GUILD_ID = ?", guildId.asLong())
+        assertEquals(1, rows.size)
+        assertTrue(rows.single()["PREFIX"] in written("p"))
+    }
+
+    @Test
+    fun concurrentCalendarWritesLeaveOneRow() {
+        race { i ->
+            DatabaseManager.updateCalendar(CalendarData(guildId, 1, CalendarHost.GOOGLE, "cal$i", "cal$i"))
+        }
+
+        val rows = TestDatabase.query(
+            "SELECT CALENDAR_ID, CALENDAR_ADDRESS FROM calendars WHERE GUILD_ID = ? AND CALENDAR_NUMBER = 1",
+            guildId.asLong(),
+        )
+        assertEquals(1, rows.size)
+        // One writer's row, not a mix of two
+        assertEquals(rows.single()["CALENDAR_ID"], rows.single()["CALENDAR_ADDRESS"])
+        assertTrue(rows.single()["CALENDAR_ID"] in written("cal"))
+    }
+
+    @Test
+    fun concurrentAnnouncementWritesLeaveOneRow() {
+        race { i -> DatabaseManager.updateAnnouncement(Announcement(guildId, id = "upsert-test", info = "info$i")) }
+
+        val rows = TestDatabase.query("SELECT INFO FROM announcements WHERE ANNOUNCEMENT_ID = 'upsert-test'")
+        assertEquals(1, rows.size)
+        assertTrue(rows.single()["INFO"] in written("info"))
+    }
+
+    @Test
+    fun concurrentEventDataWritesLeaveOneRow() {
+        race { i ->
+            DatabaseManager.updateEventData(EventData(guildId, "upsertevent", eventEnd = 1, imageLink = "image$i"))
+        }
+
+        val rows = TestDatabase.query(
+            "SELECT IMAGE_LINK FROM events WHERE GUILD_ID = ? AND EVENT_ID = 'upsertevent'",
+            guildId.asLong(),
+        )
+        assertEquals(1, rows.size)
+        assertTrue(rows.single()["IMAGE_LINK"] in written("image"))
+    }
+
+    @Test
+    fun concurrentRsvpWritesLeaveOneRow() {
+        race { i -> DatabaseManager.updateRsvpData(RsvpData(guildId, "upsertrsvp").apply { limit = i }) }
+
+        val rows = TestDatabase.query(
+            "SELECT RSVP_LIMIT FROM rsvp WHERE GUILD_ID = ? AND EVENT_ID = 'upsertrsvp'",
+            guildId.asLong(),
+        )
+        assertEquals(1, rows.size)
+        assertTrue((rows.single()["RSVP_LIMIT"] as Number).toInt() in 0 until writers)
+    }
+
+    @Test
+    fun concurrentCredentialWritesLeaveOneRow() {
+        race { i -> DatabaseManager.updateCredentialData(GoogleCredentialData(7, "refresh$i", "access$i", Instant.now())) }
+
+        val rows = TestDatabase.query("SELECT REFRESH_TOKEN, ACCESS_TOKEN FROM credentials WHERE CREDENTIAL_NUMBER = 7")
+        assertEquals(1, rows.size)
+        assertEquals(
+            (rows.single()["REFRESH_TOKEN"] as String).removePrefix("refresh"),
+            (rows.single()["ACCESS_TOKEN"] as String).removePrefix("access"),
+        )
+    }
+
+    @Test
+    fun concurrentApiAccountWritesLeaveOneRow() {
+        race { i -> DatabaseManager.updateAPIAccount(UserAPIAccount("user$i", APIKey = "racedkey", timeIssued = 1)) }
+
+        val rows = TestDatabase.query("SELECT USER_ID FROM api WHERE API_KEY = 'racedkey'")
+        assertEquals(1, rows.size)
+        assertTrue(rows.single()["USER_ID"] in written("user"))
+    }
+
+    @Test
+    fun apiKeyMovedToAnotherUserKeepsOneRow() {
+        assertTrue(DatabaseManager.updateAPIAccount(UserAPIAccount("first", APIKey = "movedkey")).block()!!)
+        assertTrue(DatabaseManager.updateAPIAccount(UserAPIAccount("second", APIKey = "movedkey", blocked = true)).block()!!)
+        // Saving again unchanged is still a success, and still one row
+        assertTrue(DatabaseManager.updateAPIAccount(UserAPIAccount("second", APIKey = "movedkey", blocked = true)).block()!!)
+
+        val rows = TestDatabase.query("SELECT USER_ID, BLOCKED FROM api WHERE API_KEY = 'movedkey'")
+        assertEquals(1, rows.size)
+        assertEquals("second", rows.single()["USER_ID"])
+        assertEquals(true, rows.single()["BLOCKED"])
+    }
+
+    @Test
+    fun unchangedWriteStillSucceeds() {
+        val data = EventData(guildId, "unchanged", eventEnd = 1, imageLink = "image")
+
+        assertTrue(DatabaseManager.updateEventData(data).block()!!)
+        assertTrue(DatabaseManager.updateEventData(data).block()!!)
+    }
+
+    /**
+     * Runs all writers at once, each on its own thread, and checks every one of them reported success.
+     */
+    private fun race(write: (Int) -> Mono<Boolean>) {
+        val results = Flux.range(0, writers)
+            .parallel(writers)
+            .runOn(Schedulers.newParallel("upsert-race", writers))
+            .flatMap { write(it) }
+            .sequential()
+            .collectList()
+            .block()!!
+
+        assertEquals(List(writers) { true }, results)
+    }
+
+    private fun written(prefix: String) = List(writers) { "$prefix$it" }
+}
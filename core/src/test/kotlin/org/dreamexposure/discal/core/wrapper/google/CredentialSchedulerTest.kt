@@ -0,0 +1,53 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import java.util.Properties
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CredentialSchedulerTest {
+    @BeforeAll
+    fun setUp() {
+        BotSettings.init(Properties().apply { this["CREDENTIALS_COUNT"] = "2" })
+    }
+
+    @Test
+    fun tooManyRequestsIsAlwaysQuota() {
+        assertTrue(CredentialScheduler.isQuotaError(429, emptyList()))
+    }
+
+    @Test
+    fun forbiddenIsQuotaOnlyWithAQuotaReason() {
+        assertTrue(CredentialScheduler.isQuotaError(403, listOf("rateLimitExceeded")))
+        assertTrue(CredentialScheduler.isQuotaError(403, listOf("userRateLimitExceeded")))
+        assertTrue(CredentialScheduler.isQuotaError(403, listOf("quotaExceeded")))
+
+        assertFalse(CredentialScheduler.isQuotaError(403, listOf("forbidden")))
+        assertFalse(CredentialScheduler.isQuotaError(403, listOf("insufficientPermissions", null)))
+        assertFalse(CredentialScheduler.isQuotaError(403, emptyList()))
+    }
+
+    @Test
+    fun otherStatusesAreNotQuota() {
+        assertFalse(CredentialScheduler.isQuotaError(200, emptyList()))
+        assertFalse(CredentialScheduler.isQuotaError(404, listOf("notFound")))
+        assertFalse(CredentialScheduler.isQuotaError(400, listOf("rateLimitExceeded")))
+    }
+
+    @Test
+    fun onlyQuotaErrorsMakeACredentialBackOff() {
+        CredentialScheduler.record(0, quotaError = false, nanos = 1_000_000)
+        CredentialScheduler.record(1, quotaError = true, nanos = 1_000_000)
+
+        val data = CredentialScheduler.getData()
+        assertFalse(data[0].backingOff)
+        assertTrue(data[1].backingOff)
+        // Ties go to the one not backing off
+        assertEquals(0, CredentialScheduler.credentialForNewCalendar())
+    }
+}
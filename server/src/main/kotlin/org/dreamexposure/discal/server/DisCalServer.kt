@@ -1,6 +1,7 @@
 package org.dreamexposure.discal.server
 
 import org.dreamexposure.discal.Application
+import org.dreamexposure.discal.core.cache.SharedCache
 import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
@@ -20,6 +21,7 @@ class DisCalServer {
     @PreDestroy
     fun onShutdown() {
         LOGGER.info(STATUS, "API shutting down.")
+        DatabaseManager.flushPendingWrites().block()
         DatabaseManager.disconnectFromMySQL()
     }
 
@@ -31,6 +33,9 @@ class DisCalServer {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Connect the shared cache now, not lazily from inside a reactive pipeline
+            SharedCache.connect()
+
             //Start up spring
             try {
                 SpringApplicationBuilder(Application::class.java)
@@ -145,10 +145,12 @@ class UpdateRsvpEndpoint(val client: DiscordClient) {
 
 
                 //Honestly no fucking idea if this will work, like at all.
-                roleChangeMono.then(removalMono).then(addMono).then(DatabaseManager.updateRsvpData(rsvp))
-            })
-                    .then(responseMessage("Success!"))
-                    .doOnNext { response.rawStatusCode = GlobalVal.STATUS_SUCCESS }
+                roleChangeMono.then(removalMono).then(addMono).then(DatabaseManager.updateRsvpDataNow(rsvp))
+                        .flatMap { result -> rsvp.revokeRole(result.waitlisted, client).thenReturn(result) }
+            }).map { result ->
+                // Users that were added as going but didn't fit anymore, they are on the waitlist instead
+                JSONObject().put("message", "Success!").put("waitlisted", result.waitlisted).toString()
+            }.doOnNext { response.rawStatusCode = GlobalVal.STATUS_SUCCESS }
         }.onErrorResume(JSONException::class.java) {
             LOGGER.trace("[API-v2] JSON error. Bad request?", it)
 
@@ -15,7 +15,12 @@ import kotlin.system.exitProcess
 @Component
 class DatabaseMigrationRunner : ApplicationRunner {
     override fun run(args: ApplicationArguments?) {
-        val placeholders: Map<String, String> = mapOf(Pair("prefix", SQL_PREFIX.get()))
+        val placeholders: Map<String, String> = mapOf(
+            Pair("prefix", SQL_PREFIX.get()),
+            Pair("shard_buckets", SQL_SHARD_BUCKETS.getOrDefault("1024")),
+            // The bucket count is a power of two, the buckets are stored with this many bits reversed
+            Pair("shard_bucket_bits", Integer.numberOfTrailingZeros(SQL_SHARD_BUCKETS.getOrDefault("1024").toInt()).toString()),
+        )
         try {
             val source = HikariDataSource()
             source.jdbcUrl = "jdbc:mysql://${SQL_HOST.get()}:${SQL_PORT.get()}/${SQL_DB.get()}"
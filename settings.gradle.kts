@@ -3,6 +3,7 @@ pluginManagement {
     val springVersion: String by settings
     val gitPropsVersion: String by settings
     val jibVersion: String by settings
+    val jmhPluginVersion: String by settings
 
     plugins {
         kotlin("jvm") version kotlinVersion
@@ -13,6 +14,7 @@ pluginManagement {
         id("org.springframework.boot") version springVersion apply false
         id("com.gorylenko.gradle-git-properties") version gitPropsVersion apply false
         id("com.google.cloud.tools.jib") version jibVersion apply false
+        id("me.champeau.jmh") version jmhPluginVersion apply false
     }
 
     repositories {